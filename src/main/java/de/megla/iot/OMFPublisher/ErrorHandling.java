@@ -33,6 +33,37 @@ public class ErrorHandling {
 			logger.error(line);
 	}
 	
+	/**
+	 * Logs the exception as an error, if the sampler allows it. The amount of suppressed errors is logged before.
+	 */
+	public static void handleSampled(OMFLogSampler sampler, String message, Throwable ex, Logger logger) {
+		if(!sampler.tryLog())
+			return;
+		
+		logSuppressed(sampler, logger);
+		handle(message, ex, logger);
+	}
+	
+	/**
+	 * Logs multiple strings as errors, if the sampler allows it. The amount of suppressed errors is logged before.
+	 */
+	public static void handleSampled(OMFLogSampler sampler, Logger logger, String...strings) {
+		if(!sampler.tryLog())
+			return;
+		
+		logSuppressed(sampler, logger);
+		handle(logger, strings);
+	}
+	
+	/**
+	 * Logs the amount of errors, which were suppressed by the sampler since the last logged error.
+	 */
+	private static void logSuppressed(OMFLogSampler sampler, Logger logger) {
+		int suppressed = sampler.takeSuppressed();
+		if(suppressed > 0)
+			logger.error(String.format("%d errors were not logged since the last logged error.", suppressed));
+	}
+	
 	/**
 	 * Creates an appropriate log message for different https status codes.
 	 */
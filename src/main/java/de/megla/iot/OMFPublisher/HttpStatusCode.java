@@ -28,7 +28,10 @@ public enum HttpStatusCode {
 	BADREQUEST(400, "Bad Request"), 
 	UNAUTHORIZED(401, "Unauthorized"), 
 	FORBIDDEN(403, "Forbidden"), 
+	NOTFOUND(404, "Not Found"), 
+	REQUESTTIMEOUT(408, "Request Timeout"), 
 	PAYLOADTOOLARGE(413, "Payload Too Large"), 
+	TOOMANYREQUESTS(429, "Too Many Requests"), 
 	INTERNALSERVERERROR(500, "Internal Server Error"), 
 	SERVICEUNAVAILABLE(503, "Service Unavailable"), 
 	UNKNOWN(-1, "Unknown");
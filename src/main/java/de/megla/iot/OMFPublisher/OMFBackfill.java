@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.type.DataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+
+/**
+ * OMFBackfill.java
+ *
+ * The OMFBackfill uploads local history files (see OMFBackfillReader) to one OMF target. The files of the backfill directory
+ * are sent in the order of their names. A reader thread streams the files into batches of the max amount of values and
+ * serializes them, while an upload thread sends the previous batches, so reading, serializing and uploading overlap.
+ * The pipeline depth is the amount of batches, which are serialized ahead. The batches are uploaded one at a time,
+ * because the requests of a target are sent one by one with the definitions of the send loop, and the checkpoint of a file
+ * may only advance after all previous batches of the file were acknowledged.
+ * The batches bypass the in-flight queue, but use the definitions, rate limit and dead letters of the target.
+ * <p>
+ * After every acknowledged batch the amount of sent lines of the file is written to a checkpoint file, so an interrupted
+ * backfill continues after the last acknowledged batch. A batch, which was sent but not checkpointed, is sent again.
+ */
+public class OMFBackfill {
+	/**
+	 * <b>logger</b> 				logs all messages for Debugging (Info, Warning, Error)
+	 * <b>targetPublisher</b>		target, to which the history files are sent
+	 * <b>omfPublisherOptions</b>	options of the backfill, for example the directory and the batch size
+	 * <b>directory</b>				directory with the history files
+	 * <b>checkpointFile</b>		file in which the progress of every history file is persisted
+	 * <b>checkpoints</b>			amount of acknowledged lines of every history file, or COMPLETED
+	 * <b>channelTypes</b>			data type of every channel, which is pinned by its first value in this run, by the asset and channel name
+	 * <b>pipeline</b>				serialized batches, which are waiting for the upload
+	 * <b>logSampler</b>			limits the logged errors of unreadable lines
+	 * <b>readerThread</b>			thread which reads and serializes the batches
+	 * <b>uploadThread</b>			thread which uploads the batches and writes the checkpoints
+	 * <b>stopped</b>				true if the backfill was stopped
+	 * <b>COMPLETED</b>				checkpoint of a file, which was sent completely
+	 * <b>FILE_SUFFIX</b>			suffix of all checkpoint files
+	 * <b>MAX_RETRY_DELAY</b>		max milliseconds between two attempts of a batch, which was not accepted temporarily
+	 * <b>END</b>					marks the end of the pipeline after the last file
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OMFBackfill.class);
+
+	private final OMFTargetPublisher targetPublisher;
+	private final OMFPublisherOptions omfPublisherOptions;
+	private final File directory;
+	private final File checkpointFile;
+	private final Properties checkpoints = new Properties();
+	private final Map<String, DataType> channelTypes = new HashMap<>();
+	private final BlockingQueue<Batch> pipeline;
+	private final OMFLogSampler logSampler;
+	private volatile Thread readerThread;
+	private volatile Thread uploadThread;
+	private volatile boolean stopped = false;
+
+	private static final String COMPLETED = "completed";
+	private static final String FILE_SUFFIX = ".backfill";
+	private static final long MAX_RETRY_DELAY = 60_000;
+	private static final Batch END = new Batch(null, 0, null, true);
+
+	/**
+	 * Constructor which sets the backfill directory and the checkpoint file of the target in the persistence directory.
+	 */
+	public OMFBackfill(OMFTargetPublisher targetPublisher, OMFPublisherOptions omfPublisherOptions) {
+		this.targetPublisher = targetPublisher;
+		this.omfPublisherOptions = omfPublisherOptions;
+		this.directory = new File(omfPublisherOptions.getBackfillDirectory().trim());
+		this.pipeline = new ArrayBlockingQueue<>(Math.max(omfPublisherOptions.getBackfillPipelineDepth(), 1));
+		this.logSampler = new OMFLogSampler(omfPublisherOptions.getErrorLogsPerMinute());
+
+		String scope = omfPublisherOptions.getTargetURL() + "\n" + omfPublisherOptions.getProducerToken()
+				+ "\n" + omfPublisherOptions.getDevicename() + "\n" + this.directory.getAbsolutePath();
+
+		this.checkpointFile = new File(omfPublisherOptions.getPersistenceDirectory(), OMFDefinitionRegistry.hash(scope).substring(0, 16) + FILE_SUFFIX);
+	}
+
+	/**
+	 * Loads the checkpoints and starts the reader and upload thread.
+	 */
+	public synchronized void start() {
+		loadCheckpoints();
+
+		logger.info(String.format("Start backfill of %s to %s...", this.directory, this.omfPublisherOptions.getTargetURL()));
+
+		this.readerThread = new Thread(this::read, "OMFPublisher-Backfill-Reader");
+		this.uploadThread = new Thread(this::upload, "OMFPublisher-Backfill-Upload");
+		this.readerThread.setDaemon(true);
+		this.uploadThread.setDaemon(true);
+		this.readerThread.start();
+		this.uploadThread.start();
+	}
+
+	/**
+	 * Stops both threads. A running request is not cancelled, its checkpoint is written when it was accepted.
+	 */
+	public synchronized void stop() {
+		if(this.stopped)
+			return;
+
+		this.stopped = true;
+		if(this.readerThread == null)
+			return;
+
+		this.readerThread.interrupt();
+		this.uploadThread.interrupt();
+
+		logger.info(String.format("Stopped backfill of %s to %s.", this.directory, this.omfPublisherOptions.getTargetURL()));
+	}
+
+	/**
+	 * Waits until a running request was answered or the connection timeout elapsed, so its checkpoint is written.
+	 */
+	public void awaitStop() {
+		Thread thread = this.uploadThread;
+		if(thread == null)
+			return;
+
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(this.omfPublisherOptions.getConnectionTimeout() + 1L));
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * True if the backfill was started and not all files were sent yet.
+	 */
+	public boolean isRunning() {
+		Thread thread = this.uploadThread;
+		return !this.stopped && thread != null && thread.isAlive();
+	}
+
+	/**
+	 * Reads every history file, which was not sent completely, from its checkpoint into batches of the max amount of values.
+	 * The batches are serialized, before they are passed to the upload thread.
+	 */
+	private void read() {
+		File[] files = this.directory.listFiles(OMFBackfillReader::isSupported);
+
+		if(files == null) {
+			logger.warn(String.format("The backfill directory %s cannot be read.", this.directory));
+			files = new File[0];
+		}
+
+		Arrays.sort(files);
+		int batchSize = Math.max(this.omfPublisherOptions.getBackfillBatchSize(), 1);
+
+		try {
+			for(File file : files) {
+				String checkpoint = getCheckpoint(file.getName());
+				if(COMPLETED.equals(checkpoint))
+					continue;
+
+				long sentLines = checkpoint == null ? 0 : Long.parseLong(checkpoint);
+				logger.info(String.format("Backfill of %s starts at line %d.", file, sentLines));
+
+				try(OMFBackfillReader reader = new OMFBackfillReader(file, this.channelTypes)) {
+					boolean more = reader.skipLines(sentLines);
+					OMFAssetList batch = new OMFAssetList(this.omfPublisherOptions);
+
+					while(more && !this.stopped) {
+						try {
+							more = reader.readInto(batch);
+						} catch(IllegalArgumentException ex) {
+							ErrorHandling.handleSampled(this.logSampler, String.format("The line of %s is skipped.", file), ex, logger);
+						}
+
+						if(batch.getValueCount() >= batchSize) {
+							pass(new Batch(file.getName(), reader.getLineNumber(), batch, false));
+							batch = new OMFAssetList(this.omfPublisherOptions);
+						}
+					}
+
+					if(!this.stopped)
+						pass(new Batch(file.getName(), reader.getLineNumber(), batch, true));
+				} catch(IOException | RuntimeException ex) {
+					ErrorHandling.handle(String.format("Error while reading the history file %s. It is skipped.", file), ex, logger);
+				}
+			}
+
+			this.pipeline.put(END);
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Registers the schema versions of a batch in the target, serializes it and waits until the pipeline has space for it.
+	 */
+	private void pass(Batch batch) throws InterruptedException {
+		if(!batch.assetList.isEmpty()) {
+			this.targetPublisher.registerValuesSchemas(batch.assetList);
+			batch.assetList.freezeDataFragments();
+		}
+
+		this.pipeline.put(batch);
+	}
+
+	/**
+	 * Uploads the batches of the pipeline one by one and writes the checkpoint of every acknowledged batch.
+	 */
+	private void upload() {
+		int filesCompleted = 0;
+
+		try {
+			while(!this.stopped) {
+				Batch batch = this.pipeline.take();
+				if(batch == END) {
+					logger.info(String.format("Backfill of %s to %s... Done (%d files)", this.directory,
+							this.omfPublisherOptions.getTargetURL(), filesCompleted));
+					break;
+				}
+
+				if(!send(batch.assetList))
+					break;
+
+				setCheckpoint(batch.filename, batch.completed ? COMPLETED : String.valueOf(batch.lineNumber));
+
+				if(batch.completed) {
+					filesCompleted++;
+					logger.info(String.format("Backfill of %s completed (%d lines).", batch.filename, batch.lineNumber));
+				}
+			}
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends a batch until it was accepted. Temporary failures are retried with an increasing delay.
+	 * Failures which are caused by the batch itself split the batch, until the failing values are found and
+	 * moved to the dead letters of the target.
+	 * @return False if the backfill was stopped before the batch was accepted.
+	 */
+	private boolean send(OMFAssetList batch) throws InterruptedException {
+		Deque<OMFAssetList> parts = new ArrayDeque<>();
+		parts.add(batch);
+		long retryDelay = 1000;
+
+		while(!parts.isEmpty()) {
+			if(this.stopped)
+				return false;
+
+			OMFAssetList part = parts.peekFirst();
+			if(part.isEmpty()) {
+				parts.removeFirst();
+				continue;
+			}
+
+			String reason;
+			try {
+				int status = this.targetPublisher.sendBackfillMessage(part);
+
+				if(OMFValidator.isPositiveOmfHttpResponse(status)) {
+					parts.removeFirst();
+					retryDelay = 1000;
+					continue;
+				}
+
+				if(OMFValidator.isRetryableOmfHttpResponse(status)) {
+					logger.warn(String.format("The backfill message failed with HTTP status %d. It is sent again in %d ms.", status, retryDelay));
+					Thread.sleep(retryDelay);
+					retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+					continue;
+				}
+
+				reason = String.format("HTTP status %d", status);
+			} catch(RuntimeException ex) {
+				//The message cannot be serialized, so it will fail on every attempt
+				reason = ex.toString();
+			}
+
+			parts.removeFirst();
+			List<OMFAssetList> halves = part.split();
+
+			if(halves.isEmpty()) {
+				this.targetPublisher.getDeadLetters().add(part, reason);
+				ErrorHandling.handleSampled(this.logSampler, logger, String.format("The OMF target did not accept the backfill message (%s). "
+						+ "It is moved to the dead letters (%d).", reason, this.targetPublisher.getDeadLetters().size()));
+			}
+			else {
+				for(int i = halves.size() - 1; i >= 0; i--)
+					parts.addFirst(halves.get(i));
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the checkpoint of a history file, or null if it was not started yet.
+	 */
+	private synchronized String getCheckpoint(String filename) {
+		return this.checkpoints.getProperty(filename);
+	}
+
+	/**
+	 * Sets the checkpoint of a history file and persists all checkpoints.
+	 */
+	private synchronized void setCheckpoint(String filename, String checkpoint) {
+		this.checkpoints.setProperty(filename, checkpoint);
+		storeCheckpoints();
+	}
+
+	/**
+	 * Loads the checkpoints from the checkpoint file.
+	 */
+	private synchronized void loadCheckpoints() {
+		this.checkpoints.clear();
+		if(!this.checkpointFile.isFile())
+			return;
+
+		try(InputStream in = Files.newInputStream(this.checkpointFile.toPath())) {
+			this.checkpoints.load(in);
+		} catch(IOException | IllegalArgumentException ex) {
+			this.checkpoints.clear();
+			ErrorHandling.handle("Error while loading the backfill checkpoints. All history files will be sent again.", ex, logger);
+		}
+	}
+
+	/**
+	 * Writes the checkpoints to a temporary file and replaces the checkpoint file with it.
+	 */
+	private void storeCheckpoints() {
+		try {
+			File directory = this.checkpointFile.getParentFile();
+			if(!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create directory " + directory);
+
+			File tempFile = new File(directory, this.checkpointFile.getName() + ".tmp");
+			try(OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+				this.checkpoints.store(out, "Backfill checkpoints of " + this.directory.getAbsolutePath());
+			}
+
+			Files.move(tempFile.toPath(), this.checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException ex) {
+			ErrorHandling.handle("Error while persisting the backfill checkpoints.", ex, logger);
+		}
+	}
+
+	/**
+	 * A batch of a history file with the amount of lines, which are sent with it.
+	 */
+	private static class Batch {
+		private final String filename;
+		private final long lineNumber;
+		private final OMFAssetList assetList;
+		private final boolean completed;
+
+		Batch(String filename, long lineNumber, OMFAssetList assetList, boolean completed) {
+			this.filename = filename;
+			this.lineNumber = lineNumber;
+			this.assetList = assetList;
+			this.completed = completed;
+		}
+	}
+}
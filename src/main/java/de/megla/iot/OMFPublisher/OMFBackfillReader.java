@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.kura.type.DataType;
+import org.eclipse.kura.type.TypedValue;
+import org.eclipse.kura.type.TypedValues;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+
+/**
+ * OMFBackfillReader.java
+ *
+ * The OMFBackfillReader streams the values of a local history file line by line into asset lists, so files of any size
+ * can be backfilled with constant memory. Supported formats are CSV files (".csv") with a header line and
+ * JSON lines files (".jsonl", ".ndjson") with one object per line:
+ * <pre>
+ * asset,channel,timestamp,value[,type]
+ * {"asset": "a", "timestamp": 1577836800000, "channel": "c", "value": 1.5[, "type": "DOUBLE"]}
+ * {"asset": "a", "timestamp": "2020-01-01T00:00:00Z", "channels": {"c": 1.5, "d": true}}
+ * </pre>
+ * Time stamps are milliseconds since 1970 or ISO-8601 (without offset in UTC). Without a type, numbers are sent as DOUBLE.
+ * The data type of every channel is pinned to the type of its first value in the backfill run, so a value of another type
+ * (for example "n/a" in a DOUBLE channel or a line with another type) cannot change the type of the channel between the lines
+ * and files. Such a value is converted to the pinned type, a value which cannot be converted is skipped like a line which
+ * cannot be parsed. The CSV separator is "," or ";".
+ */
+public class OMFBackfillReader implements Closeable {
+	/**
+	 * <b>reader</b>				reader of the history file
+	 * <b>csv</b>					true if the file is a CSV file
+	 * <b>separator</b>				separator of the CSV columns
+	 * <b>columns</b>				index of every column of the CSV header
+	 * <b>lineNumber</b>			amount of lines, which were read after the header
+	 * <b>channelTypes</b>			data type of the first value of every channel in the backfill run by the asset and channel name
+	 * <b>COLUMN_ASSET</b>			name of the column or property with the asset name
+	 * <b>COLUMN_CHANNEL</b>		name of the column or property with the channel name
+	 * <b>COLUMN_TIMESTAMP</b>		name of the column or property with the time stamp
+	 * <b>COLUMN_VALUE</b>			name of the column or property with the value
+	 * <b>COLUMN_TYPE</b>			name of the optional column or property with the data type of the value
+	 * <b>PROPERTY_CHANNELS</b>		name of the JSON property with the values of several channels
+	 */
+	private final BufferedReader reader;
+	private final boolean csv;
+	private char separator = ',';
+	private final Map<String, Integer> columns = new HashMap<>();
+	private long lineNumber = 0;
+	private final Map<String, DataType> channelTypes;
+
+	private static final String COLUMN_ASSET = "asset";
+	private static final String COLUMN_CHANNEL = "channel";
+	private static final String COLUMN_TIMESTAMP = "timestamp";
+	private static final String COLUMN_VALUE = "value";
+	private static final String COLUMN_TYPE = "type";
+	private static final String PROPERTY_CHANNELS = "channels";
+
+	/**
+	 * Constructor which opens the history file and reads the header of a CSV file.
+	 * @param channelTypes pinned data types of the channels, which are shared by all files of the backfill run
+	 */
+	public OMFBackfillReader(File file, Map<String, DataType> channelTypes) throws IOException {
+		this.channelTypes = channelTypes;
+		this.reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+		this.csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+
+		if(this.csv)
+			readHeader();
+	}
+
+	/**
+	 * True if the file has a supported format.
+	 */
+	public static boolean isSupported(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		return file.isFile() && (name.endsWith(".csv") || name.endsWith(".jsonl") || name.endsWith(".ndjson"));
+	}
+
+	/**
+	 * Returns the amount of lines, which were read after the header.
+	 */
+	public long getLineNumber() {
+		return this.lineNumber;
+	}
+
+	/**
+	 * Skips lines, which were already sent. The values of the lines are parsed anyway, so the channels keep the types,
+	 * which were pinned when the lines were sent.
+	 * @return False if the end of the file was reached.
+	 */
+	public boolean skipLines(long lines) throws IOException {
+		while(this.lineNumber < lines) {
+			try {
+				if(!readInto(null))
+					return false;
+			} catch(IllegalArgumentException ex) {
+				//The line was skipped when it was sent as well
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next line and adds its values to the asset list. Empty lines are skipped.
+	 * @param assetList list to which the values are added, or null if only the types of the channels are pinned
+	 * @return False if the end of the file was reached.
+	 * @throws IllegalArgumentException if the line cannot be parsed. The line is skipped, so the next line can be read.
+	 */
+	public boolean readInto(OMFAssetList assetList) throws IOException {
+		String line = this.reader.readLine();
+		if(line == null)
+			return false;
+
+		this.lineNumber++;
+		if(line.trim().isEmpty())
+			return true;
+
+		try {
+			if(this.csv)
+				readCsvLine(line, assetList);
+			else
+				readJsonLine(line, assetList);
+		} catch(RuntimeException ex) {
+			throw new IllegalArgumentException(String.format("Line %d cannot be parsed: %s", this.lineNumber, ex.getMessage()), ex);
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+	/**
+	 * Reads the header of a CSV file and detects the separator.
+	 */
+	private void readHeader() throws IOException {
+		String header = this.reader.readLine();
+		if(header == null)
+			return;
+
+		//a byte order mark is not part of the first column
+		if(header.startsWith("\uFEFF"))
+			header = header.substring(1);
+
+		if(header.indexOf(';') >= 0 && header.indexOf(',') < 0)
+			this.separator = ';';
+
+		List<String> names = splitCsv(header, this.separator);
+		for(int i = 0; i < names.size(); i++)
+			this.columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+
+		for(String column : new String[] {COLUMN_ASSET, COLUMN_CHANNEL, COLUMN_TIMESTAMP, COLUMN_VALUE})
+			if(!this.columns.containsKey(column))
+				throw new IOException(String.format("The CSV header does not contain the column \"%s\"", column));
+	}
+
+	/**
+	 * Adds the value of a CSV line to the asset list.
+	 */
+	private void readCsvLine(String line, OMFAssetList assetList) {
+		List<String> fields = splitCsv(line, this.separator);
+
+		String type = this.columns.containsKey(COLUMN_TYPE) ? field(fields, COLUMN_TYPE) : "";
+		String text = field(fields, COLUMN_VALUE);
+
+		addValue(assetList, field(fields, COLUMN_ASSET), field(fields, COLUMN_CHANNEL),
+				parseTimestamp(field(fields, COLUMN_TIMESTAMP)), parseValue(text, type), text);
+	}
+
+	/**
+	 * Returns the field of a column of a CSV line.
+	 */
+	private String field(List<String> fields, String column) {
+		int index = this.columns.get(column);
+		if(index >= fields.size())
+			throw new IllegalArgumentException(String.format("The column \"%s\" is missing", column));
+
+		return fields.get(index).trim();
+	}
+
+	/**
+	 * Adds the values of a JSON line to the asset list.
+	 */
+	private void readJsonLine(String line, OMFAssetList assetList) {
+		JsonObject object = new JsonParser().parse(line).getAsJsonObject();
+
+		String assetname = object.get(COLUMN_ASSET).getAsString();
+		Date timestamp = parseTimestamp(object.get(COLUMN_TIMESTAMP).getAsString());
+
+		if(object.has(PROPERTY_CHANNELS)) {
+			for(Map.Entry<String, JsonElement> channel : object.getAsJsonObject(PROPERTY_CHANNELS).entrySet())
+				if(channel.getValue().isJsonPrimitive()) {
+					JsonPrimitive value = channel.getValue().getAsJsonPrimitive();
+					addValue(assetList, assetname, channel.getKey(), timestamp, parseValue(value, ""), value.getAsString());
+				}
+		}
+		else {
+			String type = object.has(COLUMN_TYPE) ? object.get(COLUMN_TYPE).getAsString() : "";
+			JsonElement value = object.get(COLUMN_VALUE);
+
+			if(value != null && value.isJsonPrimitive())
+				addValue(assetList, assetname, object.get(COLUMN_CHANNEL).getAsString(), timestamp, 
+						parseValue(value.getAsJsonPrimitive(), type), value.getAsString());
+		}
+	}
+
+	/**
+	 * Adds a value to the asset list. The first value of a channel pins its type, a later value of another type
+	 * is converted to the pinned type, no matter if its type was detected or set by the line.
+	 * @param assetList list to which the value is added, or null if only the type of the channel is pinned
+	 * @param text value as it was read, which is converted
+	 * @throws IllegalArgumentException if the value cannot be converted to the pinned type
+	 */
+	private void addValue(OMFAssetList assetList, String assetname, String channelName, Date timestamp, 
+			TypedValue<?> value, String text) {
+		DataType pinnedType = this.channelTypes.putIfAbsent(assetname + "\n" + channelName, value.getType());
+
+		if(pinnedType != null && pinnedType != value.getType())
+			value = convertValue(text, pinnedType, channelName);
+
+		if(assetList != null)
+			assetList.addValue(assetname, channelName, timestamp, value);
+	}
+
+	/**
+	 * Converts a value to the pinned type of its channel.
+	 * @throws IllegalArgumentException if the value is not valid for the type
+	 */
+	private static TypedValue<?> convertValue(String text, DataType pinnedType, String channelName) {
+		boolean isBoolean = text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false");
+
+		try {
+			if(pinnedType == DataType.BOOLEAN && !isBoolean)
+				throw new NumberFormatException(text);
+
+			return parseValue(text, pinnedType.name());
+		} catch(NumberFormatException ex) {
+			throw new IllegalArgumentException(String.format("The value \"%s\" of the channel \"%s\" is no %s like its first value", 
+					text, channelName, pinnedType), ex);
+		}
+	}
+
+	/**
+	 * Parses a time stamp in milliseconds since 1970 or in ISO-8601. A time stamp without offset is in UTC.
+	 */
+	static Date parseTimestamp(String text) {
+		text = text.trim();
+
+		if(!text.isEmpty() && text.chars().allMatch(Character::isDigit))
+			return new Date(Long.parseLong(text));
+
+		try {
+			return Date.from(OffsetDateTime.parse(text).toInstant());
+		} catch(DateTimeParseException ex) {
+			return Date.from(LocalDateTime.parse(text).toInstant(ZoneOffset.UTC));
+		}
+	}
+
+	/**
+	 * Parses a JSON value. Without a type, booleans and strings keep their type and numbers are DOUBLE.
+	 */
+	private static TypedValue<?> parseValue(JsonPrimitive value, String type) {
+		if(type.isEmpty() && value.isBoolean())
+			return TypedValues.newBooleanValue(value.getAsBoolean());
+
+		if(type.isEmpty() && value.isString())
+			return TypedValues.newStringValue(value.getAsString());
+
+		return parseValue(value.getAsString(), type);
+	}
+
+	/**
+	 * Parses a value with the name of its data type (BOOLEAN, DOUBLE, FLOAT, INTEGER, LONG or STRING).
+	 * Without a type, "true" and "false" are BOOLEAN, numbers are DOUBLE and all other values are STRING.
+	 */
+	static TypedValue<?> parseValue(String text, String type) {
+		switch(type.trim().toUpperCase(Locale.ROOT)) {
+		case "BOOLEAN":
+			return TypedValues.newBooleanValue(Boolean.parseBoolean(text));
+		case "DOUBLE":
+			return TypedValues.newDoubleValue(Double.parseDouble(text));
+		case "FLOAT":
+			return TypedValues.newFloatValue(Float.parseFloat(text));
+		case "INTEGER":
+			return TypedValues.newIntegerValue(Integer.parseInt(text));
+		case "LONG":
+			return TypedValues.newLongValue(Long.parseLong(text));
+		case "STRING":
+			return TypedValues.newStringValue(text);
+		case "":
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("The data type \"%s\" is not supported", type));
+		}
+
+		if(text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false"))
+			return TypedValues.newBooleanValue(Boolean.parseBoolean(text));
+
+		try {
+			return TypedValues.newDoubleValue(Double.parseDouble(text));
+		} catch(NumberFormatException ex) {
+			return TypedValues.newStringValue(text);
+		}
+	}
+
+	/**
+	 * Splits a CSV line at the separator. Fields can be quoted with '"', a quote inside a quoted field is written as '""'.
+	 */
+	static List<String> splitCsv(String line, char separator) {
+		List<String> result = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if(quoted) {
+				if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				}
+				else if(c == '"')
+					quoted = false;
+				else
+					field.append(c);
+			}
+			else if(c == '"')
+				quoted = true;
+			else if(c == separator) {
+				result.add(field.toString());
+				field.setLength(0);
+			}
+			else
+				field.append(c);
+		}
+
+		result.add(field.toString());
+		return result;
+	}
+}
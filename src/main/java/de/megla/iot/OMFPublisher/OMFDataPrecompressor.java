@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.megla.iot.OMFPublisher.compression.CompressionCodec;
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+import de.megla.iot.OMFPublisher.models.OMFCompressedDataMessage;
+
+/**
+ * OMFDataPrecompressor.java
+ *
+ * Compresses the data messages of received asset lists in the background, so the send loops do not have to compress them.
+ * The content of every list is compressed into one gzip member. The array brackets and the separator are compressed once 
+ * into members of their own, so the message body is only the concatenation [ + content + ] of precomputed members,
+ * and merged lists join their contents with the separator.
+ */
+public class OMFDataPrecompressor {
+	/**
+	 * <b>logger</b> 			logs all messages for Debugging (Info, Warning, Error)
+	 * <b>codec</b>				concatenable codec which compresses the members
+	 * <b>executor</b>			executor which compresses the asset lists in the background
+	 * <b>minSize</b>			min size in bytes of a data message, which is compressed
+	 * <b>openMember</b>		compressed member of the opening bracket of the array
+	 * <b>separatorMember</b>	compressed member of the separator of two contents
+	 * <b>closeMember</b>		compressed member of the closing bracket of the array
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OMFDataPrecompressor.class);
+
+	private final CompressionCodec codec;
+	private final Executor executor;
+	private final int minSize;
+	private final byte[] openMember;
+	private final byte[] separatorMember;
+	private final byte[] closeMember;
+
+	/**
+	 * Constructor which sets the codec, the executor and the min size of compressed messages.
+	 * The codec has to be concatenable.
+	 */
+	public OMFDataPrecompressor(CompressionCodec codec, Executor executor, int minSize) {
+		if(!codec.isConcatenable())
+			throw new IllegalArgumentException(String.format("Compression %s cannot be concatenated", codec.getName()));
+
+		this.codec = codec;
+		this.executor = executor;
+		this.minSize = minSize;
+		this.openMember = codec.compress("[".getBytes(StandardCharsets.UTF_8));
+		this.separatorMember = codec.compress(",".getBytes(StandardCharsets.UTF_8));
+		this.closeMember = codec.compress("]".getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Compresses the data message of the asset list in the background.
+	 * The data of all assets has to be serialized into fragments before.
+	 */
+	public void submit(OMFAssetList assetList) {
+		this.executor.execute(() -> precompress(assetList));
+	}
+
+	/**
+	 * Compresses the data message of the asset list and stores it in the list.
+	 * Lists without fragments, without data or smaller than the min size are left uncompressed.
+	 */
+	void precompress(OMFAssetList assetList) {
+		try {
+			byte[] content = assetList.getDataFragmentContent();
+			if(content == null || content.length == 0 || content.length + 2 < this.minSize)
+				return;
+
+			byte[] contentMember = this.codec.compress(content);
+
+			assetList.setCompressedData(new OMFCompressedDataMessage(this.openMember, this.separatorMember, this.closeMember, 
+					assetList.size(), contentMember));
+		} catch(RuntimeException ex) {
+			ErrorHandling.handle("Error while compressing the data message in the background.", ex, logger);
+		}
+	}
+
+	/**
+	 * Releases the pooled resources of the codec.
+	 */
+	public void close() {
+		this.codec.close();
+	}
+}
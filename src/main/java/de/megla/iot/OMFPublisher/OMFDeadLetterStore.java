@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+
+/**
+ * OMFDeadLetterStore.java
+ *
+ * The OMFDeadLetterStore holds poison messages, which were rejected by the OMF target and could not be split any further.
+ * The store is bounded, if it is full the oldest message is discarded. The messages can be inspected and replayed.
+ */
+public class OMFDeadLetterStore {
+	/**
+	 * <b>logger</b> 			logs all messages for Debugging (Info, Warning, Error)
+	 * <b>capacity</b>			max amount of messages in the store
+	 * <b>deadLetters</b>		poison messages, the oldest first
+	 * <b>ACTION_NONE</b>		name of the action which does nothing
+	 * <b>ACTION_LOG</b>		name of the action which logs all messages of the store
+	 * <b>ACTION_REPLAY</b>		name of the action which moves all messages back to the in-flight messages
+	 * <b>ACTION_CLEAR</b>		name of the action which discards all messages of the store
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OMFDeadLetterStore.class);
+	
+	private int capacity;
+	private final Deque<DeadLetter> deadLetters = new ArrayDeque<>();
+	
+	public static final String ACTION_NONE = "none";
+	public static final String ACTION_LOG = "log";
+	public static final String ACTION_REPLAY = "replay";
+	public static final String ACTION_CLEAR = "clear";
+	
+	/**
+	 * Constructor which sets the max amount of messages in the store.
+	 */
+	public OMFDeadLetterStore(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Changes the max amount of messages. If the store contains more messages, the oldest are discarded.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		trim();
+	}
+	
+	/**
+	 * Adds a poison message with the reason of the failure.
+	 */
+	public synchronized void add(OMFAssetList assetList, String reason) {
+		this.deadLetters.addLast(new DeadLetter(assetList, reason));
+		trim();
+	}
+	
+	/**
+	 * Removes and returns all messages, the oldest first.
+	 */
+	public synchronized List<OMFAssetList> removeAll() {
+		List<OMFAssetList> result = new ArrayList<>();
+		
+		for(DeadLetter deadLetter : this.deadLetters)
+			result.add(deadLetter.getAssetList());
+		
+		this.deadLetters.clear();
+		return result;
+	}
+	
+	/**
+	 * Discards all messages.
+	 */
+	public synchronized void clear() {
+		this.deadLetters.clear();
+	}
+	
+	/**
+	 * Returns the amount of messages in the store.
+	 */
+	public synchronized int size() {
+		return this.deadLetters.size();
+	}
+	
+	/**
+	 * Returns a description of every message with the time and reason of the failure.
+	 */
+	public synchronized List<String> describe() {
+		List<String> result = new ArrayList<>();
+		int count = 0;
+		
+		for(DeadLetter deadLetter : this.deadLetters) {
+			count++;
+			result.add(String.format("Dead letter %d (%s): %s%s%s", count, deadLetter.getTime(), deadLetter.getReason(), 
+					System.lineSeparator(), deadLetter.getAssetList().toString()));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Discards the oldest messages, until the capacity is not exceeded.
+	 */
+	private void trim() {
+		while(this.deadLetters.size() > Math.max(this.capacity, 0)) {
+			DeadLetter discarded = this.deadLetters.removeFirst();
+			logger.warn(String.format("Dead letter store is full. Discarding dead letter from %s with %d values.", 
+					discarded.getTime(), discarded.getAssetList().getValueCount()));
+		}
+	}
+	
+	/**
+	 * A poison message with the time and reason of the failure.
+	 */
+	private static class DeadLetter {
+		private final OMFAssetList assetList;
+		private final String reason;
+		private final Date time = new Date();
+		
+		DeadLetter(OMFAssetList assetList, String reason) {
+			this.assetList = assetList;
+			this.reason = reason;
+		}
+		
+		OMFAssetList getAssetList() {
+			return this.assetList;
+		}
+		
+		String getReason() {
+			return this.reason;
+		}
+		
+		Date getTime() {
+			return this.time;
+		}
+	}
+}
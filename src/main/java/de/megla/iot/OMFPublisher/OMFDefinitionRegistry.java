@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OMFDefinitionRegistry.java
+ *
+ * The OMFDefinitionRegistry remembers the type and container definitions which were already acknowledged by
+ * an OMF target. Every definition is stored with a hash of its JSON, so a changed definition is sent again.
+ * The registry is persisted in one file per target URL, producer token and shard, so that a restart of the bundle
+ * only sends definitions which really changed.
+ */
+public class OMFDefinitionRegistry {
+	/**
+	 * <b>logger</b> 				logs all messages for Debugging (Info, Warning, Error)
+	 * <b>registryFile</b>			file in which the acknowledged definitions are persisted, null if not persisted
+	 * <b>definitionHashes</b>		key of every acknowledged definition and the hash of its JSON
+	 * <b>FILE_SUFFIX</b>			suffix of all registry files
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OMFDefinitionRegistry.class);
+
+	private final File registryFile;
+	private final Properties definitionHashes = new Properties();
+
+	private static final String FILE_SUFFIX = ".definitions";
+
+	/**
+	 * Constructor of a registry which is only held in memory.
+	 */
+	public OMFDefinitionRegistry() {
+		this.registryFile = null;
+	}
+
+	/**
+	 * Constructor which loads the registry of the target URL, producer token and shard from the persistence directory.
+	 */
+	public OMFDefinitionRegistry(OMFPublisherOptions omfPublisherOptions) {
+		String scope = omfPublisherOptions.getTargetURL() + "\n" + omfPublisherOptions.getProducerToken() + omfPublisherOptions.getShardScope();
+
+		this.registryFile = new File(omfPublisherOptions.getPersistenceDirectory(), hash(scope).substring(0, 16) + FILE_SUFFIX);
+		load();
+	}
+
+	/**
+	 * True if the definition with the specified key was acknowledged with exactly this JSON.
+	 */
+	public boolean isAcknowledged(String key, String definitionJson) {
+		//The definitions of large asset lists are checked in parallel, so the hash is computed outside of the lock
+		String definitionHash = hash(definitionJson);
+		
+		synchronized(this) {
+			return definitionHash.equals(this.definitionHashes.getProperty(key));
+		}
+	}
+
+	/**
+	 * Registers the definitions (key and JSON) which were accepted by the OMF target and persists the registry.
+	 */
+	public synchronized void acknowledge(Map<String, String> definitions) {
+		for(Map.Entry<String, String> definition : definitions.entrySet())
+			this.definitionHashes.setProperty(definition.getKey(), hash(definition.getValue()));
+
+		store();
+	}
+
+	/**
+	 * Removes all acknowledged definitions in order to send all definitions again.
+	 */
+	public synchronized void clear() {
+		this.definitionHashes.clear();
+		store();
+	}
+
+	/**
+	 * Returns the number of acknowledged definitions.
+	 */
+	public synchronized int size() {
+		return this.definitionHashes.size();
+	}
+
+	/**
+	 * Loads the acknowledged definitions from the registry file.
+	 */
+	private void load() {
+		if(!this.registryFile.isFile())
+			return;
+
+		try(InputStream in = Files.newInputStream(this.registryFile.toPath())) {
+			this.definitionHashes.load(in);
+			logger.info(String.format("Loaded %d known OMF definitions from %s", this.definitionHashes.size(), this.registryFile));
+		} catch(IOException | IllegalArgumentException ex) {
+			this.definitionHashes.clear();
+			ErrorHandling.handle("Error while loading the OMF definition registry. All definitions will be sent again.", ex, logger);
+		}
+	}
+
+	/**
+	 * Writes the acknowledged definitions to a temporary file and replaces the registry file with it.
+	 */
+	private void store() {
+		if(this.registryFile == null)
+			return;
+
+		try {
+			File directory = this.registryFile.getParentFile();
+			if(!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create directory " + directory);
+
+			File tempFile = new File(directory, this.registryFile.getName() + ".tmp");
+			try(OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+				this.definitionHashes.store(out, "Acknowledged OMF definitions");
+			}
+
+			Files.move(tempFile.toPath(), this.registryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException ex) {
+			ErrorHandling.handle("Error while persisting the OMF definition registry.", ex, logger);
+		}
+	}
+
+	/**
+	 * Returns the SHA-256 hash of a string in hexadecimal format.
+	 */
+	static String hash(String input) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+
+			for(byte b : digest)
+				sb.append(String.format("%02x", b));
+
+			return sb.toString();
+		} catch(NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not supported", ex);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * OMFFlightRecorder.java
+ *
+ * The OMFFlightRecorder keeps summaries of the last requests to an OMF target in memory: time, type, action, status,
+ * latency, size and an excerpt of the body. Instead of writing every failed message to the log,
+ * the summaries can be dumped on demand. The recorder is bounded, if it is full the oldest summary is discarded.
+ */
+public class OMFFlightRecorder {
+	/**
+	 * <b>capacity</b>			max amount of summaries in the recorder
+	 * <b>excerptLength</b>		max amount of bytes of the body, which are kept in a summary
+	 * <b>summaries</b>			summaries of the last requests, the oldest first
+	 * <b>ACTION_NONE</b>		name of the action which does nothing
+	 * <b>ACTION_DUMP</b>		name of the action which logs all summaries of the recorder
+	 * <b>ACTION_CLEAR</b>		name of the action which discards all summaries of the recorder
+	 */
+	private int capacity;
+	private int excerptLength;
+	private final Deque<RequestSummary> summaries = new ArrayDeque<>();
+
+	public static final String ACTION_NONE = "none";
+	public static final String ACTION_DUMP = "dump";
+	public static final String ACTION_CLEAR = "clear";
+
+	/**
+	 * Constructor which sets the max amount of summaries and the max length of the excerpts.
+	 */
+	public OMFFlightRecorder(int capacity, int excerptLength) {
+		this.capacity = capacity;
+		this.excerptLength = excerptLength;
+	}
+
+	/**
+	 * Changes the max amount of summaries and the max length of the excerpts. If the recorder contains more summaries, the oldest are discarded.
+	 */
+	public synchronized void setCapacity(int capacity, int excerptLength) {
+		this.capacity = capacity;
+		this.excerptLength = excerptLength;
+		trim();
+	}
+
+	/**
+	 * Records the summary of a request.
+	 * @param messageType Type of the message (type, container, data)
+	 * @param action Action of the message (create, update, delete)
+	 * @param status HTTP status code of the response
+	 * @param latency milliseconds from sending the request until the response
+	 * @param message uncompressed body of the request
+	 * @param sentBytes bytes of the body after compression
+	 */
+	public void record(String messageType, String action, int status, long latency, byte[] message, long sentBytes) {
+		RequestSummary summary = new RequestSummary(messageType, action, status, latency, message.length, sentBytes,
+				excerpt(message, this.excerptLength));
+
+		synchronized(this) {
+			this.summaries.addLast(summary);
+			trim();
+		}
+	}
+
+	/**
+	 * Discards all summaries.
+	 */
+	public synchronized void clear() {
+		this.summaries.clear();
+	}
+
+	/**
+	 * Returns the amount of summaries in the recorder.
+	 */
+	public synchronized int size() {
+		return this.summaries.size();
+	}
+
+	/**
+	 * Returns a description of every summary, the oldest first.
+	 */
+	public synchronized List<String> dump() {
+		List<String> result = new ArrayList<>();
+
+		for(RequestSummary summary : this.summaries)
+			result.add(summary.toString());
+
+		return result;
+	}
+
+	/**
+	 * Returns the first bytes of a message as text. Line breaks are replaced, so the excerpt fits in one log line.
+	 */
+	public static String excerpt(byte[] message, int length) {
+		if(length <= 0)
+			return "";
+
+		String result = new String(message, 0, Math.min(message.length, length), StandardCharsets.UTF_8).replaceAll("[\\r\\n]+", " ");
+		return message.length > length ? result + "..." : result;
+	}
+
+	/**
+	 * Returns the first characters of a text. Line breaks are replaced, so the excerpt fits in one log line.
+	 */
+	public static String excerpt(String text, int length) {
+		if(text == null)
+			return "";
+
+		return excerpt(text.getBytes(StandardCharsets.UTF_8), length);
+	}
+
+	/**
+	 * Discards the oldest summaries, until the capacity is not exceeded.
+	 */
+	private void trim() {
+		while(this.summaries.size() > Math.max(this.capacity, 0))
+			this.summaries.removeFirst();
+	}
+
+	/**
+	 * The summary of one request.
+	 */
+	private static class RequestSummary {
+		private final Date time = new Date();
+		private final String messageType;
+		private final String action;
+		private final int status;
+		private final long latency;
+		private final int size;
+		private final long sentBytes;
+		private final String excerpt;
+
+		RequestSummary(String messageType, String action, int status, long latency, int size, long sentBytes, String excerpt) {
+			this.messageType = messageType;
+			this.action = action;
+			this.status = status;
+			this.latency = latency;
+			this.size = size;
+			this.sentBytes = sentBytes;
+			this.excerpt = excerpt;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s %s: status %d, %d ms, %d bytes (%d sent) %s",
+					this.time, this.action, this.messageType, this.status, this.latency, this.size, this.sentBytes, this.excerpt);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * OMFLatencyHistogram.java
+ *
+ * Lock-free histogram of latencies with log-linear buckets: every power of two is divided into 8 buckets,
+ * so a percentile is at most 12.5% above the exact value. Recording a value only increments two counters,
+ * so it can be called for every request without measurable overhead.
+ */
+public class OMFLatencyHistogram {
+	/**
+	 * <b>counts</b>			amount of recorded values of every bucket
+	 * <b>count</b>				amount of all recorded values
+	 * <b>sum</b>				sum of all recorded values
+	 * <b>max</b>				highest recorded value
+	 * <b>SUB_BUCKET_BITS</b>	bits of the buckets of one power of two
+	 * <b>SUB_BUCKETS</b>		amount of buckets of one power of two
+	 * <b>BUCKETS</b>			amount of all buckets, which cover all positive long values
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+
+		this.counts.incrementAndGet(bucketOf(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+
+		long currentMax;
+		while(value > (currentMax = this.max.get()) && !this.max.compareAndSet(currentMax, value));
+	}
+
+	/**
+	 * Returns the value, which is not exceeded by the specified share of the recorded values (0 - 1).
+	 * Returns 0 if no value was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = this.count.get();
+		if(total == 0)
+			return 0;
+
+		long rank = Math.max((long)Math.ceil(Math.min(Math.max(percentile, 0), 1) * total), 1);
+		long cumulated = 0;
+
+		for(int bucket = 0; bucket < BUCKETS; bucket++) {
+			cumulated += this.counts.get(bucket);
+			if(cumulated >= rank)
+				return Math.min(upperBoundOf(bucket), this.max.get());
+		}
+
+		return this.max.get();
+	}
+
+	/**
+	 * Returns the amount of recorded values.
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values, 0 if no value was recorded.
+	 */
+	public long getMean() {
+		long total = this.count.get();
+		return total > 0 ? this.sum.get() / total : 0;
+	}
+
+	/**
+	 * Returns the highest recorded value.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * Discards all recorded values.
+	 */
+	public void reset() {
+		for(int bucket = 0; bucket < BUCKETS; bucket++)
+			this.counts.set(bucket, 0);
+
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	/**
+	 * Returns the bucket of a value. Values below SUB_BUCKETS have their own bucket,
+	 * larger values are assigned by their highest bit and the following SUB_BUCKET_BITS bits.
+	 */
+	private static int bucketOf(long value) {
+		if(value < SUB_BUCKETS)
+			return (int)value;
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)(value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value of a bucket.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+
+		int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowerBound = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (magnitude - SUB_BUCKET_BITS);
+
+		return lowerBound + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+}
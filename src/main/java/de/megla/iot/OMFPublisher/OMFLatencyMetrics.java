@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OMFLatencyMetrics.java
+ *
+ * Latency histograms of every stage of the data messages of one target, from the receipt of the wire records
+ * until the OMF target acknowledged the data. All latencies are recorded in microseconds.
+ */
+public class OMFLatencyMetrics {
+	/**
+	 * <b>histograms</b>		histogram of every stage
+	 * <b>PERCENTILES</b>		percentiles, which are described for every stage
+	 * <b>PERCENTILE_NAMES</b>	names of the described percentiles
+	 */
+	private final Map<Stage, OMFLatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+	private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+	/**
+	 * A stage of the data messages.
+	 */
+	public enum Stage {
+		/** time from the receipt of the wire records until the data message was sent successfully */
+		QUEUE_WAIT,
+		/** time to create the data message */
+		SERIALIZATION,
+		/** time to compress the data message */
+		COMPRESSION,
+		/** time from sending the data message until the response */
+		HTTP_ROUND_TRIP,
+		/** time from the receipt of the wire records until the acknowledgement */
+		INGEST_TO_ACK,
+		/** time from the oldest source timestamp of the data until the acknowledgement */
+		SOURCE_TO_ACK
+	}
+
+	/**
+	 * Constructor which creates an empty histogram for every stage.
+	 */
+	public OMFLatencyMetrics() {
+		for(Stage stage : Stage.values())
+			this.histograms.put(stage, new OMFLatencyHistogram());
+	}
+
+	/**
+	 * Records the latency of a stage in microseconds.
+	 */
+	public void record(Stage stage, long micros) {
+		this.histograms.get(stage).record(micros);
+	}
+
+	/**
+	 * Records the latency of a stage, which started at the specified time of System.nanoTime().
+	 */
+	public void recordSince(Stage stage, long startNanos) {
+		record(stage, (System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Returns the latency in microseconds, which is not exceeded by the specified share (0 - 1) of the data messages of a stage.
+	 */
+	public long getPercentile(Stage stage, double percentile) {
+		return this.histograms.get(stage).getPercentile(percentile);
+	}
+
+	/**
+	 * Returns the histogram of a stage.
+	 */
+	public OMFLatencyHistogram getHistogram(Stage stage) {
+		return this.histograms.get(stage);
+	}
+
+	/**
+	 * Discards the latencies of all stages.
+	 */
+	public void reset() {
+		for(OMFLatencyHistogram histogram : this.histograms.values())
+			histogram.reset();
+	}
+
+	/**
+	 * Returns a description of the amount, mean, percentiles and max latency of every stage in milliseconds.
+	 */
+	public List<String> describe() {
+		List<String> result = new ArrayList<>();
+
+		for(Map.Entry<Stage, OMFLatencyHistogram> entry : this.histograms.entrySet()) {
+			OMFLatencyHistogram histogram = entry.getValue();
+			StringBuilder sb = new StringBuilder();
+
+			sb.append(String.format("%s: %d values, mean %s ms", entry.getKey(), histogram.getCount(), toMillis(histogram.getMean())));
+			for(int i = 0; i < PERCENTILES.length; i++)
+				sb.append(String.format(", %s %s ms", PERCENTILE_NAMES[i], toMillis(histogram.getPercentile(PERCENTILES[i]))));
+			sb.append(String.format(", max %s ms", toMillis(histogram.getMax())));
+
+			result.add(sb.toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Formats microseconds as milliseconds with three decimals.
+	 */
+	private static String toMillis(long micros) {
+		return String.format("%.3f", micros / 1000.0);
+	}
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * OMFLinkRegistry.java
+ *
+ * The OMFLinkRegistry remembers the AF elements and links which were already acknowledged by the OMF target.
+ * Only elements and links which are not registered yet have to be sent again.
+ */
+public class OMFLinkRegistry {
+	/**
+	 * <b>acknowledgedKeys</b>	keys of all AF elements and links which were accepted by the OMF target
+	 */
+	private final Set<String> acknowledgedKeys = new HashSet<>();
+
+	/**
+	 * True if the element or link with the specified key was already acknowledged.
+	 */
+	public synchronized boolean isAcknowledged(String key) {
+		return this.acknowledgedKeys.contains(key);
+	}
+
+	/**
+	 * Registers the keys of elements and links which were accepted by the OMF target.
+	 */
+	public synchronized void acknowledge(Collection<String> keys) {
+		this.acknowledgedKeys.addAll(keys);
+	}
+
+	/**
+	 * Removes all acknowledged keys in order to send all elements and links again.
+	 */
+	public synchronized void clear() {
+		this.acknowledgedKeys.clear();
+	}
+
+	/**
+	 * Returns the number of acknowledged elements and links.
+	 */
+	public synchronized int size() {
+		return this.acknowledgedKeys.size();
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+/**
+ * OMFLogSampler.java
+ *
+ * The OMFLogSampler limits how many errors are logged per minute. The first errors of every minute are logged,
+ * the others are only counted and reported with the next logged error. So an outage does not flood the log
+ * and every minute still contains a sample of the errors.
+ */
+public class OMFLogSampler {
+	/**
+	 * <b>maxPerMinute</b>		max amount of logged errors per minute, 0 or less logs every error
+	 * <b>windowStart</b>		time in milliseconds, when the current minute started
+	 * <b>logged</b>			amount of logged errors in the current minute
+	 * <b>suppressed</b>		amount of errors, which were not logged since the last logged error
+	 * <b>WINDOW</b>			length of a window in milliseconds
+	 */
+	private volatile int maxPerMinute;
+	private long windowStart = 0;
+	private int logged = 0;
+	private int suppressed = 0;
+
+	private static final long WINDOW = 60_000;
+
+	/**
+	 * Constructor which sets the max amount of logged errors per minute.
+	 */
+	public OMFLogSampler(int maxPerMinute) {
+		this.maxPerMinute = maxPerMinute;
+	}
+
+	/**
+	 * Changes the max amount of logged errors per minute.
+	 */
+	public void setMaxPerMinute(int maxPerMinute) {
+		this.maxPerMinute = maxPerMinute;
+	}
+
+	/**
+	 * True if the error may be logged. Otherwise it is counted as suppressed.
+	 */
+	public synchronized boolean tryLog() {
+		if(this.maxPerMinute <= 0)
+			return true;
+
+		long now = System.currentTimeMillis();
+		if(now - this.windowStart >= WINDOW) {
+			this.windowStart = now;
+			this.logged = 0;
+		}
+
+		if(this.logged >= this.maxPerMinute) {
+			this.suppressed++;
+			return false;
+		}
+
+		this.logged++;
+		return true;
+	}
+
+	/**
+	 * Returns the amount of suppressed errors since the last call and resets it.
+	 */
+	public synchronized int takeSuppressed() {
+		int result = this.suppressed;
+		this.suppressed = 0;
+		return result;
+	}
+}
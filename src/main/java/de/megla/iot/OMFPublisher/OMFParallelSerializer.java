@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.megla.iot.OMFPublisher.models.OMFAsset;
+
+/**
+ * OMFParallelSerializer.java
+ *
+ * Serializes the assets of large asset lists in parallel. The asset list is split into chunks, 
+ * which are serialized independently in a ForkJoinPool and concatenated in their original order.
+ */
+public class OMFParallelSerializer {
+	/**
+	 * <b>pool</b>				ForkJoinPool which serializes the chunks
+	 * <b>threshold</b>			min amount of assets for parallel serialization, 0 disables the parallel serialization
+	 * <b>MIN_CHUNK_SIZE</b>	min amount of assets which are serialized in one chunk
+	 * <b>CHUNKS_PER_THREAD</b>	amount of chunks per thread of the pool, to balance chunks of different size
+	 */
+	private final ForkJoinPool pool;
+	private final int threshold;
+	
+	private static final int MIN_CHUNK_SIZE = 8;
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/**
+	 * Serializes all elements of one asset into the array builder.
+	 */
+	@FunctionalInterface
+	public interface AssetSerializer {
+		void serialize(OMFAsset asset, StringArrayBuilder arrayBuilder);
+	}
+	
+	/**
+	 * Constructor which sets the pool and the min amount of assets for parallel serialization.
+	 */
+	public OMFParallelSerializer(ForkJoinPool pool, int threshold) {
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Serializes all assets to one JSON array. Large lists are serialized in parallel, if more than one processor is available.
+	 */
+	public String serialize(List<OMFAsset> assets, AssetSerializer serializer) {
+		return "[" + serializeContent(assets, serializer) + "]";
+	}
+	
+	/**
+	 * Serializes all assets to the content of a JSON array in the format a,b,c,...
+	 */
+	public String serializeContent(List<OMFAsset> assets, AssetSerializer serializer) {
+		if(!isParallel(assets.size())) {
+			StringArrayBuilder arrayBuilder = new StringArrayBuilder();
+			
+			for(OMFAsset asset : assets)
+				serializer.serialize(asset, arrayBuilder);
+			
+			return arrayBuilder.getContentString();
+		}
+		
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, assets.size() / (this.pool.getParallelism() * CHUNKS_PER_THREAD));
+		
+		return this.pool.invoke(new SerializeTask(assets, serializer, 0, assets.size(), chunkSize));
+	}
+	
+	/**
+	 * True if an asset list of this size is serialized in parallel.
+	 */
+	public boolean isParallel(int assetCount) {
+		return this.threshold > 0 && assetCount >= this.threshold && this.pool.getParallelism() > 1;
+	}
+	
+	/**
+	 * Serializes the assets from index "from" (inclusive) to "to" (exclusive) to the content of a JSON array.
+	 */
+	private static class SerializeTask extends RecursiveTask<String> {
+		private static final long serialVersionUID = 1L;
+		
+		private final List<OMFAsset> assets;
+		private final AssetSerializer serializer;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+		
+		SerializeTask(List<OMFAsset> assets, AssetSerializer serializer, int from, int to, int chunkSize) {
+			this.assets = assets;
+			this.serializer = serializer;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected String compute() {
+			if(this.to - this.from <= this.chunkSize) {
+				StringArrayBuilder arrayBuilder = new StringArrayBuilder();
+				
+				for(int i = this.from; i < this.to; i++)
+					this.serializer.serialize(this.assets.get(i), arrayBuilder);
+				
+				return arrayBuilder.getContentString();
+			}
+			
+			int middle = (this.from + this.to) >>> 1;
+			SerializeTask left = new SerializeTask(this.assets, this.serializer, this.from, middle, this.chunkSize);
+			SerializeTask right = new SerializeTask(this.assets, this.serializer, middle, this.to, this.chunkSize);
+			
+			left.fork();
+			String rightContent = right.compute();
+			String leftContent = left.join();
+			
+			if(leftContent.isEmpty())
+				return rightContent;
+			if(rightContent.isEmpty())
+				return leftContent;
+			
+			return leftContent + "," + rightContent;
+		}
+	}
+}
@@ -16,18 +16,18 @@ import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static java.util.Objects.requireNonNull;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
 
 import org.eclipse.kura.configuration.ConfigurableComponent;
+import org.eclipse.kura.crypto.CryptoService;
 import org.eclipse.kura.ssl.SslManagerService;
-import org.eclipse.kura.type.TypedValues;
 import org.eclipse.kura.wire.WireComponent;
 import org.eclipse.kura.wire.WireEnvelope;
 import org.eclipse.kura.wire.WireHelperService;
@@ -46,10 +46,14 @@ import org.osgi.service.wireadmin.Wire;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.megla.iot.OMFPublisher.compression.CompressionCodec;
 import de.megla.iot.OMFPublisher.models.OMFAsset;
 import de.megla.iot.OMFPublisher.models.OMFAssetList;
+import de.megla.iot.OMFPublisher.models.OMFAssetListCodec;
+import de.megla.iot.OMFPublisher.models.OMFAssetSchema;
 import de.megla.iot.OMFPublisher.models.OMFAssetListQueue;
 import de.megla.iot.OMFPublisher.models.OMFChannel;
+import de.megla.iot.OMFPublisher.models.OMFQueueLane;
 
 /**
  * OMFPublisher.java
@@ -70,38 +74,47 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
 	/**
 	 * <b>logger</b> 					logs all messages for Debugging (Info, Warning, Error)
 	 * <b>omfPublisherOptions</b> 		contains option-data for example the producertoken, hostname, targeturl
-	 * <b>omfPublisherService</b> 		provides the ability to write individual definitions of Type, Container and Data 
-	 * 									in a suitable JSON format. In addition, it creates the header according to the "messagetype" 
-	 * 									and makes a request to the destination system
 	 * <b>SslManagerService</b>			Service for settings the SSL connections settings.
+	 * <b>cryptoService</b>				Service which decrypts the password attributes of the configuration.
 	 * <b>wireHelperService</b> 		Interface is used as a utility API to provide fast and necessary operations for the Kura Wires.
 	 * <b>wireSupport</b>				Interface for managing incoming and outgoing wire components. 
 	 * 									Additionally for use, e.g. To send and receive wireRecords.
-	 * <b>knownAssetList</b>			Key-Value store of the last known Assets and their Channels
 	 * <b>properties</b>				properties which contain service configurations and user specific inputs
-	 * <b>inFlightMessages</b>			List of all unpublished Messages as an in-memory datacaching
-	 * <b>executorServiceInFlight</b> 	Scheduled Thread, which sends all cached Messages to a connector
+	 * <b>targetPublishers</b>			One publisher for every OMF target, each with its own queue and send loop
 	 * <b>configurationComplete</b>		True when all properties (target url, producer token, device name) are set.
+	 * <b>deadLetterAction</b>			last action on the dead letters, a new action is executed once
+	 * <b>flightRecorderAction</b>		last action on the flight recorders, a new action is executed once
+	 * <b>highPriorityPattern</b>		pattern of the assets and channels, which are sent in the high priority lane, null if there is none
+	 * <b>conflationPattern</b>			pattern of the assets and channels, of which only the latest value is queued, null if there is none
+	 * <b>dataPrecompressor</b>			compresses the data messages in the background, null if they are compressed when they are sent
 	 */
     private static final Logger logger =  LoggerFactory.getLogger(OMFPublisher.class);
     
     private OMFPublisherOptions omfPublisherOptions;
-
-	private OMFPublisherService omfPublisherService;
     
     private SslManagerService sslManagerService;
     
+    private CryptoService cryptoService;
+    
     private WireHelperService wireHelperService;
     private WireSupport wireSupport;
     
-    private OMFAssetList knownAssetList;
     private Map<String, Object> properties;
     
-    private OMFAssetListQueue inFlightMessages = new OMFAssetListQueue();
-    private ScheduledExecutorService executorServiceInFlight = Executors.newScheduledThreadPool(1);    
+    private volatile List<OMFTargetPublisher> targetPublishers = new ArrayList<>();
 
     private boolean configurationComplete = false;
     
+    private String deadLetterAction = OMFDeadLetterStore.ACTION_NONE;
+    
+    private String flightRecorderAction = OMFFlightRecorder.ACTION_NONE;
+    
+    private volatile Pattern highPriorityPattern;
+    
+    private volatile Pattern conflationPattern;
+    
+    private volatile OMFDataPrecompressor dataPrecompressor;
+    
     // ----------------------------------------------------------------
     // Dependencies
     // ----------------------------------------------------------------
@@ -151,6 +164,29 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
     		logger.debug("SSL manager service unbound.");
     	}
     }
+    
+    /**
+     * Binds the crypto service.
+     */
+    @Reference(unbind="unbindCryptoService")
+    public void bindCryptoService(final CryptoService cryptoService) {
+    	
+    	if (isNull(this.cryptoService)) {
+            this.cryptoService = cryptoService;
+            logger.debug("Crypto service bound.");
+        }
+    }
+    
+    /**
+     * Unbinds the crypto service.
+     */
+    public void unbindCryptoService(final CryptoService cryptoService) {
+    	
+    	if(this.cryptoService == cryptoService) {
+    		this.cryptoService = null;
+    		logger.debug("Crypto service unbound.");
+    	}
+    }
 
     // ----------------------------------------------------------------
     // Activation APIs
@@ -166,7 +202,6 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
 	        this.wireSupport = this.wireHelperService.newWireSupport(this); 
 	        
 	        updated(properties);
-	        startInFlightMessagesTask();
 
 	        logger.info("Activating OMF Publisher Wire Component... Done");
     	} catch(Exception e) {	
@@ -181,13 +216,19 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
     public void updated(final Map<String, Object> properties) {
         logger.info("Updating OMF Publisher Wire Component...");
         
+        OMFPublisherOptions previousOptions = this.omfPublisherOptions;
         this.properties = properties;
-        this.omfPublisherOptions = new OMFPublisherOptions(this.properties);
-        this.knownAssetList = new OMFAssetList(this.omfPublisherOptions);
+        this.omfPublisherOptions = new OMFPublisherOptions(this.properties, this.cryptoService);
         
         if(OMFValidator.checkProperties(this.omfPublisherOptions)) {
         	this.configurationComplete = true;
+        	this.highPriorityPattern = this.omfPublisherOptions.getHighPriorityPattern();
+        	this.conflationPattern = this.omfPublisherOptions.getConflationPattern();
+        	if(isNull(previousOptions) || isPrecompressionChanged(previousOptions))
+        		resetDataPrecompressor();
         	resetPublisherOptions();
+        	handleDeadLetterAction();
+        	handleFlightRecorderAction();
 		    
 		    logger.info("Updating OMF Publisher Wire Component... Done");
         }
@@ -198,29 +239,215 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
     }
 
     /**
-     * Resets the in flight message service. 
+     * Reconfigures the publishers of all targets. Publishers of targets which are still configured are kept with their 
+     * connection, known definitions and in-flight messages, and only reset the state which depends on changed options.
+     * Every target has one publisher for every shard. If the amount of shards changed, the in-flight messages are routed
+     * to the shards of their containers again.
      */
 	private void resetPublisherOptions() {
-		shutdownMessageService();
+		int shardCount = Math.max(this.omfPublisherOptions.getShardCount(), 1);
+		Map<String, OMFTargetPublisher> previousPublishers = new HashMap<>();
+		Map<String, Integer> previousShardCounts = new HashMap<>();
+		for(OMFTargetPublisher targetPublisher : this.targetPublishers) {
+			previousPublishers.put(targetPublisher.getTargetKey(), targetPublisher);
+			previousShardCounts.merge(targetPublisher.getFirstShardKey(), 1, Integer::sum);
+		}
 		
-		// Start Thread for sending in flight messages
-		startInFlightMessagesTask();     
+		List<OMFPublisherOptions> shardOptionsList = new ArrayList<>();
+		for(OMFPublisherOptions targetOptions : this.omfPublisherOptions.getTargetOptions())
+			for(int shard = 0; shard < shardCount; shard++)
+				shardOptionsList.add(targetOptions.forShard(shard));
 		
-		//Remove all known assets in order to send definitions again.
-		this.knownAssetList.clear();
+		Map<String, OMFTargetPublisher> newPublishersByKey = new HashMap<>();
+		List<OMFTargetPublisher> newPublishers = new ArrayList<>();
+		for(OMFPublisherOptions targetOptions : shardOptionsList) {
+			OMFTargetPublisher previousPublisher = previousPublishers.remove(OMFTargetPublisher.getTargetKey(targetOptions));
+			
+			if(previousPublisher != null) {
+				previousPublisher.reconfigure(targetOptions);
+				newPublishers.add(previousPublisher);
+				newPublishersByKey.put(previousPublisher.getTargetKey(), previousPublisher);
+				continue;
+			}
+			
+			OMFTargetPublisher newPublisher = new OMFTargetPublisher(targetOptions, this.sslManagerService, 
+					new OMFAssetListQueue(targetOptions), new OMFDeadLetterStore(targetOptions.getDeadLetterCapacity()));
+			newPublishers.add(newPublisher);
+			newPublishersByKey.put(newPublisher.getTargetKey(), newPublisher);
+			
+			//Messages, which were not sent before the last deactivation
+			if(targetOptions.getPersistQueue())
+				newPublisher.restoreQueue();
+			
+			// Start Thread for sending in flight messages
+			newPublisher.start();
+		}
 		
-		//Update last to set new OMFPublisher and SSL Options 
-		this.omfPublisherService = new OMFPublisherService(this.omfPublisherOptions, this.sslManagerService);
+		for(OMFTargetPublisher removedPublisher : previousPublishers.values()) {
+			//The messages of a removed shard are sent by the first shard of the same target
+			OMFTargetPublisher firstShard = newPublishersByKey.get(removedPublisher.getFirstShardKey());
+			if(firstShard != null) {
+				logger.info(String.format("Shard %d of %s was removed. %d in-flight messages are moved to the first shard.", 
+						removedPublisher.getShardIndex(), removedPublisher.getTargetURL(), removedPublisher.getInFlightMessages().size()));
+				firstShard.getInFlightMessages().importRecords(removedPublisher.exportQueue());
+				removedPublisher.close();
+				continue;
+			}
+			
+			logger.warn(String.format("Target %s was removed. %d in-flight messages and %d dead letters are discarded.", 
+					removedPublisher.getTargetURL(), removedPublisher.getInFlightMessages().size(), removedPublisher.getDeadLetters().size()));
+			removedPublisher.close();
+		}
+		
+		//Messages of a previous amount of shards, also the restored messages after an activation, are in the wrong shards
+		if(shardCount > 1) {
+			for(OMFPublisherOptions targetOptions : this.omfPublisherOptions.getTargetOptions()) {
+				String firstShardKey = OMFTargetPublisher.getTargetKey(targetOptions.forShard(0));
+				if(previousShardCounts.getOrDefault(firstShardKey, 0) == shardCount)
+					continue;
+				
+				List<OMFTargetPublisher> shards = new ArrayList<>();
+				for(int shard = 0; shard < shardCount; shard++)
+					shards.add(newPublishersByKey.get(OMFTargetPublisher.getTargetKey(targetOptions.forShard(shard))));
+				
+				rerouteInFlightMessages(shards);
+			}
+		}
+		
+		this.targetPublishers = newPublishers;
 	}
 
 	/**
-	 * Shutsdown the message service an creates a new thread pool.
+	 * Splits the in-flight messages of all shards of a target by the shards of their containers and adds every part
+	 * to the same lane of its shard. The messages of a shard keep their order, so the values of a container stay in order.
+	 * @param shards publishers of all shards of the target, ordered by their shard
+	 */
+	private void rerouteInFlightMessages(List<OMFTargetPublisher> shards) {
+		List<Map<OMFQueueLane, List<byte[]>>> routedRecords = new ArrayList<>();
+		for(int shard = 0; shard < shards.size(); shard++)
+			routedRecords.add(new EnumMap<>(OMFQueueLane.class));
+		
+		//The parts are encoded again, the shards register their assets when they decode them
+		Map<String, OMFAssetSchema> schemas = new HashMap<>();
+		
+		int messages = 0;
+		for(OMFTargetPublisher targetPublisher : shards) {
+			for(Map.Entry<OMFQueueLane, List<byte[]>> lane : targetPublisher.exportQueue().entrySet()) {
+				for(byte[] record : lane.getValue()) {
+					OMFAssetList assetList = OMFAssetListCodec.decode(record, this.omfPublisherOptions, schemas);
+					List<OMFAssetList> parts = OMFShardRouter.split(assetList, shards.size(), this.omfPublisherOptions.getTypeMode());
+					messages++;
+					
+					for(int shard = 0; shard < parts.size(); shard++)
+						if(!parts.get(shard).isEmpty())
+							routedRecords.get(shard).computeIfAbsent(lane.getKey(), key -> new ArrayList<>())
+								.add(OMFAssetListCodec.encode(parts.get(shard)));
+				}
+			}
+		}
+		
+		if(messages > 0)
+			logger.info(String.format("The amount of shards of %s changed. %d in-flight messages are routed to %d shards.", 
+					shards.get(0).getTargetURL(), messages, shards.size()));
+		
+		for(int shard = 0; shard < shards.size(); shard++) {
+			shards.get(shard).getInFlightMessages().importRecords(routedRecords.get(shard));
+			shards.get(shard).start();
+		}
+	}
+
+	/**
+	 * True if an option of the background compression differs from the previous options.
+	 */
+	private boolean isPrecompressionChanged(OMFPublisherOptions previousOptions) {
+		return previousOptions.getPrecompressDataMessages() != this.omfPublisherOptions.getPrecompressDataMessages()
+				|| !previousOptions.getCompression().equals(this.omfPublisherOptions.getCompression())
+				|| previousOptions.getCompressionMinSize() != this.omfPublisherOptions.getCompressionMinSize();
+	}
+
+	/**
+	 * Recreates the background compression of the data messages, if it is enabled and the compression level uses gzip.
+	 */
+	private void resetDataPrecompressor() {
+		OMFDataPrecompressor previousPrecompressor = this.dataPrecompressor;
+		this.dataPrecompressor = null;
+		
+		if(previousPrecompressor != null)
+			previousPrecompressor.close();
+		
+		if(!this.omfPublisherOptions.getPrecompressDataMessages())
+			return;
+		
+		CompressionCodec codec = CompressionCodec.forLevel(this.omfPublisherOptions.getCompression());
+		if(!codec.isConcatenable()) {
+			logger.warn(String.format("Data messages cannot be compressed in the background with compression %s.", 
+					this.omfPublisherOptions.getCompression()));
+			codec.close();
+			return;
+		}
+		
+		this.dataPrecompressor = new OMFDataPrecompressor(codec, ForkJoinPool.commonPool(), 
+				this.omfPublisherOptions.getCompressionMinSize());
+	}
+
+	/**
+	 * Executes the action on the dead letters of all targets, if it was changed.
+	 */
+	private void handleDeadLetterAction() {
+		String action = this.omfPublisherOptions.getDeadLetterAction();
+		
+		if(!action.equalsIgnoreCase(this.deadLetterAction))
+			for(OMFTargetPublisher targetPublisher : this.targetPublishers)
+				targetPublisher.handleDeadLetterAction(action);
+		
+		this.deadLetterAction = action;
+	}
+
+	/**
+	 * Executes the action on the flight recorders of all targets, if it was changed.
+	 */
+	private void handleFlightRecorderAction() {
+		String action = this.omfPublisherOptions.getFlightRecorderAction();
+		
+		if(!action.equalsIgnoreCase(this.flightRecorderAction))
+			for(OMFTargetPublisher targetPublisher : this.targetPublishers)
+				targetPublisher.handleFlightRecorderAction(action);
+		
+		this.flightRecorderAction = action;
+	}
+
+	/**
+	 * Shutsdown the message service of all targets.
 	 */
 	private void shutdownMessageService() {
-		if(!this.executorServiceInFlight.isShutdown()) {
-			this.executorServiceInFlight.shutdown();
-	    	executorServiceInFlight = Executors.newScheduledThreadPool(1);
-			logger.info("Shutdown message service.");
+		for(OMFTargetPublisher targetPublisher : this.targetPublishers)
+			targetPublisher.shutdown();
+	}
+
+	/**
+	 * Flushes the in-flight messages of all targets in parallel until the drain timeout is over.
+	 */
+	private void drainMessageService() {
+		if(isNull(this.omfPublisherOptions) || this.omfPublisherOptions.getDrainTimeout() <= 0)
+			return;
+		
+		long deadline = System.currentTimeMillis() + this.omfPublisherOptions.getDrainTimeout() * 1000L;
+		List<Thread> drainThreads = new ArrayList<>();
+		
+		for(OMFTargetPublisher targetPublisher : this.targetPublishers) {
+			Thread drainThread = new Thread(() -> targetPublisher.drain(deadline), "OMFPublisher-Drain");
+			drainThread.setDaemon(true);
+			drainThread.start();
+			drainThreads.add(drainThread);
+		}
+		
+		try {
+			//A request, which is still running at the deadline, gets the connection timeout to complete
+			long joinDeadline = deadline + this.omfPublisherOptions.getConnectionTimeout() * 1000L;
+			for(Thread drainThread : drainThreads)
+				drainThread.join(Math.max(joinDeadline - System.currentTimeMillis(), 1));
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -231,10 +458,18 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
     protected void deactivate() {
         logger.info("Deactivating OMF Publisher Wire Component...");
         
-        if(executorServiceInFlight != null) {
-        	executorServiceInFlight.shutdown();
+        drainMessageService();
+        
+        for(OMFTargetPublisher targetPublisher : this.targetPublishers) {
+        	if(nonNull(this.omfPublisherOptions) && this.omfPublisherOptions.getPersistQueue())
+        		targetPublisher.persistQueue();
+        	
+        	targetPublisher.close();
         }
         
+        if(this.dataPrecompressor != null)
+        	this.dataPrecompressor.close();
+        
         logger.info("Deactivating OMF Publisher Wire Component... Done");
     }
 
@@ -268,10 +503,14 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
     }
 
     /**
-     * Publishes the list of provided {@link WireRecord}s.
+     * Publishes the list of provided {@link WireRecord}s. The records are parsed once and 
+     * the resulting asset list is shared by the queues of all targets. Channels which match the 
+     * high priority patterns are put in the high priority lane, all other channels in the live lane.
+     * Channels which match the conflation patterns are conflated in their lane, so only their latest value is queued.
+     * If the targets have several shards, every shard gets the channels of its containers.
      */
     private void publish(final List<WireRecord> records) {
-    	logger.info(String.format("Adding asset and data to in flight message queue... (%d remaining)", this.inFlightMessages.size()));
+    	List<OMFTargetPublisher> publishers = this.targetPublishers;
     	
     	if(!this.configurationComplete)
     		logger.error("Publisher configuration incomplete. Message will not be published.");
@@ -283,241 +522,133 @@ public final class OMFPublisher implements ConfigurableComponent, WireReceiver{
         if(currentAssetList.isEmpty())
         	return;
         
+        //Every shard of a target gets the channels of its containers
+        int shardCount = 1;
+        for(OMFTargetPublisher targetPublisher : publishers)
+        	shardCount = Math.max(shardCount, targetPublisher.getShardIndex() + 1);
+        
+        List<OMFAssetList> shardAssetLists = OMFShardRouter.split(currentAssetList, shardCount, this.omfPublisherOptions.getTypeMode());
+        List<Map<OMFQueueLane, OMFAssetList>> shardLaneAssetLists = new ArrayList<>();
+        List<Map<OMFQueueLane, OMFAssetList>> shardConflatedAssetLists = new ArrayList<>();
+        OMFDataPrecompressor precompressor = this.dataPrecompressor;
+        
+        for(int shard = 0; shard < shardAssetLists.size(); shard++) {
+        	OMFAssetList shardAssetList = shardAssetLists.get(shard);
+        	
+        	//The schema versions are fixed before the shared asset list is queued
+        	for(OMFTargetPublisher targetPublisher : publishers)
+        		if(targetPublisher.getShardIndex() == shard)
+        			targetPublisher.registerValuesSchemas(shardAssetList);
+        	
+        	Map<OMFQueueLane, OMFAssetList> laneAssetLists = shardAssetList.isEmpty() 
+        			? new EnumMap<>(OMFQueueLane.class) : splitByPriority(shardAssetList);
+        	shardConflatedAssetLists.add(splitConflated(laneAssetLists));
+        	shardLaneAssetLists.add(laneAssetLists);
+        	
+        	//Serialize once on the wire thread, the send loops only concatenate the fragments
+        	if(this.omfPublisherOptions.getSerializeAtIngest() || precompressor != null)
+        		for(OMFAssetList laneAssetList : laneAssetLists.values())
+        			laneAssetList.freezeDataFragments();
+        	
+        	//Compress in the background, the send loops only concatenate the gzip members
+        	if(precompressor != null)
+        		for(OMFAssetList laneAssetList : laneAssetLists.values())
+        			precompressor.submit(laneAssetList);
+        }
+        
         try {
-			synchronized(this.inFlightMessages) {
-				this.inFlightMessages.add(currentAssetList);
-			}				
+        	for(OMFTargetPublisher targetPublisher : publishers) {
+        		logger.debug(String.format("Adding asset and data to in flight message queue of %s... (%d remaining)", 
+        				targetPublisher.getTargetURL(), targetPublisher.getInFlightMessages().size()));
+        		
+        		for(Map.Entry<OMFQueueLane, OMFAssetList> laneAssetList : shardLaneAssetLists.get(targetPublisher.getShardIndex()).entrySet())
+        			targetPublisher.enqueue(laneAssetList.getValue(), laneAssetList.getKey());
+        		
+        		for(Map.Entry<OMFQueueLane, OMFAssetList> conflatedAssetList : shardConflatedAssetLists.get(targetPublisher.getShardIndex()).entrySet())
+        			targetPublisher.conflate(conflatedAssetList.getValue(), conflatedAssetList.getKey());
+        	}
         } catch(NullPointerException e) {
         	ErrorHandling.handle("Error in publishing wire records using PIOMF publisher..", e, logger);
         }
     }
     
-	/**
-     * Method creates a full List of all Assets and their Channels from WireRecords.
+    /**
+     * Splits the asset list into the channels of the high priority lane and the live lane. Empty lists are left out.
      */
-    private OMFAssetList createOMFAssetListFromWireRecords(final List<WireRecord> wireRecords){
+    private Map<OMFQueueLane, OMFAssetList> splitByPriority(OMFAssetList assetList) {
+    	Map<OMFQueueLane, OMFAssetList> result = new EnumMap<>(OMFQueueLane.class);
+    	Pattern pattern = this.highPriorityPattern;
     	
-    	OMFAssetList assetList = new OMFAssetList(this.omfPublisherOptions);
+    	if(pattern == null) {
+    		result.put(OMFQueueLane.LIVE, assetList);
+    		return result;
+    	}
     	
-	    for (final WireRecord dataRecord : wireRecords)
-	    	assetList.addAssetFromWireRecord(dataRecord);
-	    
-    	return assetList;
-    }
-
-    /**
-     * Checks if an Asset or Channel was modified in Wire and put it into the knownAssetList.
-     */
-    private boolean isAssetOrChannelModified(OMFAssetList currentAssetList) {
-        //Check if types and containers are all included as they have been sent before
-        boolean isModified =false;
-        
-        //Check asset and if it is not already in the map set the flag
-        for (OMFAsset asset : currentAssetList) {
-	       	String assetname=asset.getAssetname();
-	       	assetname = StringExtensions.convertToOmfString(assetname);
-	     
-	       	if(!this.knownAssetList.containsAsset(assetname) || this.knownAssetList.isEmpty()){
-	       		
-	       		isModified=true;
-	       		logger.debug("New Asset "+assetname+ " detected");
-		 		this.knownAssetList.add(new OMFAsset(assetname,this.omfPublisherOptions));
-			}
-	       	
-			//Check channel and add it to the map, if it is not already in the map set the flag
-			for (Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet()){
-				
-			 	String channelname=channelEntry.getKey();
-			 	channelname = StringExtensions.convertToOmfString(channelname);
-			 	OMFChannel channel = channelEntry.getValue();
-			 	
-			 	if(!this.knownAssetList.getAsset(assetname).getChannels().containsKey(channelname) || 
-			 		
-			 		this.knownAssetList.getAsset(assetname).getChannels().get(channelname).getTypedValue().getType() != channel.getTypedValue().getType()) {
-			 		isModified=true;
-			 		
-			 		logger.debug("New Channel "+channelname+" detected");
-			 		
-			 		OMFChannel newChannel=new OMFChannel(channelname,this.omfPublisherOptions, asset);	
-			 		newChannel.setTypedValue(TypedValues.newTypedValue(channel.getTypedValue().getValue()));
-			 		this.knownAssetList.getAsset(assetname).getChannels().put(channelname, newChannel);
-			 	}
-		    }	 
-        }
-        
-        return isModified;
-    }
-    
-    /**
-     * Sends the message, of a modified Asset or Channel to the destination system with a new type-, container and data definition.
-     */
-    private void sendModifiedMessage() {
+    	OMFAssetList highPriority = assetList.selectChannels((asset, channel) -> matches(pattern, asset, channel));
     	
-    	boolean typeSent = sendTypeMessage(this.knownAssetList);
-		
-		boolean containerSent = sendContainerMessage(this.knownAssetList);
-			
-		if(typeSent && containerSent) 
-			sendDataMessageLinks(this.knownAssetList);
-    }
-    
-    /**
-     * Sends the first in-flight message to the destination system. If there is something wrong with the connection or message, 
-     * the message parameters are logged. In the end remove the first list entry of in-flight messages.
-     */
-    private synchronized void sendInFlightMessage() {
-        logger.info(String.format("Trying to send next In-flight Message. (%d remaining)", this.inFlightMessages.size()));
-        
-        int status;
-        
-        OMFAssetList inFlightAssetList = this.inFlightMessages.get(0);
-        
-        try {
-            
-            if(isAssetOrChannelModified(inFlightAssetList)) {
-                this.sendModifiedMessage();
-            }
-            
-            status = sendDataMessage(inFlightAssetList);
-            
-            if(OMFValidator.isPositiveOmfHttpResponse(status))                 
-                logger.info(String.format("Sent in-flight <Data> correctly...%s", System.lineSeparator()));
-            else
-            	ErrorHandling.handle(logger
-            			, "Connection to OMF target can be established, but the OMF target did not accept the message."
-            			, "Data will be discarded."
-            			, inFlightAssetList.toString());
-            
-            synchronized(this.inFlightMessages) {
-                this.inFlightMessages.remove();
-            }            
-    
-        }catch(Exception ex) {
-            ErrorHandling.handle(" Error during sending In Flight Messages: ", ex, logger);
-        }
-    } 
-
-    /**
-     * Sends the Type Message for all known assets.
-     * @return True if status is accepted as ok.
-     */
-    private boolean sendTypeMessage(OMFAssetList assets) {
-    	boolean result = false;
+    	if(highPriority.getValueCount() == assetList.getValueCount()) {
+    		result.put(OMFQueueLane.HIGH_PRIORITY, assetList);
+    		return result;
+    	}
     	
-    	//Generate the type from all assets and channels
-    	String typeDefinitionJSON= this.omfPublisherService.createTypeMessage(assets); 
-	    int status = this.omfPublisherService.handleOMFMessageRequest("create", "type", typeDefinitionJSON);
-	    
-	    if(!OMFValidator.isPositiveOmfHttpResponse(status))
-			ErrorHandling.httpStatusToErrorLog(status, logger);
-	    
-		else {
-			result = true;
-			logger.info("Sent <Type> correctly..." );
-		}
-	    return result;
-    }
-    
-    /**
-     * Sends the Container Message for all known assets.
-     * @return True if status is accepted as ok.
-     */
-    private boolean sendContainerMessage(OMFAssetList assets) {
-    	boolean result = false;
+    	if(!highPriority.isEmpty())
+    		result.put(OMFQueueLane.HIGH_PRIORITY, highPriority);
     	
-    	//Generate containers from all assets and channels
-	    String containerDefinitionJSON= this.omfPublisherService.createContainerMessage(assets);
-	    int status = this.omfPublisherService.handleOMFMessageRequest("create", "container", containerDefinitionJSON);
-	    
-	    if(!OMFValidator.isPositiveOmfHttpResponse(status))
-	    	ErrorHandling.httpStatusToErrorLog(status, logger);
-	    
-		else {
-			result = true;
-			logger.info("Sent <Container> correctly...");
-		}
-	    
-	    return result;
+    	result.put(OMFQueueLane.LIVE, highPriority.isEmpty() ? assetList 
+    			: assetList.selectChannels((asset, channel) -> !matches(pattern, asset, channel)));
+    	return result;
     }
     
     /**
-     * Sends the Data Message for all known assets and their links.
+     * Removes the channels, which match the conflation patterns, from the asset lists of every lane
+     * and returns them by lane. Empty lists are left out.
      */
-    private void sendDataMessageLinks(OMFAssetList assets) {
-
-    	//Create assets and links	  
-		String assetandlinksJSON = this.omfPublisherService.createAssetsAndLinks(assets);
-		int status = this.omfPublisherService.handleOMFMessageRequest("create", "data", assetandlinksJSON);	
-	    
-		if(!OMFValidator.isPositiveOmfHttpResponse(status))
-			ErrorHandling.httpStatusToErrorLog(status, logger);		
-		
-		else {
-			logger.info(String.format("Sent <Data Links> correctly...%s", System.lineSeparator()));	
-		}
-    }
-    
-    /**
-     * Sends the Data Message for all known assets.
-     */
-    private int sendDataMessage(OMFAssetList assets) {
-    	
-    	// If ready, send finished JSON with the containers and payload
-    	// only from the currently received wires, hence currentAssetList
-    	String dataJSON= this.omfPublisherService.createDataValuesMessage(assets);
+    private Map<OMFQueueLane, OMFAssetList> splitConflated(Map<OMFQueueLane, OMFAssetList> laneAssetLists) {
+    	Map<OMFQueueLane, OMFAssetList> result = new EnumMap<>(OMFQueueLane.class);
+    	Pattern pattern = this.conflationPattern;
     	
-    	int status = -1;
+    	if(pattern == null)
+    		return result;
     	
-    	// Send the JSON message to the target URL
-    	status = this.omfPublisherService.handleOMFMessageRequest("create", "data", dataJSON);
+    	Iterator<Map.Entry<OMFQueueLane, OMFAssetList>> entries = laneAssetLists.entrySet().iterator();
+    	while(entries.hasNext()) {
+    		Map.Entry<OMFQueueLane, OMFAssetList> laneAssetList = entries.next();
+    		OMFAssetList assetList = laneAssetList.getValue();
+    		OMFAssetList conflated = assetList.selectChannels((asset, channel) -> matches(pattern, asset, channel));
+    		
+    		if(conflated.isEmpty())
+    			continue;
+    		
+    		result.put(laneAssetList.getKey(), conflated);
+    		
+    		if(conflated.getValueCount() == assetList.getValueCount())
+    			entries.remove();
+    		else
+    			laneAssetList.setValue(assetList.selectChannels((asset, channel) -> !matches(pattern, asset, channel)));
+    	}
     	
-    	return status;
+    	return result;
     }
     
     /**
-     * Starts a Thread that checks if there are saved in-flight messages. When the publisher is connected with the destination system
-     * again, send every in-flight message.
+     * True if the pattern matches the name of the asset or "assetname/channelname".
+     */
+    private static boolean matches(Pattern pattern, OMFAsset asset, OMFChannel channel) {
+    	return pattern.matcher(asset.getAssetname()).matches() 
+    			|| pattern.matcher(asset.getAssetname() + "/" + channel.getChannelname()).matches();
+    }
+    
+	/**
+     * Method creates a full List of all Assets and their Channels from WireRecords.
      */
-    private void startInFlightMessagesTask() {    	
-    	final int inFlightInterval = this.omfPublisherOptions.getinFlightInterval();
+    private OMFAssetList createOMFAssetListFromWireRecords(final List<WireRecord> wireRecords){
     	
-    	logger.info("Start Task to sending in-flight messages...");
+    	OMFAssetList assetList = new OMFAssetList(this.omfPublisherOptions);
     	
-    	//Runnable Task to send in-flight messages if possible  
-    	try {
-    		Runnable runnableTaskSendMessage = () -> {
-				if(!inFlightMessages.isEmpty() && OMFValidator.isPositiveOmfHttpResponse(isConnectionToOMFTargetEstablished())) {
-				    //send every in-flight message one by one every x seconds
-					sendInFlightMessage();
-				}
-    		};
-		
-    		executorServiceInFlight.scheduleWithFixedDelay(runnableTaskSendMessage, 100, inFlightInterval, TimeUnit.MILLISECONDS);
-		} catch (Exception e) {
-			ErrorHandling.handle("In-flight message delivery failed.", e, logger);
-		}
+	    for (final WireRecord dataRecord : wireRecords)
+	    	assetList.addAssetFromWireRecord(dataRecord);
+	    
+    	return assetList;
     }
-
-	/**
-	 * Send HTTP request to the  Connector to check if a connection can be established.
-	 * @return HTTP status code of the response
-	 */
-    private int isConnectionToOMFTargetEstablished() {
-    	logger.debug("Checking the connection to the OMF target.");
-    	int result = 404; 
-		
-		HttpsURLConnection response = this.omfPublisherService.sendOMFMessage("create", "type", "[]");
-		if(response != null) {
-			try {
-				result = response.getResponseCode();
-			} catch (IOException ex) {
-				ErrorHandling.handle("Connection to the omf target could not be ", ex, logger);
-			}
-		}
-		
-		logger.debug(String.format("Connection check http code result: %d", result));
-		return result;
-	 }
 }
 
-
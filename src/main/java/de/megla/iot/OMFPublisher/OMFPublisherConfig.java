@@ -15,6 +15,10 @@ package de.megla.iot.OMFPublisher;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.AttributeType;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+
+import de.megla.iot.OMFPublisher.auth.AuthenticationProvider;
+import de.megla.iot.OMFPublisher.compression.CompressionCodec;
 
 /**
  * OMFPublisherConfig.java
@@ -59,5 +63,316 @@ public @interface OMFPublisherConfig {
 			type = AttributeType.INTEGER,
 			defaultValue = "50")
 	int inFlightInterval();
+	
+	@AttributeDefinition(
+			name = "persistence.directory",
+			description = "Directory for persisted data. If empty, the directory omfpublisher in the Kura data directory is used.",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String persistenceDirectory();
+	
+	@AttributeDefinition(
+			name = "persist.definitions",
+			description = "Remember acknowledged type and container definitions across restarts.",
+			type = AttributeType.BOOLEAN,
+			defaultValue = "true")
+	boolean persistDefinitions();
+	
+	@AttributeDefinition(
+			name = "compression",
+			type = AttributeType.STRING,
+			defaultValue = CompressionCodec.DEFAULT,
+			options = {
+					@Option(label = "none", value = CompressionCodec.NONE),
+					@Option(label = "fast", value = CompressionCodec.FAST),
+					@Option(label = "default", value = CompressionCodec.DEFAULT),
+					@Option(label = "best", value = CompressionCodec.BEST)
+			})
+	String compression();
+	
+	@AttributeDefinition(
+			name = "compression.min.size.in.bytes",
+			description = "Messages smaller than this size are sent uncompressed.",
+			type = AttributeType.INTEGER,
+			defaultValue = "256")
+	int compressionMinSize();
+	
+	@AttributeDefinition(
+			name = "parallel.serialization.threshold",
+			description = "Min amount of assets in one message, which are serialized in parallel on multi-core devices. 0 disables the parallel serialization.",
+			type = AttributeType.INTEGER,
+			defaultValue = "100")
+	int parallelSerializationThreshold();
+	
+	@AttributeDefinition(
+			name = "additional.targets",
+			description = "Further OMF targets in the format targeturl|producertoken, separated by ';'. Every target has its own queue.",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String additionalTargets();
+	
+	@AttributeDefinition(
+			name = "type.mode",
+			description = "channel: every channel has its own dynamic type. primitive: all channels of a data type share one dynamic type. "
+					+ "asset: every asset has one dynamic type and container with all channels as properties.",
+			type = AttributeType.STRING,
+			defaultValue = "channel",
+			options = {
+					@Option(label = "channel", value = "channel"),
+					@Option(label = "primitive", value = "primitive"),
+					@Option(label = "asset", value = "asset")
+			})
+	String typeMode();
+	
+	@AttributeDefinition(
+			name = "authentication.type",
+			description = "producertoken: the producer token is sent in every request. "
+					+ "oauth2: a bearer token is requested from the token URL with the OAuth2 client credentials.",
+			type = AttributeType.STRING,
+			defaultValue = AuthenticationProvider.PRODUCER_TOKEN,
+			options = {
+					@Option(label = "producertoken", value = AuthenticationProvider.PRODUCER_TOKEN),
+					@Option(label = "oauth2", value = AuthenticationProvider.OAUTH2)
+			})
+	String authenticationType();
+	
+	@AttributeDefinition(
+			name = "oauth2.token.url",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String oauth2TokenURL();
+	
+	@AttributeDefinition(
+			name = "oauth2.client.id",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String oauth2ClientId();
+	
+	@AttributeDefinition(
+			name = "oauth2.client.secret",
+			type = AttributeType.PASSWORD,
+			required = false,
+			defaultValue = "")
+	String oauth2ClientSecret();
+	
+	@AttributeDefinition(
+			name = "poison.retry.limit",
+			description = "Max attempts of a message, which fails while the OMF target is reachable. After that the message is split "
+					+ "until the failing values are found, which are moved to the dead letters. 0 retries the message forever.",
+			type = AttributeType.INTEGER,
+			defaultValue = "5")
+	int poisonRetryLimit();
+	
+	@AttributeDefinition(
+			name = "dead.letter.capacity",
+			description = "Max amount of dead letters of every target. If the store is full, the oldest dead letter is discarded.",
+			type = AttributeType.INTEGER,
+			defaultValue = "100")
+	int deadLetterCapacity();
+	
+	@AttributeDefinition(
+			name = "dead.letter.action",
+			description = "Executed once when changed. log: logs all dead letters. replay: sends all dead letters again. clear: discards all dead letters.",
+			type = AttributeType.STRING,
+			defaultValue = OMFDeadLetterStore.ACTION_NONE,
+			options = {
+					@Option(label = "none", value = OMFDeadLetterStore.ACTION_NONE),
+					@Option(label = "log", value = OMFDeadLetterStore.ACTION_LOG),
+					@Option(label = "replay", value = OMFDeadLetterStore.ACTION_REPLAY),
+					@Option(label = "clear", value = OMFDeadLetterStore.ACTION_CLEAR)
+			})
+	String deadLetterAction();
+	
+	@AttributeDefinition(
+			name = "high.priority.patterns",
+			description = "Regular expressions for asset names or assetname/channelname, separated by ';'. "
+					+ "Matching data is sent in the high priority lane.",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String highPriorityPatterns();
+	
+	@AttributeDefinition(
+			name = "high.priority.lane.weight",
+			description = "Share of the sending of the high priority lane.",
+			type = AttributeType.INTEGER,
+			defaultValue = "8")
+	int highPriorityLaneWeight();
+	
+	@AttributeDefinition(
+			name = "live.lane.weight",
+			description = "Share of the sending of the live lane.",
+			type = AttributeType.INTEGER,
+			defaultValue = "4")
+	int liveLaneWeight();
+	
+	@AttributeDefinition(
+			name = "backlog.lane.weight",
+			description = "Share of the sending of the backlog lane.",
+			type = AttributeType.INTEGER,
+			defaultValue = "1")
+	int backlogLaneWeight();
+	
+	@AttributeDefinition(
+			name = "live.max.age.in.seconds",
+			description = "Data which was not sent within this time moves from the live lane to the backlog lane.",
+			type = AttributeType.INTEGER,
+			defaultValue = "30")
+	int liveMaxAge();
+	
+	@AttributeDefinition(
+			name = "rate.limit.bytes.per.second",
+			description = "Max bytes per second (after compression), which are sent to every target. 0 disables the limit.",
+			type = AttributeType.INTEGER,
+			defaultValue = "0")
+	int rateLimitBytesPerSecond();
+	
+	@AttributeDefinition(
+			name = "rate.limit.requests.per.second",
+			description = "Max requests per second, which are sent to every target. 0 disables the limit.",
+			type = AttributeType.INTEGER,
+			defaultValue = "0")
+	int rateLimitRequestsPerSecond();
+	
+	@AttributeDefinition(
+			name = "rate.limit.live.reserved.percent",
+			description = "Share of the rate limits, which backlog data cannot use, so live and high priority data is sent without delay.",
+			type = AttributeType.INTEGER,
+			defaultValue = "0",
+			min = "0",
+			max = "100")
+	int rateLimitLiveReservedPercent();
+	
+	@AttributeDefinition(
+			name = "off.heap.queue.capacity.in.megabytes",
+			description = "Direct memory of every target, in which the backlog is stored as compact binary records outside of the Java heap. "
+					+ "If it is full, the backlog is kept on the heap. 0 keeps the whole backlog on the heap.",
+			type = AttributeType.INTEGER,
+			defaultValue = "16")
+	int offHeapQueueCapacity();
+	
+	@AttributeDefinition(
+			name = "serialize.at.ingest",
+			description = "Serialize the data when it is received, so sending only concatenates the serialized data. "
+					+ "Backlog data in the off-heap memory is serialized when it is sent.",
+			type = AttributeType.BOOLEAN,
+			defaultValue = "false")
+	boolean serializeAtIngest();
+	
+	@AttributeDefinition(
+			name = "precompress.data.messages",
+			description = "Compress the data messages in the background when they are received, so sending only concatenates "
+					+ "the compressed gzip members. Requires a gzip compression level. The members are kept in the off-heap backlog, "
+					+ "the persisted queue and merged messages.",
+			type = AttributeType.BOOLEAN,
+			defaultValue = "false")
+	boolean precompressDataMessages();
+	
+	@AttributeDefinition(
+			name = "drain.timeout.in.seconds",
+			description = "Time, in which the in-flight messages are flushed when the component is deactivated. 0 disables the flushing.",
+			type = AttributeType.INTEGER,
+			min = "0",
+			defaultValue = "10")
+	int drainTimeout();
+	
+	@AttributeDefinition(
+			name = "drain.batch.size",
+			description = "Max amount of values, which are merged into one request while the in-flight messages are flushed.",
+			type = AttributeType.INTEGER,
+			min = "1",
+			defaultValue = "5000")
+	int drainBatchSize();
+	
+	@AttributeDefinition(
+			name = "persist.queue",
+			description = "Persist the in-flight messages, which could not be flushed on deactivation, and send them after the next activation.",
+			type = AttributeType.BOOLEAN,
+			defaultValue = "true")
+	boolean persistQueue();
+	
+	@AttributeDefinition(
+			name = "flight.recorder.size",
+			description = "Amount of request summaries (type, status, latency, size, excerpt of the body), which are kept in memory for every target.",
+			type = AttributeType.INTEGER,
+			min = "0",
+			defaultValue = "100")
+	int flightRecorderSize();
+	
+	@AttributeDefinition(
+			name = "flight.recorder.excerpt.length",
+			description = "Max bytes of a message body, which are kept in a request summary or logged with an error.",
+			type = AttributeType.INTEGER,
+			min = "0",
+			defaultValue = "256")
+	int flightRecorderExcerptLength();
+	
+	@AttributeDefinition(
+			name = "flight.recorder.action",
+			description = "Executed once when changed. dump: logs the summaries of the last requests and the latency percentiles of every stage. clear: discards the summaries and latencies.",
+			type = AttributeType.STRING,
+			defaultValue = OMFFlightRecorder.ACTION_NONE,
+			options = {
+					@Option(label = "none", value = OMFFlightRecorder.ACTION_NONE),
+					@Option(label = "dump", value = OMFFlightRecorder.ACTION_DUMP),
+					@Option(label = "clear", value = OMFFlightRecorder.ACTION_CLEAR)
+			})
+	String flightRecorderAction();
+	
+	@AttributeDefinition(
+			name = "error.logs.per.minute",
+			description = "Max amount of errors, which are logged per minute and target. Further errors are counted and reported with the next logged error. 0 logs every error.",
+			type = AttributeType.INTEGER,
+			min = "0",
+			defaultValue = "10")
+	int errorLogsPerMinute();
+	
+	@AttributeDefinition(
+			name = "backfill.directory",
+			description = "Directory with local history files (.csv, .jsonl, .ndjson), which are uploaded to every target in bulk. "
+					+ "The progress is checkpointed in the persistence directory, so an interrupted backfill continues. Empty disables the backfill.",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String backfillDirectory();
+	
+	@AttributeDefinition(
+			name = "backfill.batch.size",
+			description = "Max amount of values of one backfill request.",
+			type = AttributeType.INTEGER,
+			min = "1",
+			defaultValue = "10000")
+	int backfillBatchSize();
+	
+	@AttributeDefinition(
+			name = "backfill.pipeline.depth",
+			description = "Amount of backfill requests, which are read and serialized while the previous request is uploaded.",
+			type = AttributeType.INTEGER,
+			min = "1",
+			defaultValue = "4")
+	int backfillPipelineDepth();
+	
+	@AttributeDefinition(
+			name = "conflation.patterns",
+			description = "Regular expressions for asset names or assetname/channelname, separated by ';'. "
+					+ "Only the latest value of matching channels is queued: a newer value replaces the waiting value of the same channel.",
+			type = AttributeType.STRING,
+			required = false,
+			defaultValue = "")
+	String conflationPatterns();
+	
+	@AttributeDefinition(
+			name = "shard.count",
+			description = "Amount of shards of every target. Every shard sends the data of a part of the containers with its own connection, "
+					+ "queue and send loop, partitioned by a consistent hash of the container ID. The order of every container is kept.",
+			type = AttributeType.INTEGER,
+			min = "1",
+			max = "64",
+			defaultValue = "1")
+	int shardCount();
   
 }
\ No newline at end of file
@@ -15,7 +15,21 @@ package de.megla.iot.OMFPublisher;
 import static java.util.Objects.nonNull;
 import static java.util.Objects.requireNonNull;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.configuration.Password;
+import org.eclipse.kura.crypto.CryptoService;
+
+import de.megla.iot.OMFPublisher.auth.AuthenticationProvider;
+import de.megla.iot.OMFPublisher.compression.CompressionCodec;
+import de.megla.iot.OMFPublisher.models.OMFTypeMode;
 
 /**
  * OMFPublisherOptions.java
@@ -27,6 +41,7 @@ import java.util.Map;
 public class OMFPublisherOptions{
 	/**
 	 * <b>properties</b>				properties which contain service configurations and user specific inputs
+	 * <b>cryptoService</b>				decrypts the password attributes, null if the service is not bound
 	 * <b>PRODUCER_TOKEN</b>			default value of the producertoken 
 	 * <b>TARGET_URL</b>				default value of the target URL
 	 * <b>DEVICENAME</b>				default value of the devicename
@@ -39,9 +54,89 @@ public class OMFPublisherOptions{
 	 * <b>SSLVERIFY_NAME</b>			name of the property "sslVerify"
 	 * <b>CONNECTIONTIMEOUT_NAME</b>	name of the property "connectionTimeout"
 	 * <b>INFLIGHTINTERVAL_NAME</b>		name of the property "inFlightInterval"
+	 * <b>PERSISTENCE_DIRECTORY</b>		default value of the directory for persisted data
+	 * <b>PERSIST_DEFINITIONS</b>		default value of the persistence of acknowledged definitions
+	 * <b>PERSISTENCE_DIRECTORY_NAME</b>	name of the property "persistenceDirectory"
+	 * <b>PERSIST_DEFINITIONS_NAME</b>	name of the property "persistDefinitions"
+	 * <b>COMPRESSION</b>				default value of the compression level
+	 * <b>COMPRESSION_MIN_SIZE</b>		default value of the min message size in bytes, which is compressed
+	 * <b>COMPRESSION_NAME</b>			name of the property "compression"
+	 * <b>COMPRESSION_MIN_SIZE_NAME</b>	name of the property "compressionMinSize"
+	 * <b>PARALLEL_SERIALIZATION_THRESHOLD</b>		default value of the min amount of assets, which are serialized in parallel
+	 * <b>PARALLEL_SERIALIZATION_THRESHOLD_NAME</b>	name of the property "parallelSerializationThreshold"
+	 * <b>ADDITIONAL_TARGETS</b>		default value of the additional targets
+	 * <b>ADDITIONAL_TARGETS_NAME</b>	name of the property "additionalTargets"
+	 * <b>TARGET_SEPARATOR</b>			separator between the additional targets
+	 * <b>TOKEN_SEPARATOR</b>			separator between the target URL and producer token of an additional target
+	 * <b>TYPE_MODE</b>					default value of the type mode
+	 * <b>TYPE_MODE_NAME</b>			name of the property "typeMode"
+	 * <b>AUTHENTICATION_TYPE</b>		default value of the authentication type
+	 * <b>OAUTH2_TOKEN_URL</b>			default value of the URL of the OAuth2 token endpoint
+	 * <b>OAUTH2_CLIENT_ID</b>			default value of the OAuth2 client id
+	 * <b>OAUTH2_CLIENT_SECRET</b>		default value of the OAuth2 client secret
+	 * <b>AUTHENTICATION_TYPE_NAME</b>	name of the property "authenticationType"
+	 * <b>OAUTH2_TOKEN_URL_NAME</b>		name of the property "oauth2TokenURL"
+	 * <b>OAUTH2_CLIENT_ID_NAME</b>		name of the property "oauth2ClientId"
+	 * <b>OAUTH2_CLIENT_SECRET_NAME</b>	name of the property "oauth2ClientSecret"
+	 * <b>POISON_RETRY_LIMIT</b>		default value of the max attempts of a message, before it is split or moved to the dead letters
+	 * <b>DEAD_LETTER_CAPACITY</b>		default value of the max amount of dead letters
+	 * <b>DEAD_LETTER_ACTION</b>		default value of the action on the dead letters
+	 * <b>POISON_RETRY_LIMIT_NAME</b>	name of the property "poisonRetryLimit"
+	 * <b>DEAD_LETTER_CAPACITY_NAME</b>	name of the property "deadLetterCapacity"
+	 * <b>DEAD_LETTER_ACTION_NAME</b>	name of the property "deadLetterAction"
+	 * <b>HIGH_PRIORITY_PATTERNS</b>	default value of the patterns of high priority assets and channels
+	 * <b>HIGH_PRIORITY_LANE_WEIGHT</b>	default value of the weight of the high priority lane
+	 * <b>LIVE_LANE_WEIGHT</b>			default value of the weight of the live lane
+	 * <b>BACKLOG_LANE_WEIGHT</b>		default value of the weight of the backlog lane
+	 * <b>LIVE_MAX_AGE</b>				default value of the max age in seconds of live data
+	 * <b>HIGH_PRIORITY_PATTERNS_NAME</b>	name of the property "highPriorityPatterns"
+	 * <b>HIGH_PRIORITY_LANE_WEIGHT_NAME</b>	name of the property "highPriorityLaneWeight"
+	 * <b>LIVE_LANE_WEIGHT_NAME</b>		name of the property "liveLaneWeight"
+	 * <b>BACKLOG_LANE_WEIGHT_NAME</b>	name of the property "backlogLaneWeight"
+	 * <b>LIVE_MAX_AGE_NAME</b>			name of the property "liveMaxAge"
+	 * <b>PATTERN_SEPARATOR</b>			separator between the high priority patterns
+	 * <b>RATE_LIMIT_BYTES_PER_SECOND</b>	default value of the max bytes per second
+	 * <b>RATE_LIMIT_REQUESTS_PER_SECOND</b>	default value of the max requests per second
+	 * <b>RATE_LIMIT_LIVE_RESERVED_PERCENT</b>	default value of the share of the rate limit, which is reserved for live data
+	 * <b>RATE_LIMIT_BYTES_PER_SECOND_NAME</b>	name of the property "rateLimitBytesPerSecond"
+	 * <b>RATE_LIMIT_REQUESTS_PER_SECOND_NAME</b>	name of the property "rateLimitRequestsPerSecond"
+	 * <b>RATE_LIMIT_LIVE_RESERVED_PERCENT_NAME</b>	name of the property "rateLimitLiveReservedPercent"
+	 * <b>OFF_HEAP_QUEUE_CAPACITY</b>	default value of the capacity in megabytes of the off-heap backlog of every target
+	 * <b>OFF_HEAP_QUEUE_CAPACITY_NAME</b>	name of the property "offHeapQueueCapacity"
+	 * <b>SERIALIZE_AT_INGEST</b>		default value of the serialization of the data when it is received
+	 * <b>SERIALIZE_AT_INGEST_NAME</b>	name of the property "serializeAtIngest"
+	 * <b>PRECOMPRESS_DATA_MESSAGES</b>	default value of the compression of the data messages in the background
+	 * <b>PRECOMPRESS_DATA_MESSAGES_NAME</b>	name of the property "precompressDataMessages"
+	 * <b>DRAIN_TIMEOUT</b>				default value of the seconds, in which the queues are flushed on deactivation
+	 * <b>DRAIN_BATCH_SIZE</b>			default value of the max values of one request, while the queues are flushed
+	 * <b>PERSIST_QUEUE</b>				default value of the persistence of the remaining in-flight messages on deactivation
+	 * <b>DRAIN_TIMEOUT_NAME</b>		name of the property "drainTimeout"
+	 * <b>DRAIN_BATCH_SIZE_NAME</b>		name of the property "drainBatchSize"
+	 * <b>PERSIST_QUEUE_NAME</b>		name of the property "persistQueue"
+	 * <b>FLIGHT_RECORDER_SIZE</b>		default value of the amount of request summaries of every target
+	 * <b>FLIGHT_RECORDER_EXCERPT_LENGTH</b>	default value of the max bytes of a body, which are kept in a summary or logged
+	 * <b>FLIGHT_RECORDER_ACTION</b>	default value of the action on the flight recorder
+	 * <b>ERROR_LOGS_PER_MINUTE</b>		default value of the max logged errors per minute of every target
+	 * <b>FLIGHT_RECORDER_SIZE_NAME</b>	name of the property "flightRecorderSize"
+	 * <b>FLIGHT_RECORDER_EXCERPT_LENGTH_NAME</b>	name of the property "flightRecorderExcerptLength"
+	 * <b>FLIGHT_RECORDER_ACTION_NAME</b>	name of the property "flightRecorderAction"
+	 * <b>ERROR_LOGS_PER_MINUTE_NAME</b>	name of the property "errorLogsPerMinute"
+	 * <b>BACKFILL_DIRECTORY</b>		default value of the directory with the history files, which are backfilled
+	 * <b>BACKFILL_BATCH_SIZE</b>		default value of the max values of one backfill request
+	 * <b>BACKFILL_PIPELINE_DEPTH</b>	default value of the amount of serialized backfill requests, which wait for the upload
+	 * <b>BACKFILL_DIRECTORY_NAME</b>	name of the property "backfillDirectory"
+	 * <b>BACKFILL_BATCH_SIZE_NAME</b>	name of the property "backfillBatchSize"
+	 * <b>BACKFILL_PIPELINE_DEPTH_NAME</b>	name of the property "backfillPipelineDepth"
+	 * <b>CONFLATION_PATTERNS</b>		default value of the patterns of assets and channels, of which only the latest value is queued
+	 * <b>CONFLATION_PATTERNS_NAME</b>	name of the property "conflationPatterns"
+	 * <b>SHARD_COUNT</b>				default value of the amount of shards of every target
+	 * <b>SHARD_INDEX</b>				default value of the shard of the options
+	 * <b>SHARD_COUNT_NAME</b>			name of the property "shardCount"
+	 * <b>SHARD_INDEX_NAME</b>			name of the property "shardIndex", which is only set in the options of a shard
 	 */
 	
 	private final Map<String, Object> properties;
+	private final CryptoService cryptoService;
 	
 	private static final String PRODUCER_TOKEN = "";
     private static final String TARGET_URL = "";
@@ -49,6 +144,44 @@ public class OMFPublisherOptions{
     private static final Boolean SSLVERIFY = false;
     private static final int CONNECTIONTIMEOUT = 1;
     private static final int IN_FLIGHT_INTERVAl = 1;
+    private static final String PERSISTENCE_DIRECTORY = "";
+    private static final Boolean PERSIST_DEFINITIONS = true;
+    private static final String COMPRESSION = CompressionCodec.DEFAULT;
+    private static final int COMPRESSION_MIN_SIZE = 256;
+    private static final int PARALLEL_SERIALIZATION_THRESHOLD = 100;
+    private static final String ADDITIONAL_TARGETS = "";
+    private static final String TYPE_MODE = OMFTypeMode.CHANNEL.getName();
+    private static final String AUTHENTICATION_TYPE = AuthenticationProvider.PRODUCER_TOKEN;
+    private static final String OAUTH2_TOKEN_URL = "";
+    private static final String OAUTH2_CLIENT_ID = "";
+    private static final String OAUTH2_CLIENT_SECRET = "";
+    private static final int POISON_RETRY_LIMIT = 5;
+    private static final int DEAD_LETTER_CAPACITY = 100;
+    private static final String DEAD_LETTER_ACTION = OMFDeadLetterStore.ACTION_NONE;
+    private static final String HIGH_PRIORITY_PATTERNS = "";
+    private static final int HIGH_PRIORITY_LANE_WEIGHT = 8;
+    private static final int LIVE_LANE_WEIGHT = 4;
+    private static final int BACKLOG_LANE_WEIGHT = 1;
+    private static final int LIVE_MAX_AGE = 30;
+    private static final int RATE_LIMIT_BYTES_PER_SECOND = 0;
+    private static final int RATE_LIMIT_REQUESTS_PER_SECOND = 0;
+    private static final int RATE_LIMIT_LIVE_RESERVED_PERCENT = 0;
+    private static final int OFF_HEAP_QUEUE_CAPACITY = 16;
+    private static final Boolean SERIALIZE_AT_INGEST = false;
+    private static final Boolean PRECOMPRESS_DATA_MESSAGES = false;
+    private static final int DRAIN_TIMEOUT = 10;
+    private static final int DRAIN_BATCH_SIZE = 5000;
+    private static final Boolean PERSIST_QUEUE = true;
+    private static final int FLIGHT_RECORDER_SIZE = 100;
+    private static final int FLIGHT_RECORDER_EXCERPT_LENGTH = 256;
+    private static final String FLIGHT_RECORDER_ACTION = OMFFlightRecorder.ACTION_NONE;
+    private static final int ERROR_LOGS_PER_MINUTE = 10;
+    private static final String BACKFILL_DIRECTORY = "";
+    private static final int BACKFILL_BATCH_SIZE = 10000;
+    private static final int BACKFILL_PIPELINE_DEPTH = 4;
+    private static final String CONFLATION_PATTERNS = "";
+    private static final int SHARD_COUNT = 1;
+    private static final int SHARD_INDEX = 0;
     
     private static final String PRODUCER_TOKEN_NAME = "producerToken";
     private static final String TARGET_URL_NAME = "targetURL";
@@ -56,14 +189,64 @@ public class OMFPublisherOptions{
     private static final String SSLVERIFY_NAME = "sslVerify";
     private static final String CONNECTIONTIMEOUT_NAME = "connectionTimeout";
     private static final String INFLIGHTINTERVAL_NAME = "inFlightInterval";
+    private static final String PERSISTENCE_DIRECTORY_NAME = "persistenceDirectory";
+    private static final String PERSIST_DEFINITIONS_NAME = "persistDefinitions";
+    private static final String COMPRESSION_NAME = "compression";
+    private static final String COMPRESSION_MIN_SIZE_NAME = "compressionMinSize";
+    private static final String PARALLEL_SERIALIZATION_THRESHOLD_NAME = "parallelSerializationThreshold";
+    private static final String ADDITIONAL_TARGETS_NAME = "additionalTargets";
+    private static final String TYPE_MODE_NAME = "typeMode";
+    private static final String AUTHENTICATION_TYPE_NAME = "authenticationType";
+    private static final String OAUTH2_TOKEN_URL_NAME = "oauth2TokenURL";
+    private static final String OAUTH2_CLIENT_ID_NAME = "oauth2ClientId";
+    private static final String OAUTH2_CLIENT_SECRET_NAME = "oauth2ClientSecret";
+    private static final String POISON_RETRY_LIMIT_NAME = "poisonRetryLimit";
+    private static final String DEAD_LETTER_CAPACITY_NAME = "deadLetterCapacity";
+    private static final String DEAD_LETTER_ACTION_NAME = "deadLetterAction";
+    private static final String HIGH_PRIORITY_PATTERNS_NAME = "highPriorityPatterns";
+    private static final String HIGH_PRIORITY_LANE_WEIGHT_NAME = "highPriorityLaneWeight";
+    private static final String LIVE_LANE_WEIGHT_NAME = "liveLaneWeight";
+    private static final String BACKLOG_LANE_WEIGHT_NAME = "backlogLaneWeight";
+    private static final String LIVE_MAX_AGE_NAME = "liveMaxAge";
+    private static final String RATE_LIMIT_BYTES_PER_SECOND_NAME = "rateLimitBytesPerSecond";
+    private static final String RATE_LIMIT_REQUESTS_PER_SECOND_NAME = "rateLimitRequestsPerSecond";
+    private static final String RATE_LIMIT_LIVE_RESERVED_PERCENT_NAME = "rateLimitLiveReservedPercent";
+    private static final String OFF_HEAP_QUEUE_CAPACITY_NAME = "offHeapQueueCapacity";
+    private static final String SERIALIZE_AT_INGEST_NAME = "serializeAtIngest";
+    private static final String PRECOMPRESS_DATA_MESSAGES_NAME = "precompressDataMessages";
+    private static final String DRAIN_TIMEOUT_NAME = "drainTimeout";
+    private static final String DRAIN_BATCH_SIZE_NAME = "drainBatchSize";
+    private static final String PERSIST_QUEUE_NAME = "persistQueue";
+    private static final String FLIGHT_RECORDER_SIZE_NAME = "flightRecorderSize";
+    private static final String FLIGHT_RECORDER_EXCERPT_LENGTH_NAME = "flightRecorderExcerptLength";
+    private static final String FLIGHT_RECORDER_ACTION_NAME = "flightRecorderAction";
+    private static final String ERROR_LOGS_PER_MINUTE_NAME = "errorLogsPerMinute";
+    private static final String BACKFILL_DIRECTORY_NAME = "backfillDirectory";
+    private static final String BACKFILL_BATCH_SIZE_NAME = "backfillBatchSize";
+    private static final String BACKFILL_PIPELINE_DEPTH_NAME = "backfillPipelineDepth";
+    private static final String CONFLATION_PATTERNS_NAME = "conflationPatterns";
+    private static final String SHARD_COUNT_NAME = "shardCount";
+    private static final String SHARD_INDEX_NAME = "shardIndex";
+    
+    private static final String TARGET_SEPARATOR = "[;\\r\\n]";
+    private static final String TOKEN_SEPARATOR = "|";
+    private static final String PATTERN_SEPARATOR = "[;\\r\\n]";
 
 
     /**
      * Constructor which sets the properties of the options.
      */
     public OMFPublisherOptions(final Map<String, Object> properties) {
+        this(properties, null);
+    }
+    
+    /**
+     * Constructor which sets the properties of the options and the service, which decrypts the password attributes.
+     */
+    public OMFPublisherOptions(final Map<String, Object> properties, final CryptoService cryptoService) {
         requireNonNull(properties, "Properties cannot be null");
         this.properties = properties;
+        this.cryptoService = cryptoService;
     }
     
     /**
@@ -140,6 +323,589 @@ public class OMFPublisherOptions{
         return appId;
     }
     
+    /**
+     * Returns the directory for persisted data, which is typed by a user.
+     * If it is empty, the directory "omfpublisher" in the Kura data directory is used.
+     */
+    public String getPersistenceDirectory() {
+        String appId = PERSISTENCE_DIRECTORY;
+        Object app = this.properties.get(PERSISTENCE_DIRECTORY_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        if (appId.trim().isEmpty()) {
+            String dataDirectory = System.getProperty("kura.data", System.getProperty("java.io.tmpdir"));
+            appId = new File(dataDirectory, "omfpublisher").getPath();
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of persistDefinitions, which is typed by a user.
+     * In short: Should acknowledged type and container definitions survive a restart.
+     */
+    public boolean getPersistDefinitions() {
+        boolean appId = PERSIST_DEFINITIONS;
+        Object app = this.properties.get(PERSIST_DEFINITIONS_NAME);
+        if (nonNull(app) && app instanceof Boolean) {
+            appId = (boolean) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the compression level (none, fast, default, best), which is selected by a user.
+     */
+    public String getCompression() {
+        String appId = COMPRESSION;
+        Object app = this.properties.get(COMPRESSION_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the min size in bytes of a message, which is compressed. Smaller messages are sent uncompressed.
+     */
+    public int getCompressionMinSize() {
+        int appId = COMPRESSION_MIN_SIZE;
+        Object app = this.properties.get(COMPRESSION_MIN_SIZE_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the min amount of assets in one message, which are serialized in parallel. 0 disables the parallel serialization.
+     */
+    public int getParallelSerializationThreshold() {
+        int appId = PARALLEL_SERIALIZATION_THRESHOLD;
+        Object app = this.properties.get(PARALLEL_SERIALIZATION_THRESHOLD_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of the additionalTargets, which is typed by a user.
+     * Every target has the format "targeturl|producertoken" and the targets are separated by ";" or a new line.
+     */
+    public String getAdditionalTargets() {
+        String appId = ADDITIONAL_TARGETS;
+        Object app = this.properties.get(ADDITIONAL_TARGETS_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the type mode, which is selected by a user.
+     * In short: Does every channel get its own dynamic type or do all channels of a data type share one type.
+     */
+    public OMFTypeMode getTypeMode() {
+        String appId = TYPE_MODE;
+        Object app = this.properties.get(TYPE_MODE_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return OMFTypeMode.fromName(appId);
+    }
+    
+    /**
+     * Returns the authentication type (producertoken, oauth2), which is selected by a user.
+     */
+    public String getAuthenticationType() {
+        String appId = AUTHENTICATION_TYPE;
+        Object app = this.properties.get(AUTHENTICATION_TYPE_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * True if the OMF target is accessed with an OAuth2 bearer token instead of the producer token.
+     */
+    public boolean isOAuth2Authentication() {
+        return AuthenticationProvider.OAUTH2.equalsIgnoreCase(getAuthenticationType());
+    }
+    
+    /**
+     * Returns the value of the oauth2TokenURL, which is typed by a user.
+     */
+    public String getOAuth2TokenURL() {
+        String appId = OAUTH2_TOKEN_URL;
+        Object app = this.properties.get(OAUTH2_TOKEN_URL_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of the oauth2ClientId, which is typed by a user.
+     */
+    public String getOAuth2ClientId() {
+        String appId = OAUTH2_CLIENT_ID;
+        Object app = this.properties.get(OAUTH2_CLIENT_ID_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of the oauth2ClientSecret, which is typed by a user.
+     * Kura passes password attributes as encrypted Password objects, which are decrypted with the crypto service.
+     */
+    public String getOAuth2ClientSecret() {
+        String appId = OAUTH2_CLIENT_SECRET;
+        Object app = this.properties.get(OAUTH2_CLIENT_SECRET_NAME);
+        if (nonNull(app) && app instanceof Password) {
+            appId = decrypt(((Password) app).getPassword());
+        } else if (nonNull(app) && app instanceof String) {
+            appId = decrypt(((String) app).toCharArray());
+        } //else if
+        return appId;
+    }
+    
+    /**
+     * Decrypts a password attribute. A value, which cannot be decrypted, was not encrypted by Kura and is returned as it is.
+     */
+    private String decrypt(char[] encryptedValue) {
+        if (encryptedValue.length == 0 || this.cryptoService == null) {
+            return new String(encryptedValue);
+        } //if
+        
+        try {
+            return new String(this.cryptoService.decryptAes(encryptedValue));
+        } catch (KuraException | RuntimeException ex) {
+            return new String(encryptedValue);
+        } //catch
+    }
+    
+    /**
+     * Returns the max attempts of a message, which was rejected with a retryable error while the OMF target was reachable.
+     * After that the message is split or moved to the dead letters. 0 retries the message forever.
+     */
+    public int getPoisonRetryLimit() {
+        int appId = POISON_RETRY_LIMIT;
+        Object app = this.properties.get(POISON_RETRY_LIMIT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max amount of dead letters of every target. If the store is full, the oldest dead letter is discarded.
+     */
+    public int getDeadLetterCapacity() {
+        int appId = DEAD_LETTER_CAPACITY;
+        Object app = this.properties.get(DEAD_LETTER_CAPACITY_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the action on the dead letters (none, log, replay, clear), which is selected by a user.
+     * The action is executed once, when the value is changed.
+     */
+    public String getDeadLetterAction() {
+        String appId = DEAD_LETTER_ACTION;
+        Object app = this.properties.get(DEAD_LETTER_ACTION_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of the highPriorityPatterns, which is typed by a user.
+     * Every pattern is a regular expression for an asset name or "assetname/channelname", the patterns are separated by ";" or a new line.
+     */
+    public String getHighPriorityPatterns() {
+        String appId = HIGH_PRIORITY_PATTERNS;
+        Object app = this.properties.get(HIGH_PRIORITY_PATTERNS_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the compiled high priority patterns. All patterns are combined to one pattern, null if there are no patterns.
+     * @throws PatternSyntaxException if a pattern is invalid
+     */
+    public Pattern getHighPriorityPattern() {
+        return combinePatterns(getHighPriorityPatterns());
+    }
+    
+    /**
+     * Combines patterns, which are separated by ";" or line breaks, to one pattern. Returns null if there are no patterns.
+     * @throws PatternSyntaxException if a pattern is invalid
+     */
+    private static Pattern combinePatterns(String patterns) {
+        StringBuilder combined = new StringBuilder();
+        
+        for (String pattern : patterns.split(PATTERN_SEPARATOR)) {
+            if (pattern.trim().isEmpty()) {
+                continue;
+            } //if
+            
+            if (combined.length() > 0) {
+                combined.append('|');
+            } //if
+            combined.append("(?:").append(pattern.trim()).append(')');
+        } //for
+        
+        return combined.length() > 0 ? Pattern.compile(combined.toString()) : null;
+    }
+    
+    /**
+     * Returns the weight of the high priority lane. The lanes share the sending by their weights.
+     */
+    public int getHighPriorityLaneWeight() {
+        int appId = HIGH_PRIORITY_LANE_WEIGHT;
+        Object app = this.properties.get(HIGH_PRIORITY_LANE_WEIGHT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the weight of the live lane. The lanes share the sending by their weights.
+     */
+    public int getLiveLaneWeight() {
+        int appId = LIVE_LANE_WEIGHT;
+        Object app = this.properties.get(LIVE_LANE_WEIGHT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the weight of the backlog lane. The lanes share the sending by their weights.
+     */
+    public int getBacklogLaneWeight() {
+        int appId = BACKLOG_LANE_WEIGHT;
+        Object app = this.properties.get(BACKLOG_LANE_WEIGHT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max age in seconds of live data. Older data, which was not sent yet, moves to the backlog lane.
+     */
+    public int getLiveMaxAge() {
+        int appId = LIVE_MAX_AGE;
+        Object app = this.properties.get(LIVE_MAX_AGE_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max bytes per second (after compression), which are sent to a target. 0 disables the limit.
+     */
+    public int getRateLimitBytesPerSecond() {
+        int appId = RATE_LIMIT_BYTES_PER_SECOND;
+        Object app = this.properties.get(RATE_LIMIT_BYTES_PER_SECOND_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max requests per second, which are sent to a target. 0 disables the limit.
+     */
+    public int getRateLimitRequestsPerSecond() {
+        int appId = RATE_LIMIT_REQUESTS_PER_SECOND;
+        Object app = this.properties.get(RATE_LIMIT_REQUESTS_PER_SECOND_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the share in percent of the rate limits, which is reserved for live and high priority data.
+     */
+    public int getRateLimitLiveReservedPercent() {
+        int appId = RATE_LIMIT_LIVE_RESERVED_PERCENT;
+        Object app = this.properties.get(RATE_LIMIT_LIVE_RESERVED_PERCENT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the capacity in megabytes of the direct memory, in which the backlog of every target is stored.
+     * If it is full, the backlog is kept on the heap. 0 keeps the whole backlog on the heap.
+     */
+    public int getOffHeapQueueCapacity() {
+        int appId = OFF_HEAP_QUEUE_CAPACITY;
+        Object app = this.properties.get(OFF_HEAP_QUEUE_CAPACITY_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of serializeAtIngest, which is typed by a user.
+     * In short: Is the data serialized when it is received, so sending only concatenates the serialized fragments.
+     */
+    public boolean getSerializeAtIngest() {
+        boolean appId = SERIALIZE_AT_INGEST;
+        Object app = this.properties.get(SERIALIZE_AT_INGEST_NAME);
+        if (nonNull(app) && app instanceof Boolean) {
+            appId = (boolean) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of precompressDataMessages, which is typed by a user.
+     * In short: Are the data messages compressed in the background when they are received, so sending only concatenates gzip members.
+     */
+    public boolean getPrecompressDataMessages() {
+        boolean appId = PRECOMPRESS_DATA_MESSAGES;
+        Object app = this.properties.get(PRECOMPRESS_DATA_MESSAGES_NAME);
+        if (nonNull(app) && app instanceof Boolean) {
+            appId = (boolean) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the seconds, in which the in-flight messages are flushed when the component is deactivated. 0 disables the flushing.
+     */
+    public int getDrainTimeout() {
+        int appId = DRAIN_TIMEOUT;
+        Object app = this.properties.get(DRAIN_TIMEOUT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max amount of values, which are merged into one request while the in-flight messages are flushed.
+     */
+    public int getDrainBatchSize() {
+        int appId = DRAIN_BATCH_SIZE;
+        Object app = this.properties.get(DRAIN_BATCH_SIZE_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the value of persistQueue, which is typed by a user.
+     * In short: Are the in-flight messages, which could not be flushed, persisted on deactivation and restored on activation.
+     */
+    public boolean getPersistQueue() {
+        boolean appId = PERSIST_QUEUE;
+        Object app = this.properties.get(PERSIST_QUEUE_NAME);
+        if (nonNull(app) && app instanceof Boolean) {
+            appId = (boolean) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the amount of request summaries, which are kept in the flight recorder of every target.
+     */
+    public int getFlightRecorderSize() {
+        int appId = FLIGHT_RECORDER_SIZE;
+        Object app = this.properties.get(FLIGHT_RECORDER_SIZE_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max bytes of a message body, which are kept in a request summary or logged with an error.
+     */
+    public int getFlightRecorderExcerptLength() {
+        int appId = FLIGHT_RECORDER_EXCERPT_LENGTH;
+        Object app = this.properties.get(FLIGHT_RECORDER_EXCERPT_LENGTH_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the action (none, dump, clear) on the flight recorder, which is executed once when it is changed.
+     */
+    public String getFlightRecorderAction() {
+        String appId = FLIGHT_RECORDER_ACTION;
+        Object app = this.properties.get(FLIGHT_RECORDER_ACTION_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max amount of errors, which are logged per minute and target. 0 logs every error.
+     */
+    public int getErrorLogsPerMinute() {
+        int appId = ERROR_LOGS_PER_MINUTE;
+        Object app = this.properties.get(ERROR_LOGS_PER_MINUTE_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the directory with the local history files, which are backfilled to every target. Empty disables the backfill.
+     */
+    public String getBackfillDirectory() {
+        String appId = BACKFILL_DIRECTORY;
+        Object app = this.properties.get(BACKFILL_DIRECTORY_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the max amount of values of one backfill request.
+     */
+    public int getBackfillBatchSize() {
+        int appId = BACKFILL_BATCH_SIZE;
+        Object app = this.properties.get(BACKFILL_BATCH_SIZE_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the amount of serialized backfill requests, which wait for the upload of the previous request.
+     */
+    public int getBackfillPipelineDepth() {
+        int appId = BACKFILL_PIPELINE_DEPTH;
+        Object app = this.properties.get(BACKFILL_PIPELINE_DEPTH_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the patterns of assets or "assetname/channelname", of which only the latest value is queued, separated by ";".
+     */
+    public String getConflationPatterns() {
+        String appId = CONFLATION_PATTERNS;
+        Object app = this.properties.get(CONFLATION_PATTERNS_NAME);
+        if (nonNull(app) && app instanceof String) {
+            appId = String.valueOf(app);
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the compiled conflation patterns. All patterns are combined to one pattern, null if there are no patterns.
+     * @throws PatternSyntaxException if a pattern is invalid
+     */
+    public Pattern getConflationPattern() {
+        return combinePatterns(getConflationPatterns());
+    }
+    
+    /**
+     * Returns the amount of shards of every target. Every shard sends a part of the containers with its own connection and queue.
+     */
+    public int getShardCount() {
+        int appId = SHARD_COUNT;
+        Object app = this.properties.get(SHARD_COUNT_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the shard of these options, 0 if they are not the options of a shard.
+     */
+    public int getShardIndex() {
+        int appId = SHARD_INDEX;
+        Object app = this.properties.get(SHARD_INDEX_NAME);
+        if (nonNull(app) && app instanceof Integer) {
+            appId = (int) app;
+        } //if
+        return appId;
+    }
+    
+    /**
+     * Returns the part of the scope of the persisted files, which identifies the shard. The first shard uses 
+     * the files of a target without shards, so they are kept when the shards are enabled.
+     */
+    public String getShardScope() {
+        return getShardIndex() > 0 ? "\nshard " + getShardIndex() : "";
+    }
+    
+    /**
+     * Returns the options of every target. The first options are the options of the target URL and producer token,
+     * followed by the options of all additional targets.
+     */
+    public List<OMFPublisherOptions> getTargetOptions() {
+        List<OMFPublisherOptions> result = new ArrayList<>();
+        result.add(this);
+        
+        for (String target : getAdditionalTargets().split(TARGET_SEPARATOR)) {
+            if (target.trim().isEmpty()) {
+                continue;
+            } //if
+            
+            int separatorIndex = target.indexOf(TOKEN_SEPARATOR);
+            if (separatorIndex < 0) {
+                result.add(forTarget(target.trim(), ""));
+            } else {
+                result.add(forTarget(target.substring(0, separatorIndex).trim(), target.substring(separatorIndex + 1).trim()));
+            } //else
+        } //for
+        return result;
+    }
+    
+    /**
+     * Returns a copy of these options with another target URL and producer token.
+     */
+    public OMFPublisherOptions forTarget(String targetURL, String producerToken) {
+        Map<String, Object> targetProperties = new HashMap<>(this.properties);
+        targetProperties.put(TARGET_URL_NAME, targetURL);
+        targetProperties.put(PRODUCER_TOKEN_NAME, producerToken);
+        return new OMFPublisherOptions(targetProperties, this.cryptoService);
+    }
+    
+    /**
+     * Returns a copy of these options for a shard of the same target.
+     */
+    public OMFPublisherOptions forShard(int shardIndex) {
+        Map<String, Object> shardProperties = new HashMap<>(this.properties);
+        shardProperties.put(SHARD_INDEX_NAME, shardIndex);
+        return new OMFPublisherOptions(shardProperties, this.cryptoService);
+    }
+    
     /**
      * Checks if the current options are up-to-date.
      */
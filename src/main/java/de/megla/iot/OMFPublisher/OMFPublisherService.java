@@ -12,10 +12,10 @@
 
 package de.megla.iot.OMFPublisher;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
@@ -23,9 +23,13 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -41,6 +45,11 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 
+import de.megla.iot.OMFPublisher.auth.AuthenticationProvider;
+import de.megla.iot.OMFPublisher.auth.OAuth2ClientCredentialsProvider;
+import de.megla.iot.OMFPublisher.auth.ProducerTokenAuthenticationProvider;
+import de.megla.iot.OMFPublisher.compression.CompressionCodec;
+import de.megla.iot.OMFPublisher.compression.NoCompressionCodec;
 import de.megla.iot.OMFPublisher.models.AssetFrameworkElement;
 import de.megla.iot.OMFPublisher.models.LinkedDataMessage;
 import de.megla.iot.OMFPublisher.models.LinkedValues;
@@ -48,6 +57,7 @@ import de.megla.iot.OMFPublisher.models.OMFAsset;
 import de.megla.iot.OMFPublisher.models.OMFAssetList;
 import de.megla.iot.OMFPublisher.models.OMFChannel;
 import de.megla.iot.OMFPublisher.models.OMFTypeMessage;
+import de.megla.iot.OMFPublisher.models.OMFTypeMode;
 import de.megla.iot.OMFPublisher.models.Property;
 import de.megla.iot.OMFPublisher.models.SourceTarget;
 
@@ -64,30 +74,90 @@ public class OMFPublisherService{
 	 * <b>omfPublisherOptions</b> contains option-data for example the producertoken, hostname, targeturl
 	 * <b>logger</b> logs all messages for Debugging (Info, Warning, Error)
 	 * <b>sslManagerService</b> Service for setting the SSL connection settings
+	 * <b>compressionCodec</b> codec which compresses the messages with the configured level
+	 * <b>uncompressedCodec</b> codec for messages which are smaller than the min compression size
+	 * <b>parallelSerializer</b> serializes large asset lists in parallel
+	 * <b>authenticationProvider</b> sets the authentication headers of every request
+	 * <b>sentBytes</b> total amount of bytes (after compression), which were sent to the OMF target
+	 * <b>sentRequests</b> total amount of requests, which were sent to the OMF target
+	 * <b>flightRecorder</b> summaries of the last requests of the target
+	 * <b>logSampler</b> limits the logged errors of the target
+	 * <b>latencyMetrics</b> latency histograms of the data messages of the target
+	 * <b>ROOT_ELEMENT_KEY_PREFIX</b> prefix of the link registry key of the root element
+	 * <b>ASSET_ELEMENT_KEY_PREFIX</b> prefix of the link registry key of an asset element
+	 * <b>TYPE_KEY_PREFIX</b> prefix of the definition registry key of a type
+	 * <b>CONTAINER_KEY_PREFIX</b> prefix of the definition registry key of a container
 	 */ 
-	private OMFPublisherOptions omfPublisherOptions;
+	private volatile OMFPublisherOptions omfPublisherOptions;
 	private static final Logger logger = LoggerFactory.getLogger(OMFPublisherService.class);
 	private SslManagerService sslManagerService;
+	private CompressionCodec compressionCodec;
+	private final CompressionCodec uncompressedCodec = new NoCompressionCodec();
+	private OMFParallelSerializer parallelSerializer;
+	private AuthenticationProvider authenticationProvider;
+	private final AtomicLong sentBytes = new AtomicLong();
+	private final AtomicLong sentRequests = new AtomicLong();
+	private final OMFFlightRecorder flightRecorder;
+	private final OMFLogSampler logSampler;
+	private final OMFLatencyMetrics latencyMetrics;
+	
+	private static final String ROOT_ELEMENT_KEY_PREFIX = "root:";
+	private static final String ASSET_ELEMENT_KEY_PREFIX = "element:";
+	private static final String TYPE_KEY_PREFIX = "type:";
+	private static final String CONTAINER_KEY_PREFIX = "container:";
 	
 	/**
 	 * Constructor in which the options are set and the SSL certificates are validated.
+	 * The requests are recorded in the flight recorder, errors are logged as far as the sampler allows.
+	 * The latencies of the compression and the HTTP round trip of data messages are recorded in the latency metrics.
 	 */
-	OMFPublisherService(OMFPublisherOptions myPublisherOptions, SslManagerService sslManagerService){
+	OMFPublisherService(OMFPublisherOptions myPublisherOptions, SslManagerService sslManagerService, 
+			OMFFlightRecorder flightRecorder, OMFLogSampler logSampler, OMFLatencyMetrics latencyMetrics){
 		logger.debug("Initializing OMFpublisherHelper");
 		
 		this.omfPublisherOptions=myPublisherOptions;
 		this.sslManagerService = sslManagerService;
+		this.flightRecorder = flightRecorder;
+		this.logSampler = logSampler;
+		this.latencyMetrics = latencyMetrics;
+		this.compressionCodec = CompressionCodec.forLevel(this.omfPublisherOptions.getCompression());
+		this.parallelSerializer = new OMFParallelSerializer(ForkJoinPool.commonPool(), 
+				this.omfPublisherOptions.getParallelSerializationThreshold());
 		
 		if (this.omfPublisherOptions.getSSLVerify())
 			trustOnlyKnownCertificates();		
 		else
 			trustAllConnections();
+		
+		this.authenticationProvider = createAuthenticationProvider();
 	}
 	
 	/**
-	 * Generates a JSON string for the type message, every asset, and their channels.
+	 * Changes the options, which are read for every message. Options which are used when the service is created, 
+	 * like the compression, SSL and authentication, require a new service.
 	 */
-	public String createTypeMessage(OMFAssetList listOfAssets) {
+	public void setOptions(OMFPublisherOptions omfPublisherOptions) {
+		this.omfPublisherOptions = omfPublisherOptions;
+	}
+	
+	/**
+	 * Creates the authentication provider of the configured authentication type.
+	 */
+	private AuthenticationProvider createAuthenticationProvider() {
+		if (this.omfPublisherOptions.isOAuth2Authentication())
+			return new OAuth2ClientCredentialsProvider(this.omfPublisherOptions.getOAuth2TokenURL(), 
+					this.omfPublisherOptions.getOAuth2ClientId(), this.omfPublisherOptions.getOAuth2ClientSecret(), 
+					this.omfPublisherOptions.getConnectionTimeout() * 1000);
+		
+		return new ProducerTokenAuthenticationProvider(this.omfPublisherOptions.getProducerToken());
+	}
+	
+	/**
+	 * Generates a JSON string for the type message, which contains only the types that are not acknowledged
+	 * in the definition registry yet. The key and JSON of every generated type are added to newDefinitions,
+	 * so that they can be acknowledged after the OMF target accepted the message. Large asset lists are serialized in parallel.
+	 */
+	public String createTypeMessage(OMFAssetList listOfAssets, OMFDefinitionRegistry definitionRegistry, Map<String, String> newDefinitions) {
 		Gson gson = new Gson();
 		StringArrayBuilder arrayBuilder = new StringArrayBuilder();
 		Map<String, Property> properties = new HashMap<>();
@@ -97,54 +167,129 @@ public class OMFPublisherService{
 		
 		OMFTypeMessage typeMessage = new OMFTypeMessage("KuraIoTDevice", null, "object", "static", properties, null);
 		
-		arrayBuilder.addContent(gson.toJson(typeMessage));
+		addNewDefinition(arrayBuilder, definitionRegistry, newDefinitions, TYPE_KEY_PREFIX + "KuraIoTDevice", gson.toJson(typeMessage));
+		
+		//Shared types are only checked once
+		Set<String> checkedTypeKeys = ConcurrentHashMap.newKeySet();
 		
-		for (OMFAsset asset : listOfAssets){
+		String assetTypes = this.parallelSerializer.serializeContent(listOfAssets, (asset, assetArrayBuilder) -> {
 			
-        	 arrayBuilder.addContent(asset.getTypeMessageJSON());
+			addNewDefinition(assetArrayBuilder, definitionRegistry, newDefinitions, 
+					TYPE_KEY_PREFIX + asset.getTypeID(), asset.getTypeMessageJSON());
 		 	 
-        	 for (Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet())
-		 		 arrayBuilder.addContent(channelEntry.getValue().getTypeMessageJSON());
-        }
+			if(isAssetTypeMode()) {
+				addNewDefinition(assetArrayBuilder, definitionRegistry, newDefinitions, 
+						TYPE_KEY_PREFIX + asset.getValuesTypeID(), asset.getValuesTypeMessageJSON());
+				return;
+			}
+			
+			for (Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet()) {
+				String typeKey = TYPE_KEY_PREFIX + channelEntry.getValue().getTypeID();
+				
+				if(checkedTypeKeys.add(typeKey))
+					addNewDefinition(assetArrayBuilder, definitionRegistry, newDefinitions, typeKey, channelEntry.getValue().getTypeMessageJSON());
+			}
+		});
+		
+		if(!assetTypes.isEmpty())
+			arrayBuilder.addContent(assetTypes);
 		
 		return arrayBuilder.getArrayString();
 	}
 	
 	/**
-	 * Generates the containers of all channels in all assets.
+	 * Generates the containers of all channels in all assets, which are not acknowledged in the definition registry yet.
+	 * The key and JSON of every generated container are added to newDefinitions. Large asset lists are serialized in parallel.
 	 */
-	public String createContainerMessage(OMFAssetList assetList){
-		StringArrayBuilder arrayBuilder = new StringArrayBuilder();
-		 
-		for (OMFAsset asset : assetList)
+	public String createContainerMessage(OMFAssetList assetList, OMFDefinitionRegistry definitionRegistry, Map<String, String> newDefinitions){
+		return this.parallelSerializer.serialize(assetList, (asset, arrayBuilder) -> {
+			if(isAssetTypeMode()) {
+				addNewDefinition(arrayBuilder, definitionRegistry, newDefinitions, 
+						CONTAINER_KEY_PREFIX + asset.getValuesTypeID(), asset.getValuesContainerMessageJSON());
+				return;
+			}
+			
 			for (Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet())	
-		 		arrayBuilder.addContent(channelEntry.getValue().getContainerMessageJSON());
+				addNewDefinition(arrayBuilder, definitionRegistry, newDefinitions, 
+						CONTAINER_KEY_PREFIX + channelEntry.getValue().getContainerID(), channelEntry.getValue().getContainerMessageJSON());
+		});
+	}
+	
+	/**
+	 * True if every asset has one dynamic type and container for all its channels.
+	 */
+	private boolean isAssetTypeMode() {
+		return this.omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET;
+	}
+	
+	/**
+	 * Adds a definition to the array, if it is neither acknowledged in the registry nor already added.
+	 * It is called in parallel by the chunks of the serializer, so newDefinitions is only accessed while it is locked.
+	 */
+	private void addNewDefinition(StringArrayBuilder arrayBuilder, OMFDefinitionRegistry definitionRegistry, 
+			Map<String, String> newDefinitions, String key, String definitionJson) {
 		
-		return arrayBuilder.getArrayString();
+		synchronized(newDefinitions) {
+			if(newDefinitions.containsKey(key))
+				return;
+		}
+		
+		if(definitionRegistry.isAcknowledged(key, definitionJson))
+			return;
+		
+		synchronized(newDefinitions) {
+			if(newDefinitions.putIfAbsent(key, definitionJson) != null)
+				return;
+		}
+		
+		arrayBuilder.addContent(definitionJson);
 	}
 	
 	/**
 	 * Creates the JSON data for a data container. Appends and returns all channel data.
 	 */
 	public String createDataValuesMessage(OMFAssetList assetList) {
-		StringArrayBuilder arrayBuilder = new StringArrayBuilder();
-		
-	   	for (OMFAsset asset : assetList)
-           	 for (Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet()) 		 
-		 		 arrayBuilder.addContent(channelEntry.getValue().getDataMessageJSON());
-		
-		return arrayBuilder.getArrayString();
+		return this.parallelSerializer.serialize(assetList, (asset, arrayBuilder) -> {
+			String dataValues = asset.getDataValuesJSON();
+			if(!dataValues.isEmpty())
+				arrayBuilder.addContent(dataValues);
+		});
 	}
 	
 	/**
-	 * Generates the assets and links to a string in JSON format.
+	 * Generates only the AF elements and links which are not acknowledged in the link registry yet.
+	 * The keys of all generated elements and links are added to newKeys, so that they can be 
+	 * acknowledged after the OMF target accepted the message.
 	 */
-	public String createAssetsAndLinks(OMFAssetList assetList){
+	public String createAssetsAndLinks(OMFAssetList assetList, OMFLinkRegistry linkRegistry, Collection<String> newKeys){
+		Gson gson = new Gson();
 		StringArrayBuilder arrayBuilder = new StringArrayBuilder();
-		arrayBuilder.addContent(createRootElement());
+		
+		String rootKey = ROOT_ELEMENT_KEY_PREFIX + this.omfPublisherOptions.getDevicename();
+		if(!linkRegistry.isAcknowledged(rootKey)) {
+			arrayBuilder.addContent(createRootElement());
+			newKeys.add(rootKey);
+		}
 				
-		for (OMFAsset asset : assetList)
-	 		arrayBuilder.addContent(asset.getDataMessageJSON());
+		for (OMFAsset asset : assetList) {
+			String elementKey = ASSET_ELEMENT_KEY_PREFIX + asset.getTypeID();
+			if(!linkRegistry.isAcknowledged(elementKey)) {
+				arrayBuilder.addContent(asset.getAssetElementJSON());
+				newKeys.add(elementKey);
+			}
+			
+			//Only links to new containers are sent
+			ArrayList<LinkedValues> newLinks = new ArrayList<>();
+			for (LinkedValues link : asset.getLinkedValues()) {
+				if(!linkRegistry.isAcknowledged(link.getKey())) {
+					newLinks.add(link);
+					newKeys.add(link.getKey());
+				}
+			}
+			
+			if(!newLinks.isEmpty())
+				arrayBuilder.addContent(gson.toJson(new LinkedDataMessage("__Link", newLinks)));
+		}
 		
 		return arrayBuilder.getArrayString();
 	}
@@ -196,42 +341,134 @@ public class OMFPublisherService{
 	 * @param action Action of the message (create, update, delete). If omitted "create" is set.
 	 * @param messageType Type of the message (type, container, data)
 	 */
-	public synchronized int handleOMFMessageRequest(String action, String messageType, String messageJson) {
+	public int handleOMFMessageRequest(String action, String messageType, String messageJson) {
+		return handleOMFMessageRequest(action, messageType, messageJson.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Send a request with a message, which is already encoded in UTF-8, to the appropriate TargetURL.
+	 * @param action Action of the message (create, update, delete). If omitted "create" is set.
+	 * @param messageType Type of the message (type, container, data)
+	 */
+	public int handleOMFMessageRequest(String action, String messageType, byte[] message) {
+		return handleOMFMessageRequest(action, messageType, message, null);
+	}
+	
+	/**
+	 * Send a request with a message, which may already be compressed, to the appropriate TargetURL.
+	 * @param action Action of the message (create, update, delete). If omitted "create" is set.
+	 * @param messageType Type of the message (type, container, data)
+	 * @param compressedMessage Message compressed with the configured codec, null if it has to be compressed now
+	 */
+	public synchronized int handleOMFMessageRequest(String action, String messageType, byte[] message, byte[] compressedMessage) {
 		int status = 404;
+		long start = System.nanoTime();
+		long sentBytesBefore = this.sentBytes.get();
+		long[] requestStart = new long[1];
 	    
 		try {
-	    	HttpsURLConnection response = sendOMFMessage(action, messageType, messageJson);
+	    	HttpsURLConnection response = sendOMFMessage(action, messageType, message, compressedMessage, requestStart);
+	    	
+	    	//The request could not be sent, this is no failure of the message
+	    	if (response == null)
+	    		return status;
 	        
 	        status = response.getResponseCode();
-			logger.info(String.format("Message response: %d - %s", status, response.getResponseMessage()));
+	        recordRoundTrip(messageType, requestStart[0]);
+			logger.debug(String.format("Message response: %d - %s", status, response.getResponseMessage()));
+			
+			//Expired or revoked token: send once again with a new token
+			if (status == HttpURLConnection.HTTP_UNAUTHORIZED && this.authenticationProvider.invalidate()) {
+				response = sendOMFMessage(action, messageType, message, compressedMessage, requestStart);
+				if (response == null)
+					return status;
+				
+				status = response.getResponseCode();
+				recordRoundTrip(messageType, requestStart[0]);
+				logger.debug(String.format("Message response after new authentication: %d - %s", status, response.getResponseMessage()));
+			}
 			
 			if (status > 204){
 				InputStream in =response.getErrorStream();
-				String result = IOUtils.toString(in, StandardCharsets.UTF_8);			
+				String result = in != null ? IOUtils.toString(in, StandardCharsets.UTF_8) : "";
+				int excerptLength = this.omfPublisherOptions.getFlightRecorderExcerptLength();
 				
-				ErrorHandling.handle(logger, String.format("Relay returned error code %d", status)
-						, String.format("response was: %s", result)
-						, String.format("Message was: %s", messageJson));
+				//Only excerpts are logged, the summaries of the last requests are in the flight recorder
+				ErrorHandling.handleSampled(this.logSampler, logger, String.format("Relay returned error code %d", status)
+						, String.format("response was: %s", OMFFlightRecorder.excerpt(result, excerptLength))
+						, String.format("Message was (%d bytes): %s", message.length, OMFFlightRecorder.excerpt(message, excerptLength)));
 			}
 			
 	    } catch (IOException  ex) {
-	    	ErrorHandling.handle(" Error during web request: ", ex, logger);
+	    	ErrorHandling.handleSampled(this.logSampler, " Error during web request: ", ex, logger);
+	    } finally {
+	    	this.flightRecorder.record(messageType, action, status, (System.nanoTime() - start) / 1_000_000, 
+	    			message, this.sentBytes.get() - sentBytesBefore);
 	    }
 		
 		return status;
 	}
 
+	/**
+	 * Records the HTTP round trip of a request, if it was a data message.
+	 * @param requestStart time of System.nanoTime(), when the body of the request was compressed and the connection was opened
+	 */
+	private void recordRoundTrip(String messageType, long requestStart) {
+		if("data".equals(messageType))
+			this.latencyMetrics.recordSince(OMFLatencyMetrics.Stage.HTTP_ROUND_TRIP, requestStart);
+	}
+
 	/**
 	 * Sends a OMF message to the OMF target.
 	 */
 	public HttpsURLConnection sendOMFMessage(String action, String messageType, String messageJson) {
+		return sendOMFMessage(action, messageType, messageJson.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Sends a OMF message, which is already encoded in UTF-8, to the OMF target.
+	 */
+	public HttpsURLConnection sendOMFMessage(String action, String messageType, byte[] message) {
+		return sendOMFMessage(action, messageType, message, null);
+	}
+	
+	/**
+	 * Sends a OMF message to the OMF target. A message, which was already compressed with the configured codec, 
+	 * is sent as it is, otherwise the message is compressed now.
+	 */
+	public HttpsURLConnection sendOMFMessage(String action, String messageType, byte[] message, byte[] precompressedMessage) {
+		return sendOMFMessage(action, messageType, message, precompressedMessage, new long[1]);
+	}
+	
+	/**
+	 * Sends a OMF message to the OMF target and sets the start of the request. The start is returned to the caller, 
+	 * because the connection check and the backfill send concurrently to the send loop.
+	 * @param requestStart set to the time of System.nanoTime(), when the body was compressed and the connection was opened
+	 */
+	private HttpsURLConnection sendOMFMessage(String action, String messageType, byte[] message, byte[] precompressedMessage, 
+			long[] requestStart) {
 		HttpsURLConnection result = null;
 		int timeout = this.omfPublisherOptions.getConnectionTimeout() * 1000;
 		
 		try {
-			byte[] compressedMessage = compressMessage(messageJson);
+			CompressionCodec codec;
+			byte[] compressedMessage;
+			
+			if(precompressedMessage != null && this.compressionCodec.isConcatenable()) {
+				codec = this.compressionCodec;
+				compressedMessage = precompressedMessage;
+			} else {
+				codec = selectCompressionCodec(message.length);
+				long compressionStart = System.nanoTime();
+				compressedMessage = codec.compress(message);
+				
+				if(codec.isCompressing() && "data".equals(messageType))
+					this.latencyMetrics.recordSince(OMFLatencyMetrics.Stage.COMPRESSION, compressionStart);
+			}
+			
+			requestStart[0] = System.nanoTime();
 
-	    	logger.debug(String.format("Size after compression: %d byte", compressedMessage.length));
+	    	logger.debug(String.format("Size after compression (%s): %d byte", codec.getName(), compressedMessage.length));
 	    	
 	    	//define HTTP connection with the request method and calculation of the body-size
 	        URL requestURL = new URL(omfPublisherOptions.getTargetURL());
@@ -245,12 +482,14 @@ public class OMFPublisherService{
 			result.setFixedLengthStreamingMode(compressedMessage.length);
 			
 			//set HTTP-header
-			result.setRequestProperty("producertoken", omfPublisherOptions.getProducerToken());
+			this.authenticationProvider.authenticate(result);
 			result.setRequestProperty("messagetype", messageType);
 			result.setRequestProperty("action", action);
 			result.setRequestProperty("messageformat", "JSON");
 			result.setRequestProperty("omfversion", "1.0");
-			result.setRequestProperty("compression", "gzip");
+			
+			if(codec.isCompressing())
+				result.setRequestProperty("compression", codec.getName());
 			
 			// Send the request, and collect the response
 	        result.connect();
@@ -258,34 +497,49 @@ public class OMFPublisherService{
 	        try(OutputStream os = result.getOutputStream()) {
 	            os.write(compressedMessage);
 	        }
+	        
+	        this.sentBytes.addAndGet(compressedMessage.length);
+	        this.sentRequests.incrementAndGet();
 			
-			logger.debug(String.format("Message Type: <%s> Send message: %s", messageType,messageJson));
+			if(logger.isDebugEnabled())
+				logger.debug(String.format("Message Type: <%s> Send message: %s", messageType, new String(message, StandardCharsets.UTF_8)));
 		}catch (IOException ex) {
-			ErrorHandling.handle("Error during request generation.", ex, logger);
+			ErrorHandling.handleSampled(this.logSampler, "Error during request generation.", ex, logger);
 		}
 		
 		return result;
 	}
 	
 	/**
-	 * Compress the JSON-Message with GZIP
-	*/
-	public byte[] compressMessage(String message) {
-	        
-		if ((message == null) || (message.length() == 0))
-			throw new IllegalArgumentException("Cannot zip null or empty string");
-	    
-		try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-	        
-			try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
-	            gzipOutputStream.write(message.getBytes(StandardCharsets.UTF_8));
-	        }
-			
-	        return byteArrayOutputStream.toByteArray();
-	    } catch(IOException ex) {
-	    	ErrorHandling.handle("Error during GZIP-Compression: ", ex, logger);
-	        throw new RuntimeException("Failed to zip content", ex);
-	    }
+	 * Returns the total amount of bytes (after compression), which were sent to the OMF target.
+	 */
+	public long getSentBytes() {
+		return this.sentBytes.get();
+	}
+	
+	/**
+	 * Returns the total amount of requests, which were sent to the OMF target.
+	 */
+	public long getSentRequests() {
+		return this.sentRequests.get();
+	}
+	
+	/**
+	 * Returns the configured codec, or no compression if the message is smaller than the min compression size.
+	 */
+	private CompressionCodec selectCompressionCodec(int messageSize) {
+		if(messageSize < this.omfPublisherOptions.getCompressionMinSize())
+			return this.uncompressedCodec;
+		
+		return this.compressionCodec;
+	}
+	
+	/**
+	 * Releases the pooled resources of the compression codec and stops the token refresh.
+	 */
+	public void close() {
+		this.compressionCodec.close();
+		this.authenticationProvider.close();
 	}
  
 	/**
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.megla.iot.OMFPublisher.models.OMFQueueLane;
+
+/**
+ * OMFQueueStore.java
+ *
+ * The OMFQueueStore persists the in-flight messages, which could not be sent before the component was deactivated,
+ * so they are sent after the next activation. There is one file per target URL, producer token, device name and shard.
+ * The file contains the binary records of the messages with their lane:
+ * <pre>
+ * int MAGIC, int VERSION, { byte lane, int length, byte[length] record }
+ * </pre>
+ */
+public class OMFQueueStore {
+	/**
+	 * <b>logger</b> 				logs all messages for Debugging (Info, Warning, Error)
+	 * <b>queueFile</b>				file in which the messages are persisted
+	 * <b>FILE_SUFFIX</b>			suffix of all queue files
+	 * <b>MAGIC</b>					first bytes of every queue file ("OMFQ")
+	 * <b>VERSION</b>				version of the file format
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OMFQueueStore.class);
+
+	private final File queueFile;
+
+	private static final String FILE_SUFFIX = ".queue";
+	private static final int MAGIC = 0x4F4D4651;
+	private static final int VERSION = 1;
+
+	/**
+	 * Constructor which sets the queue file of the target URL, producer token, device name and shard in the persistence directory.
+	 */
+	public OMFQueueStore(OMFPublisherOptions omfPublisherOptions) {
+		String scope = omfPublisherOptions.getTargetURL() + "\n" + omfPublisherOptions.getProducerToken()
+				+ "\n" + omfPublisherOptions.getDevicename() + omfPublisherOptions.getShardScope();
+
+		this.queueFile = new File(omfPublisherOptions.getPersistenceDirectory(), OMFDefinitionRegistry.hash(scope).substring(0, 16) + FILE_SUFFIX);
+	}
+
+	/**
+	 * Writes the records of every lane to a temporary file and replaces the queue file with it.
+	 * If there are no records, the queue file is deleted.
+	 */
+	public void save(Map<OMFQueueLane, List<byte[]>> records) {
+		int count = 0;
+		for(List<byte[]> laneRecords : records.values())
+			count += laneRecords.size();
+
+		try {
+			if(count == 0) {
+				Files.deleteIfExists(this.queueFile.toPath());
+				return;
+			}
+
+			File directory = this.queueFile.getParentFile();
+			if(!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create directory " + directory);
+
+			File tempFile = new File(directory, this.queueFile.getName() + ".tmp");
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+
+				for(Map.Entry<OMFQueueLane, List<byte[]>> lane : records.entrySet()) {
+					for(byte[] record : lane.getValue()) {
+						out.writeByte(lane.getKey().ordinal());
+						out.writeInt(record.length);
+						out.write(record);
+					}
+				}
+			}
+
+			Files.move(tempFile.toPath(), this.queueFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			logger.info(String.format("Persisted %d in-flight messages to %s", count, this.queueFile));
+		} catch(IOException ex) {
+			ErrorHandling.handle(String.format("Error while persisting %d in-flight messages. They are discarded.", count), ex, logger);
+		}
+	}
+
+	/**
+	 * Reads the records of every lane and deletes the queue file, so the messages are only restored once.
+	 * A damaged file is read up to the damaged record.
+	 */
+	public Map<OMFQueueLane, List<byte[]>> load() {
+		Map<OMFQueueLane, List<byte[]>> result = new EnumMap<>(OMFQueueLane.class);
+		if(!this.queueFile.isFile())
+			return result;
+
+		int count = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.queueFile.toPath())))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unknown file format of " + this.queueFile);
+
+			while(true) {
+				int lane;
+				try {
+					lane = in.readUnsignedByte();
+				} catch(EOFException ex) {
+					break;
+				}
+
+				byte[] record = new byte[in.readInt()];
+				in.readFully(record);
+
+				result.computeIfAbsent(OMFQueueLane.values()[lane], key -> new ArrayList<>()).add(record);
+				count++;
+			}
+		} catch(IOException | RuntimeException ex) {
+			ErrorHandling.handle(String.format("Error while loading the persisted in-flight messages. %d messages were restored.", count), ex, logger);
+		}
+
+		try {
+			Files.deleteIfExists(this.queueFile.toPath());
+		} catch(IOException ex) {
+			ErrorHandling.handle("Error while deleting the persisted in-flight messages.", ex, logger);
+		}
+
+		logger.info(String.format("Restored %d in-flight messages from %s", count, this.queueFile));
+		return result;
+	}
+}
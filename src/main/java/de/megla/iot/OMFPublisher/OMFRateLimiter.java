@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import de.megla.iot.OMFPublisher.models.OMFQueueLane;
+
+/**
+ * OMFRateLimiter.java
+ *
+ * The OMFRateLimiter limits the bytes and requests per second, which are sent to an OMF target, with two token buckets.
+ * The size of a request is only known after it was compressed, so the buckets are charged after sending and may run into debt,
+ * which is paid back before the next request is allowed. A share of the buckets can be reserved for live and high priority data:
+ * backlog data is only sent while the buckets are filled above the reserved share.
+ */
+public class OMFRateLimiter {
+	/**
+	 * <b>bytesPerSecond</b>		refill rate of the byte bucket, 0 if the bytes are not limited
+	 * <b>requestsPerSecond</b>		refill rate of the request bucket, 0 if the requests are not limited
+	 * <b>reservedShare</b>			share of the buckets (0 - 1), which is only used by live and high priority data
+	 * <b>byteTokens</b>			current tokens of the byte bucket
+	 * <b>requestTokens</b>			current tokens of the request bucket
+	 * <b>lastRefill</b>			time in nanoseconds of the last refill
+	 * <b>BURST_SECONDS</b>			capacity of the buckets in seconds of their rate
+	 */
+	private double bytesPerSecond;
+	private double requestsPerSecond;
+	private double reservedShare;
+	private double byteTokens;
+	private double requestTokens;
+	private long lastRefill = System.nanoTime();
+	
+	private static final double BURST_SECONDS = 1.0;
+	
+	/**
+	 * Constructor which sets the limits. The buckets start full.
+	 */
+	public OMFRateLimiter(OMFPublisherOptions omfPublisherOptions) {
+		this.bytesPerSecond = Math.max(omfPublisherOptions.getRateLimitBytesPerSecond(), 0);
+		this.requestsPerSecond = Math.max(omfPublisherOptions.getRateLimitRequestsPerSecond(), 0);
+		this.reservedShare = Math.min(Math.max(omfPublisherOptions.getRateLimitLiveReservedPercent(), 0), 100) / 100.0;
+		this.byteTokens = this.bytesPerSecond * BURST_SECONDS;
+		this.requestTokens = this.requestsPerSecond * BURST_SECONDS;
+	}
+	
+	/**
+	 * Changes the limits. The current tokens are kept, but not above the capacity of the new limits.
+	 */
+	public synchronized void setOptions(OMFPublisherOptions omfPublisherOptions) {
+		refill();
+		
+		//A bucket, which was not limited before, starts full
+		double previousBytesPerSecond = this.bytesPerSecond;
+		double previousRequestsPerSecond = this.requestsPerSecond;
+		
+		this.bytesPerSecond = Math.max(omfPublisherOptions.getRateLimitBytesPerSecond(), 0);
+		this.requestsPerSecond = Math.max(omfPublisherOptions.getRateLimitRequestsPerSecond(), 0);
+		this.reservedShare = Math.min(Math.max(omfPublisherOptions.getRateLimitLiveReservedPercent(), 0), 100) / 100.0;
+		this.byteTokens = previousBytesPerSecond > 0 ? Math.min(this.byteTokens, this.bytesPerSecond * BURST_SECONDS) : this.bytesPerSecond * BURST_SECONDS;
+		this.requestTokens = previousRequestsPerSecond > 0 ? Math.min(this.requestTokens, this.requestsPerSecond * BURST_SECONDS) : this.requestsPerSecond * BURST_SECONDS;
+	}
+	
+	/**
+	 * True if the bytes or requests are limited.
+	 */
+	public boolean isLimited() {
+		return this.bytesPerSecond > 0 || this.requestsPerSecond > 0;
+	}
+	
+	/**
+	 * Returns the lanes, which may send a request now. An empty set means that sending has to wait.
+	 */
+	public synchronized Set<OMFQueueLane> getAllowedLanes() {
+		if(!isLimited())
+			return EnumSet.allOf(OMFQueueLane.class);
+		
+		refill();
+		
+		Set<OMFQueueLane> result = EnumSet.noneOf(OMFQueueLane.class);
+		if(hasTokensAbove(0)) {
+			result.add(OMFQueueLane.HIGH_PRIORITY);
+			result.add(OMFQueueLane.LIVE);
+		}
+		
+		if(hasTokensAbove(this.reservedShare))
+			result.add(OMFQueueLane.BACKLOG);
+		
+		return result;
+	}
+	
+	/**
+	 * Charges the buckets with the bytes and requests, which were sent.
+	 */
+	public synchronized void consume(long bytes, long requests) {
+		if(!isLimited())
+			return;
+		
+		refill();
+		
+		if(this.bytesPerSecond > 0)
+			this.byteTokens -= bytes;
+		
+		if(this.requestsPerSecond > 0)
+			this.requestTokens -= requests;
+	}
+	
+	/**
+	 * True if every limited bucket is filled above a share of its capacity.
+	 */
+	private boolean hasTokensAbove(double share) {
+		boolean bytesAvailable = this.bytesPerSecond <= 0 || this.byteTokens > share * this.bytesPerSecond * BURST_SECONDS;
+		boolean requestsAvailable = this.requestsPerSecond <= 0 || this.requestTokens > share * this.requestsPerSecond * BURST_SECONDS;
+		
+		return bytesAvailable && requestsAvailable;
+	}
+	
+	/**
+	 * Adds the tokens for the time since the last refill up to the capacity of the buckets.
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+		double seconds = (now - this.lastRefill) / 1_000_000_000.0;
+		this.lastRefill = now;
+		
+		this.byteTokens = Math.min(this.byteTokens + seconds * this.bytesPerSecond, this.bytesPerSecond * BURST_SECONDS);
+		this.requestTokens = Math.min(this.requestTokens + seconds * this.requestsPerSecond, this.requestsPerSecond * BURST_SECONDS);
+	}
+}
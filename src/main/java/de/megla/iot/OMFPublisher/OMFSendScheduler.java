@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OMFSendScheduler.java
+ *
+ * The OMFSendScheduler runs the send loops of all targets of all OMFPublisher instances. One timer thread
+ * triggers the loops, the loops themselves run in a shared worker pool, so the amount of threads does not grow
+ * with the amount of instances. On JDK 21 and newer, every loop iteration runs in a virtual thread. Otherwise
+ * the iterations run in a work-stealing pool in FIFO order, which adds threads only while iterations block on HTTP I/O.
+ * The next iteration of a loop is scheduled after the previous one finished, so one slow target cannot occupy
+ * more than one worker and the loops of all instances get their turn.
+ */
+public final class OMFSendScheduler {
+	/**
+	 * <b>logger</b> 				logs all messages for Debugging (Info, Warning, Error)
+	 * <b>instance</b>				scheduler which is shared by all users, null if nobody uses it
+	 * <b>users</b>					amount of users, which acquired the shared scheduler
+	 * <b>timer</b>					thread which triggers the iterations of all loops
+	 * <b>workers</b>				pool which runs the iterations of the loops
+	 * <b>virtualThreads</b>		true if the iterations run in virtual threads
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OMFSendScheduler.class);
+
+	private static OMFSendScheduler instance;
+	private static int users = 0;
+
+	private final ScheduledThreadPoolExecutor timer;
+	private final ExecutorService workers;
+	private final boolean virtualThreads;
+
+	/**
+	 * A loop, which runs a task with a fixed delay between the end of an iteration and the start of the next one.
+	 */
+	public final class Loop {
+		private final Runnable task;
+		private final long delay;
+		private volatile boolean cancelled = false;
+		private boolean running = false;
+
+		private Loop(Runnable task, long delay) {
+			this.task = task;
+			this.delay = delay;
+		}
+
+		/**
+		 * Stops the loop. An iteration which is already running is completed.
+		 */
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		/**
+		 * Stops the loop and waits until an iteration, which is already running, is completed or the timeout is over.
+		 * @return True if no iteration is running anymore.
+		 */
+		public synchronized boolean cancelAndAwait(long timeout, TimeUnit unit) throws InterruptedException {
+			this.cancelled = true;
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+			while(this.running) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0)
+					return false;
+
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+
+			return true;
+		}
+
+		/**
+		 * True if the loop was cancelled.
+		 */
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		/**
+		 * Hands the next iteration over to the workers.
+		 */
+		private void trigger() {
+			if(this.cancelled)
+				return;
+
+			try {
+				workers.execute(this::iterate);
+			} catch(RejectedExecutionException ex) {
+				this.cancelled = true;
+			}
+		}
+
+		/**
+		 * Runs one iteration and schedules the next one.
+		 */
+		private void iterate() {
+			synchronized(this) {
+				if(this.cancelled)
+					return;
+
+				this.running = true;
+			}
+
+			try {
+				runBlocking(this.task);
+			} catch(RuntimeException ex) {
+				ErrorHandling.handle("Error in a send loop.", ex, logger);
+			} finally {
+				synchronized(this) {
+					this.running = false;
+					notifyAll();
+				}
+
+				schedule(this, this.delay);
+			}
+		}
+	}
+
+	/**
+	 * Constructor which starts the timer thread and the workers.
+	 */
+	private OMFSendScheduler() {
+		this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "OMFPublisher-Scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer.setRemoveOnCancelPolicy(true);
+
+		ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+		this.virtualThreads = virtualThreadExecutor != null;
+		this.workers = this.virtualThreads ? virtualThreadExecutor
+				: new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+		logger.info(String.format("Started the shared send scheduler with %s.", this.virtualThreads ? "virtual threads" : "a work-stealing pool"));
+	}
+
+	/**
+	 * Returns the shared scheduler and registers the caller as a user. Every call has to be followed by a call of release.
+	 */
+	public static synchronized OMFSendScheduler acquire() {
+		if(instance == null)
+			instance = new OMFSendScheduler();
+
+		users++;
+		return instance;
+	}
+
+	/**
+	 * Unregisters a user. The threads are stopped, when the last user released the scheduler.
+	 */
+	public static synchronized void release() {
+		if(users == 0)
+			return;
+
+		users--;
+		if(users == 0) {
+			instance.timer.shutdownNow();
+			instance.workers.shutdown();
+			instance = null;
+			logger.info("Stopped the shared send scheduler.");
+		}
+	}
+
+	/**
+	 * Starts a loop, which runs the task after the initial delay and then with the delay after the end of each iteration.
+	 */
+	public Loop scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+		Loop loop = new Loop(task, unit.toMillis(delay));
+		schedule(loop, unit.toMillis(initialDelay));
+		return loop;
+	}
+
+	/**
+	 * True if the iterations run in virtual threads.
+	 */
+	public boolean isVirtualThreads() {
+		return this.virtualThreads;
+	}
+
+	/**
+	 * Schedules the next iteration of the loop.
+	 */
+	private void schedule(Loop loop, long delay) {
+		if(loop.isCancelled())
+			return;
+
+		try {
+			this.timer.schedule(loop::trigger, delay, TimeUnit.MILLISECONDS);
+		} catch(RejectedExecutionException ex) {
+			loop.cancel();
+		}
+	}
+
+	/**
+	 * Runs a task, which may block. In a work-stealing pool, the pool may add a thread while the task blocks.
+	 */
+	private void runBlocking(Runnable task) {
+		if(this.virtualThreads || !(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+			task.run();
+			return;
+		}
+
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				private boolean done = false;
+
+				@Override
+				public boolean block() {
+					task.run();
+					this.done = true;
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return this.done;
+				}
+			});
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates an executor, which runs every task in a new virtual thread.
+	 * Returns null if the JDK does not support virtual threads (before JDK 21).
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+}
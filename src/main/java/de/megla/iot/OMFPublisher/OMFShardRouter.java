@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.megla.iot.OMFPublisher.models.OMFAsset;
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+import de.megla.iot.OMFPublisher.models.OMFChannel;
+import de.megla.iot.OMFPublisher.models.OMFTypeMode;
+
+/**
+ * OMFShardRouter.java
+ *
+ * The OMFShardRouter partitions the channels of an asset list into the shards of a target. Every shard has its own
+ * connection, queue and send loop, so the shards send in parallel. A channel is assigned by the jump consistent hash
+ * of its container ID, so all values of a container are sent by the same shard in their order. If the amount of shards
+ * changes, only the containers of the added or removed shards move. In the type mode ASSET an asset has one container,
+ * so the asset name is hashed and all channels of an asset stay together.
+ */
+public class OMFShardRouter {
+	/**
+	 * Splits the asset list into one list for every shard. Assets whose channels all belong to the same shard are shared
+	 * with the asset list. A list with only one shard is returned unchanged, a shard without channels gets an empty list.
+	 */
+	public static List<OMFAssetList> split(OMFAssetList assetList, int shards, OMFTypeMode typeMode) {
+		List<OMFAssetList> result = new ArrayList<>();
+
+		if(shards <= 1) {
+			result.add(assetList);
+			return result;
+		}
+
+		//Every container is hashed only once
+		Map<OMFChannel, Integer> shardOfChannel = new IdentityHashMap<>();
+		for(OMFAsset asset : assetList)
+			for(OMFChannel channel : asset.getChannels().values())
+				shardOfChannel.put(channel, shardOf(asset, channel, typeMode, shards));
+
+		for(int shard = 0; shard < shards; shard++) {
+			final int currentShard = shard;
+			result.add(assetList.selectChannels((asset, channel) -> shardOfChannel.get(channel) == currentShard));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the shard of the container of a channel.
+	 */
+	public static int shardOf(OMFAsset asset, OMFChannel channel, OMFTypeMode typeMode, int shards) {
+		String key = typeMode == OMFTypeMode.ASSET ? asset.getAssetname() : channel.getContainerID();
+		return jumpHash(StringExtensions.hash64(key), shards);
+	}
+
+	/**
+	 * Returns the bucket of a key by the jump consistent hash of Lamping and Veach. When the amount of buckets grows
+	 * from n to n+1, only 1/(n+1) of the keys move, all of them to the new bucket.
+	 */
+	public static int jumpHash(long key, int buckets) {
+		long bucket = -1;
+		long next = 0;
+
+		while(next < buckets) {
+			bucket = next;
+			key = key * 2862933555777941757L + 1;
+			next = (long)((bucket + 1) * ((double)(1L << 31) / (double)((key >>> 33) + 1)));
+		}
+
+		return (int)Math.max(bucket, 0);
+	}
+}
@@ -0,0 +1,964 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.eclipse.kura.ssl.SslManagerService;
+import org.eclipse.kura.type.TypedValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.megla.iot.OMFPublisher.models.OMFAsset;
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+import de.megla.iot.OMFPublisher.models.OMFAssetListQueue;
+import de.megla.iot.OMFPublisher.models.OMFAssetSchema;
+import de.megla.iot.OMFPublisher.models.OMFChannel;
+import de.megla.iot.OMFPublisher.models.OMFQueueLane;
+import de.megla.iot.OMFPublisher.models.OMFTypeMode;
+
+/**
+ * OMFTargetPublisher.java
+ *
+ * The OMFTargetPublisher sends the asset lists of the OMFPublisher to one OMF target.
+ * Every target has its own queue, definition registry and send loop, so a slow target never holds back a fast one.
+ * The asset lists are shared between all targets and serialized only once.
+ */
+public class OMFTargetPublisher {
+	/**
+	 * <b>logger</b> 					logs all messages for Debugging (Info, Warning, Error)
+	 * <b>omfPublisherOptions</b> 		contains option-data of this target, for example the producertoken and targeturl
+	 * <b>omfPublisherService</b> 		creates the OMF messages and makes the requests to the OMF target
+	 * <b>knownAssetList</b>			Key-Value store of the last known Assets and their Channels
+	 * <b>linkRegistry</b>				AF elements and links which were already acknowledged by the OMF target
+	 * <b>definitionRegistry</b>		Types and containers which were already acknowledged by the OMF target
+	 * <b>knownSchemaFingerprints</b>	Schema fingerprints of every asset which were already checked against the knownAssetList
+	 * <b>knownValuesTypeIDs</b>		IDs of the dynamic types and containers of the assets, which were already sent in the type mode ASSET
+	 * <b>assetSchemas</b>				latest schema version of every asset by the ID of its static type, which is used in the type mode ASSET
+	 * <b>inFlightMessages</b>			List of all unpublished Messages as an in-memory datacaching
+	 * <b>rateLimiter</b>				limits the bytes and requests per second, which are sent to the target
+	 * <b>deadLetters</b>				poison messages, which were rejected by the OMF target and could not be split any further
+	 * <b>headAssetList</b>				in-flight message of the last attempt
+	 * <b>headFailures</b>				amount of retryable failures of the next in-flight message
+	 * <b>definitionsPending</b>		true if the types and containers of the next in-flight message failed temporarily
+	 * <b>scheduler</b>				scheduler shared by all targets of all instances, which runs the send loop
+	 * <b>sendLoop</b> 				loop, which sends all cached Messages to the OMF target
+	 * <b>closed</b>					true if the publisher was closed and released the scheduler
+	 * <b>queueStore</b>				persists the in-flight messages, which were not sent on deactivation, in the file of the current options
+	 * <b>sslManagerService</b>		Service for settings the SSL connections settings of a new service
+	 * <b>flightRecorder</b>			summaries of the last requests to the target, which are kept when the service is replaced
+	 * <b>logSampler</b>				limits the logged errors of the target
+	 * <b>latencyMetrics</b>			latency histograms of the data messages from the receipt until the acknowledgement
+	 * <b>backfill</b>				uploads the local history files of the backfill directory, null if no directory is configured
+	 * <b>MAX_FINGERPRINTS_PER_ASSET</b>	max amount of remembered schema fingerprints of one asset
+	 * <b>SERVICE_OPTIONS</b>			options which are used when the service is created, a change creates a new service
+	 * <b>DEFINITION_OPTIONS</b>		options which change the types, containers and links, a change sends all definitions again
+	 * <b>BACKFILL_OPTIONS</b>			options of the backfill, a change restarts the backfill from its checkpoints
+	 * <b>QUEUE_STORE_OPTIONS</b>		options which locate the file of the persisted queue, a change creates a new queue store
+	 * <b>MAX_SHARDS</b>				max amount of shards of a target
+	 */
+	private static final Logger logger =  LoggerFactory.getLogger(OMFTargetPublisher.class);
+
+	private volatile OMFPublisherOptions omfPublisherOptions;
+	private volatile OMFPublisherService omfPublisherService;
+
+	private OMFAssetList knownAssetList;
+	private final OMFLinkRegistry linkRegistry = new OMFLinkRegistry();
+	private OMFDefinitionRegistry definitionRegistry;
+	private final Map<String, Set<Long>> knownSchemaFingerprints = new HashMap<>();
+	private final Set<String> knownValuesTypeIDs = new HashSet<>();
+	private final Map<String, OMFAssetSchema> assetSchemas = new ConcurrentHashMap<>();
+
+	private final OMFAssetListQueue inFlightMessages;
+	private final OMFDeadLetterStore deadLetters;
+	private final OMFRateLimiter rateLimiter;
+	private OMFAssetList headAssetList;
+	private int headFailures = 0;
+	private boolean definitionsPending = false;
+	private final OMFSendScheduler scheduler;
+	private volatile OMFSendScheduler.Loop sendLoop;
+	private volatile boolean closed = false;
+	private OMFQueueStore queueStore;
+	private final SslManagerService sslManagerService;
+	private final OMFFlightRecorder flightRecorder;
+	private final OMFLogSampler logSampler;
+	private final OMFLatencyMetrics latencyMetrics = new OMFLatencyMetrics();
+	private OMFBackfill backfill;
+
+	private static final int MAX_FINGERPRINTS_PER_ASSET = 16;
+	private static final int MAX_SHARDS = 64;
+	
+	private static final List<Function<OMFPublisherOptions, Object>> SERVICE_OPTIONS = Arrays.asList(
+			OMFPublisherOptions::getProducerToken, OMFPublisherOptions::getSSLVerify, OMFPublisherOptions::getConnectionTimeout,
+			OMFPublisherOptions::getCompression, OMFPublisherOptions::getParallelSerializationThreshold, 
+			OMFPublisherOptions::getAuthenticationType, OMFPublisherOptions::getOAuth2TokenURL, 
+			OMFPublisherOptions::getOAuth2ClientId, OMFPublisherOptions::getOAuth2ClientSecret);
+	
+	private static final List<Function<OMFPublisherOptions, Object>> DEFINITION_OPTIONS = Arrays.asList(
+			OMFPublisherOptions::getDevicename, OMFPublisherOptions::getTypeMode, 
+			OMFPublisherOptions::getPersistDefinitions, OMFPublisherOptions::getPersistenceDirectory);
+	
+	private static final List<Function<OMFPublisherOptions, Object>> QUEUE_STORE_OPTIONS = Arrays.asList(
+			OMFPublisherOptions::getPersistenceDirectory, OMFPublisherOptions::getTargetURL, OMFPublisherOptions::getProducerToken, 
+			OMFPublisherOptions::getDevicename, OMFPublisherOptions::getShardScope);
+	
+	private static final List<Function<OMFPublisherOptions, Object>> BACKFILL_OPTIONS = Arrays.asList(
+			OMFPublisherOptions::getBackfillDirectory, OMFPublisherOptions::getBackfillBatchSize, 
+			OMFPublisherOptions::getBackfillPipelineDepth);
+
+	/**
+	 * Constructor which creates the service for the target. The in-flight messages and dead letters of a previous
+	 * publisher of the same target are taken over.
+	 */
+	public OMFTargetPublisher(OMFPublisherOptions omfPublisherOptions, SslManagerService sslManagerService, 
+			OMFAssetListQueue inFlightMessages, OMFDeadLetterStore deadLetters) {
+		this.omfPublisherOptions = omfPublisherOptions;
+		this.sslManagerService = sslManagerService;
+		this.flightRecorder = new OMFFlightRecorder(omfPublisherOptions.getFlightRecorderSize(), omfPublisherOptions.getFlightRecorderExcerptLength());
+		this.logSampler = new OMFLogSampler(omfPublisherOptions.getErrorLogsPerMinute());
+		this.omfPublisherService = new OMFPublisherService(omfPublisherOptions, sslManagerService, this.flightRecorder, this.logSampler, this.latencyMetrics);
+		this.inFlightMessages = inFlightMessages;
+		this.inFlightMessages.setOptions(omfPublisherOptions);
+		this.inFlightMessages.setAssetSchemas(this.assetSchemas);
+		this.rateLimiter = new OMFRateLimiter(omfPublisherOptions);
+		this.deadLetters = deadLetters;
+		this.deadLetters.setCapacity(omfPublisherOptions.getDeadLetterCapacity());
+		this.scheduler = OMFSendScheduler.acquire();
+		this.queueStore = new OMFQueueStore(omfPublisherOptions);
+		resetDefinitions();
+	}
+
+	/**
+	 * Applies changed options of the same target. Only the state which depends on the changed options is reset:
+	 * The service and its connection settings are only created again, if an option of the service changed.
+	 * The known definitions are only sent again, if an option of the definitions changed.
+	 * The send loop is only restarted, if the interval changed. The in-flight messages are always kept.
+	 */
+	public synchronized void reconfigure(OMFPublisherOptions newOptions) {
+		OMFPublisherOptions previousOptions = this.omfPublisherOptions;
+		this.omfPublisherOptions = newOptions;
+
+		if(isChanged(previousOptions, newOptions, SERVICE_OPTIONS)) {
+			logger.info(String.format("Connection settings of %s changed. Creating a new service.", getTargetURL()));
+			OMFPublisherService previousService = this.omfPublisherService;
+			this.omfPublisherService = new OMFPublisherService(newOptions, this.sslManagerService, this.flightRecorder, this.logSampler, this.latencyMetrics);
+			previousService.close();
+		}
+		else
+			this.omfPublisherService.setOptions(newOptions);
+
+		if(isChanged(previousOptions, newOptions, DEFINITION_OPTIONS)) {
+			logger.info(String.format("Definition settings of %s changed. All definitions are sent again.", getTargetURL()));
+			resetDefinitions();
+		}
+
+		//The queue is persisted to the file of the new directory and scope on the next deactivation
+		if(isChanged(previousOptions, newOptions, QUEUE_STORE_OPTIONS))
+			this.queueStore = new OMFQueueStore(newOptions);
+
+		this.inFlightMessages.setOptions(newOptions);
+		this.deadLetters.setCapacity(newOptions.getDeadLetterCapacity());
+		this.rateLimiter.setOptions(newOptions);
+		this.flightRecorder.setCapacity(newOptions.getFlightRecorderSize(), newOptions.getFlightRecorderExcerptLength());
+		this.logSampler.setMaxPerMinute(newOptions.getErrorLogsPerMinute());
+
+		if(isChanged(previousOptions, newOptions, SERVICE_OPTIONS) || isChanged(previousOptions, newOptions, DEFINITION_OPTIONS)
+				|| isChanged(previousOptions, newOptions, BACKFILL_OPTIONS))
+			stopBackfill(false);
+
+		if(previousOptions.getinFlightInterval() != newOptions.getinFlightInterval() || !isRunning())
+			start();
+		else
+			startBackfill();
+	}
+
+	/**
+	 * Forgets all known assets, links, definitions and schema versions, so they are sent again with the next in-flight message.
+	 */
+	private void resetDefinitions() {
+		this.knownAssetList = new OMFAssetList(this.omfPublisherOptions);
+		this.knownSchemaFingerprints.clear();
+		this.knownValuesTypeIDs.clear();
+		this.assetSchemas.clear();
+		this.linkRegistry.clear();
+		this.definitionsPending = false;
+
+		//Types and containers are only sent again, if they are not known by the target
+		if(this.omfPublisherOptions.getPersistDefinitions())
+			this.definitionRegistry = new OMFDefinitionRegistry(this.omfPublisherOptions);
+		else
+			this.definitionRegistry = new OMFDefinitionRegistry();
+	}
+
+	/**
+	 * True if one of the options has a different value in the new options.
+	 */
+	private static boolean isChanged(OMFPublisherOptions previousOptions, OMFPublisherOptions newOptions, 
+			List<Function<OMFPublisherOptions, Object>> options) {
+		for(Function<OMFPublisherOptions, Object> option : options)
+			if(!Objects.equals(option.apply(previousOptions), option.apply(newOptions)))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * True if the send loop is running.
+	 */
+	public boolean isRunning() {
+		return this.sendLoop != null && !this.sendLoop.isCancelled();
+	}
+
+	/**
+	 * Returns a key which identifies the target by its URL and producer token.
+	 */
+	public String getTargetKey() {
+		return getTargetKey(this.omfPublisherOptions);
+	}
+
+	/**
+	 * Returns a key which identifies the target of the options by its URL and producer token, and the shard of the target.
+	 */
+	public static String getTargetKey(OMFPublisherOptions omfPublisherOptions) {
+		String result = omfPublisherOptions.getTargetURL() + "|" + omfPublisherOptions.getProducerToken();
+		return omfPublisherOptions.getShardIndex() > 0 ? result + "#" + omfPublisherOptions.getShardIndex() : result;
+	}
+
+	/**
+	 * Returns the key of the first shard of the target of this publisher.
+	 */
+	public String getFirstShardKey() {
+		return getTargetKey(this.omfPublisherOptions.forShard(0));
+	}
+
+	/**
+	 * Returns the shard of the target, which is sent by this publisher.
+	 */
+	public int getShardIndex() {
+		return this.omfPublisherOptions.getShardIndex();
+	}
+
+	/**
+	 * Returns the URL of the target.
+	 */
+	public String getTargetURL() {
+		return this.omfPublisherOptions.getTargetURL();
+	}
+
+	/**
+	 * Returns the queue of in-flight messages.
+	 */
+	public OMFAssetListQueue getInFlightMessages() {
+		return this.inFlightMessages;
+	}
+
+	/**
+	 * Returns the store of poison messages.
+	 */
+	public OMFDeadLetterStore getDeadLetters() {
+		return this.deadLetters;
+	}
+
+	/**
+	 * Executes an action on the dead letters (log, replay, clear).
+	 */
+	public void handleDeadLetterAction(String action) {
+		if(OMFDeadLetterStore.ACTION_LOG.equalsIgnoreCase(action)) {
+			logger.info(String.format("%d dead letters of %s:", this.deadLetters.size(), getTargetURL()));
+			for(String description : this.deadLetters.describe())
+				logger.info(description);
+		}
+
+		else if(OMFDeadLetterStore.ACTION_REPLAY.equalsIgnoreCase(action)) {
+			List<OMFAssetList> replayed = this.deadLetters.removeAll();
+			this.inFlightMessages.addAll(replayed, OMFQueueLane.BACKLOG);
+			logger.info(String.format("Replaying %d dead letters of %s.", replayed.size(), getTargetURL()));
+		}
+
+		else if(OMFDeadLetterStore.ACTION_CLEAR.equalsIgnoreCase(action)) {
+			logger.info(String.format("Discarding %d dead letters of %s.", this.deadLetters.size(), getTargetURL()));
+			this.deadLetters.clear();
+		}
+	}
+
+	/**
+	 * Executes an action on the flight recorder: dump logs the summaries of the last requests and the latency percentiles,
+	 * clear discards them.
+	 */
+	public void handleFlightRecorderAction(String action) {
+		if(OMFFlightRecorder.ACTION_DUMP.equalsIgnoreCase(action)) {
+			logger.info(String.format("Last %d requests to %s:", this.flightRecorder.size(), getTargetURL()));
+			for(String summary : this.flightRecorder.dump())
+				logger.info(summary);
+			
+			logger.info(String.format("Latencies of the data messages of %s:", getTargetURL()));
+			for(String latency : this.latencyMetrics.describe())
+				logger.info(latency);
+		}
+
+		else if(OMFFlightRecorder.ACTION_CLEAR.equalsIgnoreCase(action)) {
+			logger.info(String.format("Discarding %d request summaries of %s.", this.flightRecorder.size(), getTargetURL()));
+			this.flightRecorder.clear();
+			this.latencyMetrics.reset();
+		}
+	}
+
+	/**
+	 * Registers the assets of an asset list in the schemas of this target, if the type mode is ASSET.
+	 * It has to be called before the asset list is added to the in-flight messages of any target.
+	 */
+	public void registerValuesSchemas(OMFAssetList assetList) {
+		if(this.omfPublisherOptions.getTypeMode() != OMFTypeMode.ASSET)
+			return;
+
+		for(OMFAsset asset : assetList)
+			asset.registerValuesSchema(this.assetSchemas);
+	}
+
+	/**
+	 * Adds an asset list to a lane of the in-flight messages of this target.
+	 */
+	public void enqueue(OMFAssetList assetList, OMFQueueLane lane) {
+		this.inFlightMessages.add(assetList, lane);
+
+		logger.debug(String.format("Added asset and data to lane %s of the in flight message queue of %s (%d remaining)",
+				lane, getTargetURL(), this.inFlightMessages.size()));
+	}
+
+	/**
+	 * Adds the values of channels, of which only the latest value is sent, to a lane of the in-flight messages of this target.
+	 * A value replaces the waiting value of the same channel.
+	 */
+	public void conflate(OMFAssetList assetList, OMFQueueLane lane) {
+		this.inFlightMessages.conflate(assetList, lane);
+
+		logger.debug(String.format("Conflated latest values in lane %s of the in flight message queue of %s (%d remaining)",
+				lane, getTargetURL(), this.inFlightMessages.size()));
+	}
+
+	/**
+	 * Starts a loop in the shared scheduler that checks if there are saved in-flight messages. When the publisher is connected 
+	 * with the destination system again, send every in-flight message.
+	 */
+	public void start() {
+		final int inFlightInterval = this.omfPublisherOptions.getinFlightInterval();
+
+		logger.info(String.format("Start Task to sending in-flight messages to %s...", getTargetURL()));
+
+		shutdown();
+		if(this.closed)
+			return;
+
+		//Runnable Task to send in-flight messages if possible
+		try {
+			Runnable runnableTaskSendMessage = () -> {
+				if(this.inFlightMessages.isEmpty())
+					return;
+
+				//wait until the rate limit allows the next request
+				Set<OMFQueueLane> allowedLanes = this.rateLimiter.getAllowedLanes();
+				if(allowedLanes.isEmpty())
+					return;
+
+				long sentBytes = this.omfPublisherService.getSentBytes();
+				long sentRequests = this.omfPublisherService.getSentRequests();
+
+				if(OMFValidator.isPositiveOmfHttpResponse(isConnectionToOMFTargetEstablished())) {
+					//send every in-flight message one by one every x seconds
+					sendInFlightMessage(allowedLanes);
+				}
+
+				this.rateLimiter.consume(this.omfPublisherService.getSentBytes() - sentBytes,
+						this.omfPublisherService.getSentRequests() - sentRequests);
+			};
+
+			this.sendLoop = this.scheduler.scheduleWithFixedDelay(runnableTaskSendMessage, 100, inFlightInterval, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			ErrorHandling.handle("In-flight message delivery failed.", e, logger);
+		}
+
+		startBackfill();
+	}
+
+	/**
+	 * Starts the backfill of the history files, if a backfill directory is configured and the backfill was not started yet.
+	 * The files are only sent by the first shard of the target.
+	 */
+	private synchronized void startBackfill() {
+		if(this.closed || this.backfill != null || getShardIndex() > 0 || this.omfPublisherOptions.getBackfillDirectory().trim().isEmpty())
+			return;
+
+		this.backfill = new OMFBackfill(this, this.omfPublisherOptions);
+		this.backfill.start();
+	}
+
+	/**
+	 * Stops the backfill of the history files. It continues from its checkpoints, when it is started again.
+	 * @param await True to wait for the answer of a running request, which needs the lock of this publisher.
+	 */
+	private void stopBackfill(boolean await) {
+		OMFBackfill currentBackfill;
+
+		synchronized(this) {
+			currentBackfill = this.backfill;
+			this.backfill = null;
+		}
+
+		if(currentBackfill != null) {
+			currentBackfill.stop();
+			if(await)
+				currentBackfill.awaitStop();
+		}
+	}
+
+	/**
+	 * Shuts down the send loop. The in-flight messages are kept.
+	 */
+	public void shutdown() {
+		if(isRunning()) {
+			this.sendLoop.cancel();
+			logger.info(String.format("Shutdown message service of %s.", getTargetURL()));
+		}
+	}
+
+	/**
+	 * Shuts down the send loop and releases the resources of the service.
+	 */
+	public void close() {
+		shutdown();
+		stopBackfill(true);
+		if(this.closed)
+			return;
+		
+		this.closed = true;
+		this.omfPublisherService.close();
+		OMFSendScheduler.release();
+	}
+
+	/**
+	 * Stops the send loop and sends as many in-flight messages as possible until the deadline. Following messages
+	 * of the same lane are merged into one request. The flushing stops early, if the target is not reachable 
+	 * or does not accept a message, because the remaining messages are persisted anyway.
+	 * @param deadline time in milliseconds, until which messages are sent
+	 */
+	public void drain(long deadline) {
+		shutdown();
+		stopBackfill(true);
+		
+		if(this.inFlightMessages.isEmpty() || System.currentTimeMillis() >= deadline)
+			return;
+		
+		int remaining = this.inFlightMessages.size();
+		logger.info(String.format("Flushing %d in-flight messages to %s...", remaining, getTargetURL()));
+		
+		if(!OMFValidator.isPositiveOmfHttpResponse(isConnectionToOMFTargetEstablished())) {
+			logger.warn(String.format("The OMF target %s is not reachable. The in-flight messages are not flushed.", getTargetURL()));
+			return;
+		}
+		
+		Set<OMFQueueLane> allLanes = EnumSet.allOf(OMFQueueLane.class);
+		int batchSize = Math.max(this.omfPublisherOptions.getDrainBatchSize(), 1);
+		
+		while(!this.inFlightMessages.isEmpty() && System.currentTimeMillis() < deadline) {
+			//wait until the rate limit allows the next request
+			if(this.rateLimiter.getAllowedLanes().isEmpty()) {
+				try {
+					Thread.sleep(10);
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				continue;
+			}
+			
+			long sentBytes = this.omfPublisherService.getSentBytes();
+			long sentRequests = this.omfPublisherService.getSentRequests();
+			
+			this.inFlightMessages.mergeNext(batchSize);
+			sendInFlightMessage(allLanes);
+			
+			this.rateLimiter.consume(this.omfPublisherService.getSentBytes() - sentBytes,
+					this.omfPublisherService.getSentRequests() - sentRequests);
+			
+			if(this.headFailures > 0 || this.definitionsPending)
+				break;
+		}
+		
+		logger.info(String.format("Flushing in-flight messages to %s... Done (%d remaining)", getTargetURL(), this.inFlightMessages.size()));
+	}
+	
+	/**
+	 * Removes the remaining in-flight messages and persists them for the next activation. The send loop is stopped
+	 * and a running iteration is awaited before, so no message is sent while the queue is exported.
+	 */
+	public void persistQueue() {
+		awaitSendLoop();
+
+		synchronized(this) {
+			this.queueStore.save(this.inFlightMessages.exportRecords());
+		}
+	}
+
+	/**
+	 * Stops the send loop and removes all in-flight messages as binary records of every lane, for example to send them
+	 * by other shards. The send loop is started again by start().
+	 */
+	public Map<OMFQueueLane, List<byte[]>> exportQueue() {
+		awaitSendLoop();
+
+		synchronized(this) {
+			return this.inFlightMessages.exportRecords();
+		}
+	}
+
+	/**
+	 * Stops the send loop and waits for a running iteration until the connection timeout is over. 
+	 * A message, which is sent after the timeout, is awaited by the lock of this publisher.
+	 */
+	private void awaitSendLoop() {
+		OMFSendScheduler.Loop loop = this.sendLoop;
+		if(loop == null)
+			return;
+
+		try {
+			if(!loop.cancelAndAwait(Math.max(this.omfPublisherOptions.getConnectionTimeout(), 1), TimeUnit.SECONDS))
+				logger.warn(String.format("The send loop of %s is still running. The in-flight message is awaited.", getTargetURL()));
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Adds the in-flight messages, which were persisted on the last deactivation, to the queue.
+	 */
+	public void restoreQueue() {
+		restoreQueue(this.queueStore);
+
+		//Messages of shards, which were removed before the last activation, are sent by the first shard
+		if(getShardIndex() == 0)
+			for(int shard = Math.max(this.omfPublisherOptions.getShardCount(), 1); shard < MAX_SHARDS; shard++)
+				restoreQueue(new OMFQueueStore(this.omfPublisherOptions.forShard(shard)));
+	}
+
+	/**
+	 * Adds the in-flight messages of a queue store to the queue.
+	 */
+	private void restoreQueue(OMFQueueStore store) {
+		try {
+			this.inFlightMessages.importRecords(store.load());
+		} catch(RuntimeException ex) {
+			ErrorHandling.handle("Error while decoding the persisted in-flight messages.", ex, logger);
+		}
+	}
+
+	/**
+	 * Checks if an Asset or Channel was modified in Wire and put it into the knownAssetList.
+	 */
+	private boolean isAssetOrChannelModified(OMFAssetList currentAssetList) {
+		//Check if types and containers are all included as they have been sent before
+		boolean isModified =false;
+
+		//Check asset and if it is not already in the map set the flag
+		for (OMFAsset asset : currentAssetList) {
+
+			//A new version of the union of the channels needs a new type and container
+			if(this.omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET && this.knownValuesTypeIDs.add(asset.getValuesTypeID()))
+				isModified = true;
+
+			//Same schema as checked before, so every channel is already known
+			Set<Long> knownFingerprints = this.knownSchemaFingerprints.get(asset.getAssetname());
+			if(knownFingerprints != null && knownFingerprints.contains(asset.getSchemaFingerprint()))
+				continue;
+
+			String assetname=asset.getAssetname();
+			assetname = StringExtensions.convertToOmfString(assetname);
+
+			if(!this.knownAssetList.containsAsset(assetname) || this.knownAssetList.isEmpty()){
+
+				isModified=true;
+				logger.debug("New Asset "+assetname+ " detected");
+				this.knownAssetList.add(new OMFAsset(assetname,this.omfPublisherOptions));
+			}
+
+			//Check channel and add it to the map, if it is not already in the map set the flag
+			for (Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet()){
+
+				String channelname=channelEntry.getKey();
+				channelname = StringExtensions.convertToOmfString(channelname);
+				OMFChannel channel = channelEntry.getValue();
+
+				if(!this.knownAssetList.getAsset(assetname).getChannels().containsKey(channelname) ||
+
+					this.knownAssetList.getAsset(assetname).getChannels().get(channelname).getTypedValue().getType() != channel.getTypedValue().getType()) {
+					isModified=true;
+
+					logger.debug("New Channel "+channelname+" detected");
+
+					OMFChannel newChannel=new OMFChannel(channelname,this.omfPublisherOptions, asset);
+					newChannel.setTypedValue(TypedValues.newTypedValue(channel.getTypedValue().getValue()));
+					this.knownAssetList.getAsset(assetname).getChannels().put(channelname, newChannel);
+				}
+			}
+
+			rememberSchemaFingerprint(asset);
+		}
+
+		return isModified;
+	}
+
+	/**
+	 * Remembers the schema fingerprint of an asset after all its channels were checked.
+	 */
+	private void rememberSchemaFingerprint(OMFAsset asset) {
+		Set<Long> knownFingerprints = this.knownSchemaFingerprints.get(asset.getAssetname());
+
+		if(knownFingerprints == null || knownFingerprints.size() >= MAX_FINGERPRINTS_PER_ASSET) {
+			knownFingerprints = new HashSet<>();
+			this.knownSchemaFingerprints.put(asset.getAssetname(), knownFingerprints);
+		}
+
+		knownFingerprints.add(asset.getSchemaFingerprint());
+	}
+
+	/**
+	 * Sends the message, of a modified Asset or Channel to the destination system with a new type-, container and data definition.
+	 * The definitions are created from the in-flight message, so a message with a definition which is rejected can be split
+	 * like a message with rejected data, until the failing channel is found.
+	 * @return HTTP status code of the rejected types or containers, or of the accepted containers.
+	 */
+	private int sendModifiedMessage(OMFAssetList inFlightAssetList) {
+		int status = sendTypeMessage(inFlightAssetList);
+
+		if(OMFValidator.isPositiveOmfHttpResponse(status))
+			status = sendContainerMessage(inFlightAssetList);
+
+		if(OMFValidator.isPositiveOmfHttpResponse(status))
+			sendDataMessageLinks(inFlightAssetList);
+
+		return status;
+	}
+
+	/**
+	 * Handles definitions, which were rejected permanently. The message is split like a message with rejected data,
+	 * so the definitions are not pending anymore. The assets and channels, which were checked before, are forgotten,
+	 * so the parts and the next messages check their definitions again. The acknowledged definitions in the registries are kept.
+	 */
+	private void rejectDefinitions() {
+		this.definitionsPending = false;
+		this.knownAssetList = new OMFAssetList(this.omfPublisherOptions);
+		this.knownSchemaFingerprints.clear();
+		this.knownValuesTypeIDs.clear();
+	}
+
+	/**
+	 * Sends the next in-flight message of the lanes to the destination system. If the message was accepted, it is removed.
+	 * Temporary failures keep the message as the next message. Failures which are caused by the message itself
+	 * split the message, until the failing values are found and moved to the dead letters, so the other messages are not blocked.
+	 * Rejected types and containers of the message are handled like rejected data.
+	 */
+	private synchronized void sendInFlightMessage(Set<OMFQueueLane> allowedLanes) {
+		logger.debug(String.format("Trying to send next In-flight Message to %s. (%d remaining)", getTargetURL(), this.inFlightMessages.size()));
+
+		int status = -1;
+
+		OMFAssetList inFlightAssetList = this.inFlightMessages.peek(allowedLanes);
+		if(inFlightAssetList == null)
+			return;
+
+		long sendStart = System.currentTimeMillis();
+
+		//Failures are counted for one message only
+		if(inFlightAssetList != this.headAssetList) {
+			this.headAssetList = inFlightAssetList;
+			this.headFailures = 0;
+		}
+
+		try {
+
+			if(isAssetOrChannelModified(inFlightAssetList) || this.definitionsPending) {
+				status = sendModifiedMessage(inFlightAssetList);
+				this.definitionsPending = !OMFValidator.isPositiveOmfHttpResponse(status);
+			}
+
+			//Data cannot be accepted without its definitions
+			if(!this.definitionsPending)
+				status = sendDataMessage(inFlightAssetList);
+
+		}catch(Exception ex) {
+			//The message cannot be serialized, so it will fail on every attempt
+			ErrorHandling.handleSampled(this.logSampler, " Error during sending In Flight Messages: ", ex, logger);
+			splitOrQuarantine(inFlightAssetList, ex.toString());
+			return;
+		}
+
+		String part = this.definitionsPending ? "<Type> and <Container> definitions of the in-flight message" : "in-flight message";
+
+		if(!this.definitionsPending && OMFValidator.isPositiveOmfHttpResponse(status)) {
+			logger.debug(String.format("Sent in-flight <Data> correctly...%s", System.lineSeparator()));
+			recordLatencies(inFlightAssetList, sendStart);
+			this.inFlightMessages.remove(inFlightAssetList);
+			this.headFailures = 0;
+		}
+
+		else if(OMFValidator.isRetryableOmfHttpResponse(status)) {
+			ErrorHandling.httpStatusToErrorLog(status, logger);
+			this.headFailures++;
+
+			int retryLimit = this.omfPublisherOptions.getPoisonRetryLimit();
+			if(retryLimit > 0 && this.headFailures >= retryLimit)
+				splitOrQuarantine(inFlightAssetList, String.format("HTTP status %d after %d attempts", status, this.headFailures));
+			else
+				logger.warn(String.format("The %s failed with HTTP status %d and is kept (attempt %d).", part, status, this.headFailures));
+		}
+
+		else {
+			ErrorHandling.httpStatusToErrorLog(status, logger);
+
+			if(this.definitionsPending)
+				rejectDefinitions();
+
+			splitOrQuarantine(inFlightAssetList, String.format("HTTP status %d", status));
+		}
+	}
+
+	/**
+	 * Sends a message of the backfill directly, without the in-flight queue. The types and containers are sent before,
+	 * if they are not known yet. Waits until the rate limit allows a request of the backlog lane.
+	 * @return HTTP status code of the data message, or of the types and containers if they were not accepted
+	 */
+	public int sendBackfillMessage(OMFAssetList assets) throws InterruptedException {
+		while(!this.rateLimiter.getAllowedLanes().contains(OMFQueueLane.BACKLOG))
+			Thread.sleep(10);
+
+		synchronized(this) {
+			long sentBytes = this.omfPublisherService.getSentBytes();
+			long sentRequests = this.omfPublisherService.getSentRequests();
+
+			try {
+				if(isAssetOrChannelModified(assets) || this.definitionsPending) {
+					int status = sendModifiedMessage(assets);
+					this.definitionsPending = !OMFValidator.isPositiveOmfHttpResponse(status);
+
+					//Data cannot be accepted without its definitions, the backfill retries or splits the message by the status
+					if(this.definitionsPending) {
+						if(!OMFValidator.isRetryableOmfHttpResponse(status))
+							rejectDefinitions();
+						return status;
+					}
+				}
+
+				return sendDataMessage(assets);
+			} finally {
+				this.rateLimiter.consume(this.omfPublisherService.getSentBytes() - sentBytes,
+						this.omfPublisherService.getSentRequests() - sentRequests);
+			}
+		}
+	}
+
+	/**
+	 * Records the latencies of an acknowledged message: the wait in the queue until the successful attempt started,
+	 * and the time from the receipt and from the oldest source timestamp until the acknowledgement.
+	 */
+	private void recordLatencies(OMFAssetList acknowledgedAssetList, long sendStart) {
+		long now = System.currentTimeMillis();
+		long receivedAt = acknowledgedAssetList.getReceivedAt();
+		long sourceTimestamp = acknowledgedAssetList.getOldestSourceTimestamp();
+
+		this.latencyMetrics.record(OMFLatencyMetrics.Stage.QUEUE_WAIT, (sendStart - receivedAt) * 1000);
+		this.latencyMetrics.record(OMFLatencyMetrics.Stage.INGEST_TO_ACK, (now - receivedAt) * 1000);
+
+		if(sourceTimestamp > 0)
+			this.latencyMetrics.record(OMFLatencyMetrics.Stage.SOURCE_TO_ACK, (now - sourceTimestamp) * 1000);
+	}
+
+	/**
+	 * Returns the latency histograms of the data messages of this target.
+	 */
+	public OMFLatencyMetrics getLatencyMetrics() {
+		return this.latencyMetrics;
+	}
+
+	/**
+	 * Replaces the failed in-flight message by its two halves, which are sent next. If it cannot be split any further,
+	 * it is moved to the dead letters.
+	 */
+	private void splitOrQuarantine(OMFAssetList failedAssetList, String reason) {
+		List<OMFAssetList> parts = failedAssetList.split();
+
+		this.inFlightMessages.replace(failedAssetList, parts);
+		this.headFailures = 0;
+
+		if(parts.isEmpty()) {
+			this.deadLetters.add(failedAssetList, reason);
+			ErrorHandling.handleSampled(this.logSampler, logger
+					, String.format("The OMF target did not accept the message (%s). It is moved to the dead letters (%d).", reason, this.deadLetters.size())
+					, String.format("The message contains %d values of the assets %s. The dead letter action log shows the whole message.", 
+							failedAssetList.getValueCount(), OMFFlightRecorder.excerpt(describeAssets(failedAssetList), 
+									this.omfPublisherOptions.getFlightRecorderExcerptLength())));
+		}
+		else
+			logger.warn(String.format("The OMF target did not accept the message with %d values (%s). Splitting it to find the failing values.",
+					failedAssetList.getValueCount(), reason));
+	}
+
+	/**
+	 * Returns the names of all assets of the list separated by ",".
+	 */
+	private static String describeAssets(OMFAssetList assetList) {
+		StringBuilder sb = new StringBuilder();
+		
+		for(OMFAsset asset : assetList) {
+			if(sb.length() > 0)
+				sb.append(",");
+			sb.append(asset.getAssetname());
+		}
+		
+		return sb.toString();
+	}
+
+	/**
+	 * Sends the Type Message for all known assets. Only types which are not acknowledged yet are sent.
+	 * @return HTTP status code of the response, 204 if no definition had to be sent.
+	 */
+	private int sendTypeMessage(OMFAssetList assets) {
+		Map<String, String> newDefinitions = new HashMap<>();
+
+		//Generate the type from all assets and channels
+		String typeDefinitionJSON= this.omfPublisherService.createTypeMessage(assets, this.definitionRegistry, newDefinitions);
+
+		if(newDefinitions.isEmpty()) {
+			logger.debug("All <Type> definitions are already known.");
+			return HttpStatusCode.NOCONTENT.getStatus();
+		}
+
+		int status = this.omfPublisherService.handleOMFMessageRequest("create", "type", typeDefinitionJSON);
+
+		if(!OMFValidator.isPositiveOmfHttpResponse(status))
+			ErrorHandling.httpStatusToErrorLog(status, logger);
+
+		else {
+			this.definitionRegistry.acknowledge(newDefinitions);
+			logger.info(String.format("Sent %d <Type> definitions correctly...", newDefinitions.size()));
+		}
+		return status;
+	}
+
+	/**
+	 * Sends the Container Message for all known assets. Only containers which are not acknowledged yet are sent.
+	 * @return HTTP status code of the response, 204 if no definition had to be sent.
+	 */
+	private int sendContainerMessage(OMFAssetList assets) {
+		Map<String, String> newDefinitions = new HashMap<>();
+
+		//Generate containers from all assets and channels
+		String containerDefinitionJSON= this.omfPublisherService.createContainerMessage(assets, this.definitionRegistry, newDefinitions);
+
+		if(newDefinitions.isEmpty()) {
+			logger.debug("All <Container> definitions are already known.");
+			return HttpStatusCode.NOCONTENT.getStatus();
+		}
+
+		int status = this.omfPublisherService.handleOMFMessageRequest("create", "container", containerDefinitionJSON);
+
+		if(!OMFValidator.isPositiveOmfHttpResponse(status))
+			ErrorHandling.httpStatusToErrorLog(status, logger);
+
+		else {
+			this.definitionRegistry.acknowledge(newDefinitions);
+			logger.info(String.format("Sent %d <Container> definitions correctly...", newDefinitions.size()));
+		}
+
+		return status;
+	}
+
+	/**
+	 * Sends the Data Message for all known assets and their links.
+	 * Only elements and links which were not acknowledged by the OMF target before are sent.
+	 */
+	private void sendDataMessageLinks(OMFAssetList assets) {
+		List<String> newLinkKeys = new ArrayList<>();
+
+		//Create assets and links
+		String assetandlinksJSON = this.omfPublisherService.createAssetsAndLinks(assets, this.linkRegistry, newLinkKeys);
+
+		if(newLinkKeys.isEmpty()) {
+			logger.debug("No new <Data Links> to send.");
+			return;
+		}
+
+		int status = this.omfPublisherService.handleOMFMessageRequest("create", "data", assetandlinksJSON);
+
+		if(!OMFValidator.isPositiveOmfHttpResponse(status))
+			ErrorHandling.httpStatusToErrorLog(status, logger);
+
+		else {
+			this.linkRegistry.acknowledge(newLinkKeys);
+			logger.info(String.format("Sent %d new <Data Links> correctly...%s", newLinkKeys.size(), System.lineSeparator()));
+		}
+	}
+
+	/**
+	 * Sends the Data Message for all known assets. The message is serialized only once for all targets.
+	 * If it was compressed in the background, the compressed message is sent.
+	 */
+	private int sendDataMessage(OMFAssetList assets) {
+
+		// If ready, send finished JSON with the containers and payload
+		// only from the currently received wires, hence currentAssetList
+		long serializationStart = System.nanoTime();
+		byte[] dataMessage = assets.getDataMessage(this.omfPublisherService::createDataValuesMessage);
+		this.latencyMetrics.recordSince(OMFLatencyMetrics.Stage.SERIALIZATION, serializationStart);
+
+		int status = -1;
+
+		// Send the JSON message to the target URL
+		status = this.omfPublisherService.handleOMFMessageRequest("create", "data", dataMessage, assets.getCompressedDataMessage());
+
+		return status;
+	}
+
+	/**
+	 * Send HTTP request to the  Connector to check if a connection can be established.
+	 * @return HTTP status code of the response
+	 */
+	private int isConnectionToOMFTargetEstablished() {
+		logger.debug(String.format("Checking the connection to the OMF target %s.", getTargetURL()));
+		int result = 404;
+
+		HttpsURLConnection response = this.omfPublisherService.sendOMFMessage("create", "type", "[]");
+		if(response != null) {
+			try {
+				result = response.getResponseCode();
+			} catch (IOException ex) {
+				ErrorHandling.handleSampled(this.logSampler, "Connection to the omf target could not be ", ex, logger);
+			}
+		}
+
+		logger.debug(String.format("Connection check http code result: %d", result));
+		return result;
+	}
+}
@@ -14,6 +14,7 @@ package de.megla.iot.OMFPublisher;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.regex.PatternSyntaxException;
 
 import org.eclipse.kura.internal.wire.asset.WireAssetConstants;
 import org.eclipse.kura.type.DataType;
@@ -72,13 +73,37 @@ public class OMFValidator {
     	    httpResponseCode == HttpStatusCode.BADREQUEST.getStatus();
     }
     
+    /**
+     * Check if a failed HTTP status code is temporary, so the same message may be accepted later.
+     * Other failures (for example 413 or 422) are caused by the message itself.
+     */
+    public static boolean isRetryableOmfHttpResponse(int httpResponseCode) {
+    	return httpResponseCode <= 0 ||
+    		httpResponseCode == HttpStatusCode.UNAUTHORIZED.getStatus() || 
+    		httpResponseCode == HttpStatusCode.FORBIDDEN.getStatus() || 
+    		httpResponseCode == HttpStatusCode.NOTFOUND.getStatus() || 
+    		httpResponseCode == HttpStatusCode.REQUESTTIMEOUT.getStatus() || 
+    		httpResponseCode == HttpStatusCode.TOOMANYREQUESTS.getStatus() || 
+    		httpResponseCode >= HttpStatusCode.INTERNALSERVERERROR.getStatus();
+    }
+    
     /**
      * True if properties are complete.
      */
     public static boolean checkProperties(OMFPublisherOptions omfPublisherOptions) {
     	boolean result = true;
 		
-    	if(omfPublisherOptions.getProducerToken().trim().isEmpty()) {
+    	if(omfPublisherOptions.isOAuth2Authentication()) {
+    		if(omfPublisherOptions.getOAuth2TokenURL().trim().isEmpty()) {
+    			result = false;
+    			logger.error("OMFPublisherOptions: OAuth2 token URL empty."); 
+    		}
+    		
+    		if(omfPublisherOptions.getOAuth2ClientId().trim().isEmpty()) {
+    			result = false;
+    			logger.error("OMFPublisherOptions: OAuth2 client id empty."); 
+    		}
+    	} else if(omfPublisherOptions.getProducerToken().trim().isEmpty()) {
     		result = false;
     		logger.error("OMFPublisherOptions: ProducerToken empty."); 
 		}
@@ -93,6 +118,28 @@ public class OMFValidator {
     		logger.error("OMFPublisherOptions: Devicename empty."); 
 		}
 		
+		try {
+			omfPublisherOptions.getHighPriorityPattern();
+		} catch(PatternSyntaxException ex) {
+			result = false;
+			logger.error("OMFPublisherOptions: Invalid high priority pattern. " + ex.getMessage()); 
+		}
+		
+		try {
+			omfPublisherOptions.getConflationPattern();
+		} catch(PatternSyntaxException ex) {
+			result = false;
+			logger.error("OMFPublisherOptions: Invalid conflation pattern. " + ex.getMessage()); 
+		}
+		
+		List<OMFPublisherOptions> targetOptionsList = omfPublisherOptions.getTargetOptions();
+		for(OMFPublisherOptions targetOptions : targetOptionsList.subList(1, targetOptionsList.size())) {
+			if(targetOptions.getTargetURL().trim().isEmpty()) {
+				result = false;
+	    		logger.error("OMFPublisherOptions: TargetUrl of an additional target empty."); 
+			}
+		}
+		
 		return result;
 	}
     
@@ -112,10 +159,17 @@ public class OMFValidator {
 		
 		for(Entry<String, TypedValue<?>> entry: record.getProperties().entrySet()) {
 			if(!ignoredWireRecordProperties.contains(entry.getKey()) &&
-					forbiddenTypes.contains(entry.getValue().getType()))
+					isForbiddenType(entry.getValue().getType()))
 				result = true;
 		}
 		
 		return result;
 	}
+	
+	/**
+	 * True if the data type is not supported by the OMF target.
+	 */
+	public static boolean isForbiddenType(DataType type) {
+		return forbiddenTypes.contains(type);
+	}
 }
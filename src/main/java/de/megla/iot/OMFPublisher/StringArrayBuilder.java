@@ -34,14 +34,31 @@ public class StringArrayBuilder {
 		StringBuilder result = new StringBuilder();
 		
 		result.append("[");
+		appendContent(result);
+		result.append("]");
+		
+		return result.toString();
+	}
+	
+	/**
+	 * Builds the content of an array in the format a,b,c,... from all content inserted.
+	 */
+	public String getContentString() {
+		StringBuilder result = new StringBuilder();
+		
+		appendContent(result);
+		
+		return result.toString();
+	}
+	
+	/**
+	 * Appends all content inserted separated by ",".
+	 */
+	private void appendContent(StringBuilder result) {
 		while(!this.contents.isEmpty()) {
 			result.append(contents.remove());
 			if(!contents.isEmpty())
 				result.append(",");
 		}
-		
-		result.append("]");
-		
-		return result.toString();
 	}
 }
@@ -11,12 +11,21 @@
  *******************************************************************************/
 package de.megla.iot.OMFPublisher;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * StringExtensions.java
  */
 public class StringExtensions {
 	public static int MAX_OMF_STRING_LENGTH = 60;
 	
+	/**
+	 * <b>FNV_OFFSET_BASIS</b>		offset basis of the 64 bit FNV-1a hash
+	 * <b>FNV_PRIME</b>				prime of the 64 bit FNV-1a hash
+	 */
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
     /**
      * Removes all not allowed special characters from Asset- and Channelname and cuts the String if more than 60 Characters
      */
@@ -34,4 +43,19 @@ public class StringExtensions {
     public static String cutToMaxOMFLenght(String input) {
     	return input.substring(0, MAX_OMF_STRING_LENGTH);
     }
+    
+    /**
+     * Returns the 64 bit FNV-1a hash of the UTF-8 bytes of a text. Unlike String.hashCode(), short names like "Aa" and "BB"
+     * do not collide.
+     */
+    public static long hash64(String text) {
+    	long result = FNV_OFFSET_BASIS;
+    	
+    	for(byte b : text.getBytes(StandardCharsets.UTF_8)) {
+    		result ^= b & 0xff;
+    		result *= FNV_PRIME;
+    	}
+    	
+    	return result;
+    }
 }
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.auth;
+
+import java.net.HttpURLConnection;
+
+/**
+ * AuthenticationProvider.java
+ *
+ * An AuthenticationProvider sets the authentication headers of every request to the OMF target.
+ */
+public interface AuthenticationProvider {
+	/**
+	 * <b>PRODUCER_TOKEN</b>	name of the authentication type with a static producer token
+	 * <b>OAUTH2</b>			name of the authentication type with OAuth2 client credentials
+	 */
+	String PRODUCER_TOKEN = "producertoken";
+	String OAUTH2 = "oauth2";
+	
+	/**
+	 * Sets the authentication headers of the request.
+	 */
+	void authenticate(HttpURLConnection connection);
+	
+	/**
+	 * Discards the current credentials after the OMF target rejected them with 401.
+	 * Returns true if new credentials are available, so the request should be sent once again.
+	 */
+	boolean invalidate();
+	
+	/**
+	 * Releases all resources of the provider.
+	 */
+	void close();
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.auth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * OAuth2ClientCredentialsProvider.java
+ *
+ * Sends a bearer token, which is requested with the OAuth2 client credentials grant.
+ * The token is cached and refreshed in the background before it expires, so a message never waits for the token endpoint.
+ * Only if there is no valid token at all (token endpoint unreachable), the token is requested while sending.
+ */
+public class OAuth2ClientCredentialsProvider implements AuthenticationProvider {
+	/**
+	 * <b>logger</b> 					logs all messages for Debugging (Info, Warning, Error)
+	 * <b>tokenURL</b>					URL of the token endpoint
+	 * <b>clientId</b>					client id of the client credentials
+	 * <b>clientSecret</b>				client secret of the client credentials
+	 * <b>timeout</b>					connect and read timeout of the token request in milliseconds
+	 * <b>refreshExecutor</b>			thread, which refreshes the token before it expires
+	 * <b>accessToken</b>				cached access token, null if no token was received
+	 * <b>expiresAt</b>					time in milliseconds when the cached token expires
+	 * <b>retryDelay</b>				delay in milliseconds until a failed refresh is retried
+	 * <b>REFRESH_RATIO</b>				share of the token lifetime after which the token is refreshed
+	 * <b>MAX_REFRESH_MARGIN</b>		max time in milliseconds the token is refreshed before it expires
+	 * <b>DEFAULT_EXPIRES_IN</b>		lifetime in seconds of a token without "expires_in"
+	 * <b>MIN_RETRY_DELAY</b>			first delay in milliseconds until a failed refresh is retried
+	 * <b>MAX_RETRY_DELAY</b>			max delay in milliseconds until a failed refresh is retried
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OAuth2ClientCredentialsProvider.class);
+	
+	private final String tokenURL;
+	private final String clientId;
+	private final String clientSecret;
+	private final int timeout;
+	private final ScheduledExecutorService refreshExecutor;
+	
+	private volatile String accessToken;
+	private volatile long expiresAt;
+	private long retryDelay = MIN_RETRY_DELAY;
+	
+	private static final double REFRESH_RATIO = 0.8;
+	private static final long MAX_REFRESH_MARGIN = 60_000;
+	private static final long DEFAULT_EXPIRES_IN = 3600;
+	private static final long MIN_RETRY_DELAY = 1_000;
+	private static final long MAX_RETRY_DELAY = 60_000;
+	
+	/**
+	 * Constructor which requests the first token in the background.
+	 */
+	public OAuth2ClientCredentialsProvider(String tokenURL, String clientId, String clientSecret, int timeout) {
+		this.tokenURL = tokenURL;
+		this.clientId = clientId;
+		this.clientSecret = clientSecret;
+		this.timeout = timeout;
+		
+		this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "OMFPublisher-OAuth2-Refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.refreshExecutor.execute(this::refreshInBackground);
+	}
+
+	@Override
+	public void authenticate(HttpURLConnection connection) {
+		String token = this.accessToken;
+		
+		if(token == null || System.currentTimeMillis() >= this.expiresAt)
+			token = refreshNow();
+		
+		if(token != null)
+			connection.setRequestProperty("Authorization", "Bearer " + token);
+	}
+
+	@Override
+	public boolean invalidate() {
+		logger.info("OMF target rejected the access token. Requesting a new token...");
+		this.accessToken = null;
+		
+		return refreshNow() != null;
+	}
+
+	@Override
+	public void close() {
+		this.refreshExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Requests a new token, if no valid token is cached. Returns the cached token or null, if the request failed.
+	 */
+	private synchronized String refreshNow() {
+		if(this.accessToken != null && System.currentTimeMillis() < this.expiresAt)
+			return this.accessToken;
+		
+		try {
+			requestToken();
+		} catch(IOException | RuntimeException ex) {
+			logger.error(String.format("Error while requesting an access token from %s.", this.tokenURL), ex);
+		}
+		
+		return this.accessToken;
+	}
+	
+	/**
+	 * Requests a new token and schedules the next refresh. A failed request is retried with increasing delay.
+	 */
+	private void refreshInBackground() {
+		long delay;
+		
+		synchronized(this) {
+			try {
+				long lifetime = requestToken();
+				
+				delay = Math.max(lifetime - Math.min(MAX_REFRESH_MARGIN, (long) (lifetime * (1 - REFRESH_RATIO))), MIN_RETRY_DELAY);
+				this.retryDelay = MIN_RETRY_DELAY;
+			} catch(IOException | RuntimeException ex) {
+				logger.warn(String.format("Error while refreshing the access token from %s. Retry in %d ms.", this.tokenURL, this.retryDelay), ex);
+				
+				delay = this.retryDelay;
+				this.retryDelay = Math.min(this.retryDelay * 2, MAX_RETRY_DELAY);
+			}
+		}
+		
+		if(!this.refreshExecutor.isShutdown())
+			this.refreshExecutor.schedule(this::refreshInBackground, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Requests a token from the token endpoint and caches it. Returns the lifetime of the token in milliseconds.
+	 */
+	private long requestToken() throws IOException {
+		byte[] body = ("grant_type=client_credentials"
+				+ "&client_id=" + URLEncoder.encode(this.clientId, "UTF-8")
+				+ "&client_secret=" + URLEncoder.encode(this.clientSecret, "UTF-8")).getBytes(StandardCharsets.UTF_8);
+		
+		HttpURLConnection connection = (HttpURLConnection) new URL(this.tokenURL).openConnection();
+		
+		try {
+			connection.setConnectTimeout(this.timeout);
+			connection.setReadTimeout(this.timeout);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			connection.setRequestProperty("Accept", "application/json");
+			
+			try(OutputStream os = connection.getOutputStream()) {
+				os.write(body);
+			}
+			
+			int status = connection.getResponseCode();
+			if(status != HttpURLConnection.HTTP_OK)
+				throw new IOException(String.format("Token endpoint returned error code %d", status));
+			
+			String response;
+			try(InputStream in = connection.getInputStream()) {
+				response = IOUtils.toString(in, StandardCharsets.UTF_8);
+			}
+			
+			JsonObject json = new JsonParser().parse(response).getAsJsonObject();
+			JsonElement token = json.get("access_token");
+			if(token == null || token.isJsonNull())
+				throw new IOException("Token endpoint returned no access_token");
+			
+			JsonElement expiresIn = json.get("expires_in");
+			long lifetime = TimeUnit.SECONDS.toMillis(expiresIn == null || expiresIn.isJsonNull() ? DEFAULT_EXPIRES_IN : expiresIn.getAsLong());
+			
+			this.expiresAt = System.currentTimeMillis() + lifetime;
+			this.accessToken = token.getAsString();
+			
+			logger.info(String.format("Received access token from %s, valid for %d s.", this.tokenURL, TimeUnit.MILLISECONDS.toSeconds(lifetime)));
+			return lifetime;
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
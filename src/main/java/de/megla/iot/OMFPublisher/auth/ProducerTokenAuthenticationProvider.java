@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.auth;
+
+import java.net.HttpURLConnection;
+
+/**
+ * ProducerTokenAuthenticationProvider.java
+ *
+ * Sends the static producer token in the "producertoken" header of every request.
+ */
+public class ProducerTokenAuthenticationProvider implements AuthenticationProvider {
+	/**
+	 * <b>producerToken</b>	producer token of the OMF target
+	 */
+	private final String producerToken;
+	
+	/**
+	 * Constructor which sets the producer token.
+	 */
+	public ProducerTokenAuthenticationProvider(String producerToken) {
+		this.producerToken = producerToken;
+	}
+
+	@Override
+	public void authenticate(HttpURLConnection connection) {
+		connection.setRequestProperty("producertoken", this.producerToken);
+	}
+
+	@Override
+	public boolean invalidate() {
+		//A static token cannot be renewed
+		return false;
+	}
+
+	@Override
+	public void close() {
+		//Nothing to release
+	}
+}
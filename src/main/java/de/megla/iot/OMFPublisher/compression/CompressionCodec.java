@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.compression;
+
+import java.util.zip.Deflater;
+
+/**
+ * CompressionCodec.java
+ *
+ * A CompressionCodec compresses the body of an OMF message. 
+ * The name of the codec is sent in the "compression" header of the message.
+ */
+public interface CompressionCodec {
+	/**
+	 * <b>NONE</b>		name of the compression level which sends uncompressed messages
+	 * <b>FAST</b>		name of the compression level with the best speed
+	 * <b>DEFAULT</b>	name of the default compression level
+	 * <b>BEST</b>		name of the compression level with the best compression
+	 */
+	String NONE = "none";
+	String FAST = "fast";
+	String DEFAULT = "default";
+	String BEST = "best";
+	
+	/**
+	 * Returns the value of the "compression" header.
+	 */
+	String getName();
+	
+	/**
+	 * True if the codec compresses the message body. If false, no "compression" header is sent.
+	 */
+	boolean isCompressing();
+	
+	/**
+	 * Compresses the message body.
+	 */
+	byte[] compress(byte[] message);
+	
+	/**
+	 * True if compressed bodies of this codec can be concatenated to one body, 
+	 * which decompresses to the concatenation of the uncompressed bodies.
+	 */
+	default boolean isConcatenable() {
+		return false;
+	}
+	
+	/**
+	 * Releases all resources of the codec.
+	 */
+	void close();
+	
+	/**
+	 * Creates the codec for a compression level (none, fast, default, best).
+	 */
+	static CompressionCodec forLevel(String level) {
+		if(NONE.equalsIgnoreCase(level))
+			return new NoCompressionCodec();
+		
+		if(FAST.equalsIgnoreCase(level))
+			return new GzipCompressionCodec(Deflater.BEST_SPEED);
+		
+		if(BEST.equalsIgnoreCase(level))
+			return new GzipCompressionCodec(Deflater.BEST_COMPRESSION);
+		
+		return new GzipCompressionCodec(Deflater.DEFAULT_COMPRESSION);
+	}
+}
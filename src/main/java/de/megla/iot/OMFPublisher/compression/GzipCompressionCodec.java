@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.compression;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * GzipCompressionCodec.java
+ *
+ * Codec which compresses the message body with gzip. The deflater and the output buffer are pooled, 
+ * so that compressing a message only allocates the resulting byte array.
+ */
+public class GzipCompressionCodec implements CompressionCodec {
+	/**
+	 * <b>level</b>				deflate level (1 = best speed ... 9 = best compression, -1 = default)
+	 * <b>compressorPool</b>		idle compressors which can be reused
+	 * <b>GZIP_HEADER</b>			gzip member header without file name and modification time
+	 * <b>TRAILER_SIZE</b>		size of the gzip trailer (CRC32 and input size)
+	 * <b>INITIAL_BUFFER_SIZE</b>	initial size of the output buffer of a compressor
+	 * <b>MAX_POOLED</b>			max amount of idle compressors in the pool
+	 */
+	private final int level;
+	private final ConcurrentLinkedQueue<Compressor> compressorPool = new ConcurrentLinkedQueue<>();
+	
+	private static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+	private static final int TRAILER_SIZE = 8;
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_POOLED = 4;
+	
+	/**
+	 * Constructor which sets the deflate level.
+	 */
+	public GzipCompressionCodec(int level) {
+		this.level = level;
+	}
+	
+	@Override
+	public String getName() {
+		return "gzip";
+	}
+
+	@Override
+	public boolean isCompressing() {
+		return true;
+	}
+
+	/**
+	 * A gzip stream may consist of several members, so compressed bodies can be concatenated (RFC 1952).
+	 */
+	@Override
+	public boolean isConcatenable() {
+		return true;
+	}
+
+	@Override
+	public byte[] compress(byte[] message) {
+		Compressor compressor = this.compressorPool.poll();
+		if(compressor == null)
+			compressor = new Compressor(this.level);
+		
+		try {
+			return compressor.compress(message);
+		} finally {
+			if(this.compressorPool.size() < MAX_POOLED)
+				this.compressorPool.offer(compressor);
+			else
+				compressor.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		Compressor compressor;
+		while((compressor = this.compressorPool.poll()) != null)
+			compressor.close();
+	}
+	
+	/**
+	 * A reusable deflater with its checksum and output buffer. Only used by one thread at a time.
+	 */
+	private static class Compressor {
+		private final Deflater deflater;
+		private final CRC32 crc = new CRC32();
+		private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+		
+		Compressor(int level) {
+			this.deflater = new Deflater(level, true);
+		}
+		
+		/**
+		 * Writes header, deflated data and trailer of one gzip member into the buffer and returns a copy of it.
+		 */
+		byte[] compress(byte[] message) {
+			this.deflater.reset();
+			this.crc.reset();
+			this.crc.update(message, 0, message.length);
+			this.deflater.setInput(message);
+			this.deflater.finish();
+			
+			System.arraycopy(GZIP_HEADER, 0, this.buffer, 0, GZIP_HEADER.length);
+			int length = GZIP_HEADER.length;
+			
+			while(!this.deflater.finished()) {
+				if(length == this.buffer.length)
+					this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+				
+				length += this.deflater.deflate(this.buffer, length, this.buffer.length - length);
+			}
+			
+			if(length + TRAILER_SIZE > this.buffer.length)
+				this.buffer = Arrays.copyOf(this.buffer, length + TRAILER_SIZE);
+			
+			writeIntLE(this.buffer, length, (int)this.crc.getValue());
+			writeIntLE(this.buffer, length + 4, message.length);
+			
+			return Arrays.copyOf(this.buffer, length + TRAILER_SIZE);
+		}
+		
+		void close() {
+			this.deflater.end();
+		}
+		
+		private static void writeIntLE(byte[] target, int offset, int value) {
+			target[offset] = (byte)value;
+			target[offset + 1] = (byte)(value >> 8);
+			target[offset + 2] = (byte)(value >> 16);
+			target[offset + 3] = (byte)(value >> 24);
+		}
+	}
+}
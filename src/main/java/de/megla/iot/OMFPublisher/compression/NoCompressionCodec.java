@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.compression;
+
+/**
+ * NoCompressionCodec.java
+ *
+ * Codec which sends the message body uncompressed. 
+ * Used for tiny messages, where gzip costs more than it saves.
+ */
+public class NoCompressionCodec implements CompressionCodec {
+
+	@Override
+	public String getName() {
+		return NONE;
+	}
+
+	@Override
+	public boolean isCompressing() {
+		return false;
+	}
+
+	@Override
+	public byte[] compress(byte[] message) {
+		return message;
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
@@ -33,6 +33,16 @@ public class LinkedValues {
 		this.Target = target;
 	}
 	
+	/**
+	 * Returns a key which identifies this link by its source and target.
+	 */
+	public String getKey() {
+		String sourceKey = this.Source != null ? this.Source.getKey() : "";
+		String targetKey = this.Target != null ? this.Target.getKey() : "";
+		
+		return sourceKey + "->" + targetKey;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
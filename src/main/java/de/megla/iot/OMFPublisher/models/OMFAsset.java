@@ -12,14 +12,27 @@
 
 package de.megla.iot.OMFPublisher.models;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import de.megla.iot.OMFPublisher.OMFPublisherOptions;
+import de.megla.iot.OMFPublisher.StringExtensions;
 
 /**
  * OMFAsset.java
@@ -35,11 +48,23 @@ public class OMFAsset {
 	 * 								and a value as an object of class OMFChannel
 	 * <b>omfPublisherOptions</b> 	contains option-data for example the producertoken, hostname, targeturl
 	 * <b>dataValues</b> 			list of "values" for the OMF-element "__Link"
+	 * <b>schemaFingerprint</b>		hash over the names and data types of all channels
+	 * <b>fingerprintComputed</b>	true if the schema fingerprint was computed
+	 * <b>dataFragment</b>			data messages of all channels in UTF-8, which were serialized when the data was received, 
+	 * 								null if the data is serialized when it is sent
+	 * <b>oldestTimestamp</b>		oldest timestamp of the channels in milliseconds, which is kept when the data was serialized
+	 * <b>valuesSchema</b>			union of the channels of the asset, which is used if the type mode is ASSET, 
+	 * 								null until it is registered in the schemas of a target or needed
 	 */ 
 	private String assetname;
 	private Map<String, OMFChannel> channels =new HashMap<>();
 	private OMFPublisherOptions omfPublisherOptions;
 	private ArrayList<LinkedValues> dataValues = new ArrayList<>();
+	private long schemaFingerprint;
+	private boolean fingerprintComputed = false;
+	private volatile byte[] dataFragment;
+	private long oldestTimestamp = Long.MAX_VALUE;
+	private volatile OMFAssetSchema valuesSchema;
 	
 	/**
 	 * Constructor which sets the name and options of the asset.
@@ -52,7 +77,7 @@ public class OMFAsset {
 	/**
 	 * Returns the ID for the type of asset.
 	 */
-	private String getTypeID(){
+	public String getTypeID(){
 		return this.omfPublisherOptions.getDevicename()+"_"+this.assetname;
 	}
 	
@@ -71,24 +96,208 @@ public class OMFAsset {
 	}
 		
 	/**
-	 * Returns the asset to be created and the JSON containers for the channels.
+	 * Returns the ID of the dynamic type and the container of this asset, which are used if the type mode is ASSET.
+	 * It contains the fingerprint of the union of all channels of the asset, so a message with only a part of the channels
+	 * uses the same type and container. Only a new channel or data type creates a new type and container.
 	 */
-	public String getDataMessageJSON(){ 
+	public String getValuesTypeID(){
+		return getTypeID()+"_"+Long.toHexString(getValuesSchema().getFingerprint());
+	}
+	
+	/**
+	 * Returns the union of the channels of this asset, which was registered in the schemas of a target.
+	 * An asset which was never registered only uses the version with exactly its own channels.
+	 */
+	public OMFAssetSchema getValuesSchema(){
+		OMFAssetSchema schema = this.valuesSchema;
+		
+		if(schema == null) {
+			schema = OMFAssetSchema.exactOf(this.channels.values());
+			this.valuesSchema = schema;
+		}
+		
+		return schema;
+	}
+	
+	/**
+	 * Registers the channels of this asset in the schemas of a target. The first registration sets the latest version 
+	 * of the asset as its schema. The asset keeps this version, so the data of an asset list, which is shared by several targets,
+	 * is sent in the same container by all of them. Later registrations only add the channels of this version to the latest version of the other targets.
+	 * @param schemas latest version of the schema of every asset of the target by the ID of its static type
+	 */
+	public void registerValuesSchema(Map<String, OMFAssetSchema> schemas){
+		OMFAssetSchema schema = this.valuesSchema;
+		
+		if(schema == null)
+			this.valuesSchema = OMFAssetSchema.of(schemas, getTypeID(), this.channels.values());
+		else
+			OMFAssetSchema.of(schemas, getTypeID(), schema.getChannels());
+	}
+	
+	/**
+	 * Returns the JSON object for the dynamic type definition with the union of all channels as properties.
+	 */
+	public String getValuesTypeMessageJSON(){
 		Gson gson = new Gson();
-		String typeID = getTypeID();
+		Map<String, Property> properties = new HashMap<>(getValuesSchema().getProperties());
+		
+		Property propDate = new Property("string", "date-time", true);
+		properties.put("IndexedDateTime", propDate);
+		
+		return gson.toJson(new OMFTypeMessage(getValuesTypeID(), "object", "dynamic", properties));
+	}
+	
+	/**
+	 * Returns the JSON object for the container of all channels.
+	 */
+	public String getValuesContainerMessageJSON(){
+		Gson gson = new Gson();
+		return gson.toJson(new OMFContainerMessage(getValuesTypeID(), getValuesTypeID()));
+	}
+	
+	/**
+	 * Returns the JSON object for the data of all channels. Channels with the same timestamp are combined in one value.
+	 */
+	public String getValuesDataMessageJSON(){
+		Gson gson = new Gson();
+		Map<Date, HashMap<String, Object>> valuesByTimestamp = new TreeMap<>();
+		
+		for (OMFChannel channel : this.channels.values()) {
+			HashMap<String, Object> elements = valuesByTimestamp.get(channel.getTimestamp());
+			
+			if(elements == null) {
+				elements = new HashMap<>();
+				elements.put("IndexedDateTime", channel.getFormattedTimestamp());
+				valuesByTimestamp.put(channel.getTimestamp(), elements);
+			}
+			
+			elements.put(channel.getValuePropertyName(), channel.getValueWithDataType());
+		}
+		
+		return gson.toJson(new OMFDataMessage(getValuesTypeID(), new ArrayList<>(valuesByTimestamp.values())));
+	}
+	
+	/**
+	 * Returns the data messages of all channels separated by ",". If the type mode is ASSET, 
+	 * it is one data message per timestamp of the asset. Empty if the asset has no channels.
+	 */
+	public String getDataValuesJSON(){
+		if(this.dataFragment != null)
+			return new String(this.dataFragment, StandardCharsets.UTF_8);
+		
+		if(this.channels.isEmpty())
+			return "";
+		
+		if(this.omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET)
+			return getValuesDataMessageJSON();
+		
 		StringBuilder sb = new StringBuilder();
-		String jsonLinkedDataMessage = "";
-		String jsonAFElement = "";
+		
+		for (OMFChannel channel : this.channels.values()) {
+			if(sb.length() > 0)
+				sb.append(",");
+			sb.append(channel.getDataMessageJSON());
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Serializes the data messages of all channels into an immutable UTF-8 fragment. 
+	 * Afterwards the channels only keep their name and data type for the definitions, the values and timestamps
+	 * are only kept in the fragment. If the type mode is ASSET, the schema version of the fragment is kept as well.
+	 */
+	public void freezeDataFragment(){
+		if(this.dataFragment != null)
+			return;
+		
+		if(this.omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET)
+			getValuesSchema();
+		
+		byte[] fragment = getDataValuesJSON().getBytes(StandardCharsets.UTF_8);
+		long oldest = getOldestTimestamp();
+		
+		Map<String, OMFChannel> definitions = new HashMap<>();
+		for(Map.Entry<String, OMFChannel> channelEntry : this.channels.entrySet())
+			definitions.put(channelEntry.getKey(), channelEntry.getValue().toDefinition(this));
+		
+		this.channels = definitions;
+		this.oldestTimestamp = oldest;
+		this.dataFragment = fragment;
+	}
+	
+	/**
+	 * Sets the fragment, the oldest timestamp and the schema version of an asset, which was serialized before.
+	 * The channels must only describe the name and data type of every channel.
+	 */
+	void restoreDataFragment(byte[] fragment, long oldestTimestamp, OMFAssetSchema schema){
+		this.valuesSchema = schema;
+		this.oldestTimestamp = oldestTimestamp;
+		this.dataFragment = fragment;
+	}
+	
+	/**
+	 * True if the data was serialized into a fragment and the channels have no values anymore.
+	 */
+	public boolean isFrozen(){
+		return this.dataFragment != null;
+	}
+	
+	/**
+	 * Returns the oldest timestamp of all channels in milliseconds, Long.MAX_VALUE if the asset has no channels.
+	 */
+	public long getOldestTimestamp(){
+		if(this.dataFragment != null)
+			return this.oldestTimestamp;
+		
+		long result = Long.MAX_VALUE;
+		
+		for(OMFChannel channel : this.channels.values())
+			if(channel.getTimestamp() != null)
+				result = Math.min(result, channel.getTimestamp().getTime());
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the schema version, which was computed for this asset, or null if it was not needed yet.
+	 */
+	OMFAssetSchema getComputedValuesSchema(){
+		return this.valuesSchema;
+	}
+	
+	/**
+	 * Returns the serialized data messages of all channels or null, if they were not serialized when the data was received.
+	 * The fragment must not be modified.
+	 */
+	byte[] getDataFragment(){
+		return this.dataFragment;
+	}
+	
+	/**
+	 * Returns the JSON object of the AF element which represents this asset.
+	 */
+	public String getAssetElementJSON(){
+		Gson gson = new Gson();
+		String typeID = getTypeID();
 		
 		//create Asset Element for each Asset
-		ArrayList<LinkedValues> values = new ArrayList<>();
 		ArrayList<HashMap<String, String>> properties = new ArrayList<>();
 		HashMap<String, String> propertyValue = new HashMap<>();
 		String propertyId = "Name";
 		propertyValue.put(propertyId, typeID);	
 		properties.add(propertyValue);
 		AssetFrameworkElement afElement = new AssetFrameworkElement(typeID, properties);
-		jsonAFElement = gson.toJson(afElement);
+		
+		return gson.toJson(afElement);
+	}
+	
+	/**
+	 * Returns the link of this asset to the root element followed by the links to all containers of its channels.
+	 */
+	public ArrayList<LinkedValues> getLinkedValues(){
+		String typeID = getTypeID();
+		ArrayList<LinkedValues> values = new ArrayList<>();
 		
 		//Create Parent Asset Links
 		String typeidSource = "KuraIoTDevice";
@@ -102,12 +311,7 @@ public class OMFAsset {
 		this.dataValues = values;
 		putChannelsToValueList(typeID);
 		
-		LinkedDataMessage linkedDataMessage = new LinkedDataMessage("__Link", this.dataValues);
-		jsonLinkedDataMessage = gson.toJson(linkedDataMessage);
-		
-		// Append the built AF-Element and Linked Data Message and seperate it with ","
-		sb.append(jsonAFElement).append(",").append(jsonLinkedDataMessage);
-		return sb.toString();
+		return this.dataValues;
 	}
 	
 	/**
@@ -119,6 +323,12 @@ public class OMFAsset {
 		
 		//The parent Asset it the source for every Channel
 		SourceTarget source = new SourceTarget(typeid, index);
+		
+		//All channels share the container of the asset
+		if(this.omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET) {
+			this.dataValues.add(new LinkedValues(source, new SourceTarget(getValuesTypeID())));
+			return;
+		}
 
 		//extract every Channels Source and Target data and add it to the linked value list
 		for (Map.Entry<String, OMFChannel> channelEntry : channels.entrySet()){
@@ -143,15 +353,144 @@ public class OMFAsset {
 		return channels;
 	}
 	
+	/**
+	 * Returns the schema fingerprint of this asset. Two assets with the same channel names and data types
+	 * have the same fingerprint, independent of the order of the channels.
+	 */
+	public long getSchemaFingerprint() {
+		if(!this.fingerprintComputed)
+			updateSchemaFingerprint();
+		
+		return this.schemaFingerprint;
+	}
+	
+	/**
+	 * Computes the schema fingerprint from the current channels. 
+	 * Has to be called after channels were added or their data type was changed.
+	 */
+	public void updateSchemaFingerprint() {
+		long fingerprint = this.channels.size();
+		
+		//The sum is independent of the iteration order of the channels
+		for(Map.Entry<String, OMFChannel> channelEntry : this.channels.entrySet()) {
+			//64 bit hash of the UTF-8 bytes, because names with the same String.hashCode() are common with generated tags
+			long channelHash = StringExtensions.hash64(channelEntry.getKey() + "\u0000" + channelEntry.getValue().getTypedValue().getType().name());
+			fingerprint += mix(channelHash);
+		}
+		
+		this.schemaFingerprint = fingerprint;
+		this.fingerprintComputed = true;
+		this.valuesSchema = null;
+	}
+	
+	/**
+	 * Splits the channels of this asset into two assets with the same name. 
+	 * The channels are sorted by name, so the split is the same for every attempt.
+	 */
+	public List<OMFAsset> splitChannels() {
+		List<String> channelnames = new ArrayList<>(this.channels.keySet());
+		Collections.sort(channelnames);
+		
+		int half = channelnames.size() / 2;
+		List<OMFAsset> result = new ArrayList<>();
+		result.add(copyWithChannels(channelnames.subList(0, half)));
+		result.add(copyWithChannels(channelnames.subList(half, channelnames.size())));
+		
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of this asset, which only contains the specified channels and keeps the schema version of this asset.
+	 * The copy of a serialized asset contains the part of the fragment with the data of the channels.
+	 */
+	public OMFAsset copyWithChannels(Collection<String> channelnames) {
+		OMFAsset copy = new OMFAsset(this.assetname, this.omfPublisherOptions);
+		
+		for(String channelname : channelnames)
+			copy.getChannels().put(channelname, this.channels.get(channelname));
+		
+		copy.updateSchemaFingerprint();
+		copy.valuesSchema = this.valuesSchema;
+		
+		if(this.dataFragment != null)
+			copy.restoreDataFragment(selectDataFragment(copy.channels.values()), this.oldestTimestamp, this.valuesSchema);
+		
+		return copy;
+	}
+	
+	/**
+	 * Returns the part of the fragment with the data of the channels. The fragment is parsed again,
+	 * which is only needed if a message is split by its channels.
+	 */
+	private byte[] selectDataFragment(Collection<OMFChannel> selectedChannels) {
+		boolean assetTypeMode = this.omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET;
+		
+		//A data message per container, or per timestamp with a property per channel if the type mode is ASSET
+		Set<String> keys = new HashSet<>();
+		for(OMFChannel channel : selectedChannels)
+			keys.add(assetTypeMode ? channel.getValuePropertyName() : channel.getContainerID());
+		
+		Gson gson = new Gson();
+		StringBuilder sb = new StringBuilder();
+		JsonArray messages = new JsonParser().parse("[" + getDataValuesJSON() + "]").getAsJsonArray();
+		
+		for(JsonElement element : messages) {
+			JsonObject message = element.getAsJsonObject();
+			
+			if(assetTypeMode) {
+				JsonArray values = new JsonArray();
+				
+				for(JsonElement value : message.getAsJsonArray("values")) {
+					JsonObject selectedValue = new JsonObject();
+					
+					for(Map.Entry<String, JsonElement> property : value.getAsJsonObject().entrySet())
+						if(property.getKey().equals("IndexedDateTime") || keys.contains(property.getKey()))
+							selectedValue.add(property.getKey(), property.getValue());
+					
+					if(selectedValue.entrySet().size() > 1)
+						values.add(selectedValue);
+				}
+				
+				if(values.size() == 0)
+					continue;
+				
+				message.add("values", values);
+			}
+			else if(!keys.contains(message.get("containerid").getAsString()))
+				continue;
+			
+			if(sb.length() > 0)
+				sb.append(",");
+			sb.append(gson.toJson(message));
+		}
+		
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Spreads the bits of a value over the whole long (finalizer of SplitMix64).
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		
 		builder.append(String.format("Assetname: %s", this.assetname)).append(System.lineSeparator());
-		builder.append("Channels: ").append(System.lineSeparator());
 		
-		for(Entry<String, OMFChannel> entry: this.channels.entrySet()) {
-			builder.append(entry.getValue().toString());
+		if(this.dataFragment != null) {
+			builder.append(String.format("Data: %s", getDataValuesJSON())).append(System.lineSeparator());
+		}
+		else {
+			builder.append("Channels: ").append(System.lineSeparator());
+			
+			for(Entry<String, OMFChannel> entry: this.channels.entrySet()) {
+				builder.append(entry.getValue().toString());
+			}
 		}
 		
 		builder.append("Data Values: ").append(System.lineSeparator());
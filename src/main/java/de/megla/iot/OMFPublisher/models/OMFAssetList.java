@@ -11,11 +11,16 @@
  *******************************************************************************/
 package de.megla.iot.OMFPublisher.models;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
 
-import org.eclipse.kura.internal.wire.asset.WireAssetConstants;
 import org.eclipse.kura.type.TypedValue;
 import org.eclipse.kura.wire.WireRecord;
 import org.slf4j.Logger;
@@ -31,12 +36,10 @@ import de.megla.iot.OMFPublisher.StringExtensions;
 public class OMFAssetList extends ArrayList<OMFAsset> {
 	private static final Logger logger =  LoggerFactory.getLogger(OMFValidator.class);
 	
-    //Keys to get information from the wireRecords
-    private static final String ASSET_NAME_PROPERTY_KEY = WireAssetConstants.PROP_ASSET_NAME.value().toString();
-    private static final String SINGLE_TIMESTAMP_NAME = WireAssetConstants.PROP_SINGLE_TIMESTAMP_NAME.value().toString();
-    private static final String SUFFIX_TIMESTAMP = WireAssetConstants.PROP_SUFFIX_TIMESTAMP.value().toString();
-    
     private OMFPublisherOptions omfPublisherOptions;
+    private byte[] dataMessage;
+    private volatile OMFCompressedDataMessage compressedData;
+    private long receivedAt = System.currentTimeMillis();
     
     /**
      * Constructor
@@ -46,114 +49,319 @@ public class OMFAssetList extends ArrayList<OMFAsset> {
     }    
     
     /**
-     * Adds asset form a WireRecord.
+     * Adds asset form a WireRecord. The record is extracted with the plan of its property keys.
      */
 	public void addAssetFromWireRecord(WireRecord wireRecord) {
 		Map<String, TypedValue<?>> wireRecordProps = wireRecord.getProperties();
+		OMFExtractionPlan plan = OMFExtractionPlan.forKeys(wireRecordProps.keySet());
 		
 		//Name is necessary for OMF target
-		if(!wireRecordProps.containsKey(ASSET_NAME_PROPERTY_KEY))
-			throw new NullPointerException("Wirerecord does not contain assetname information");
+		String assetname = plan.getAssetname(wireRecordProps);
 		
-		if(OMFValidator.checkWireRecordForForbiddenType(wireRecord)) {
+		if(plan.hasForbiddenType(wireRecordProps)) {
     		logger.info("A channel with the datatype byte array is configured. Byte array is not supported.");
     		return;
 		}
-		
-    	String assetname = (String)wireRecord.getProperties().get(ASSET_NAME_PROPERTY_KEY).getValue();
-    	assetname = StringExtensions.convertToOmfString(assetname);
 	
-    	if(!this.containsAsset(assetname))
- 			this.add(new OMFAsset(assetname,this.omfPublisherOptions));
-    	
-    	OMFAsset newAsset = this.getAsset(assetname);
+		OMFAsset newAsset = findAsset(assetname);
+		if(newAsset == null) {
+			newAsset = new OMFAsset(assetname,this.omfPublisherOptions);
+			this.add(newAsset);
+		}
     	
-		//single timestamp or channel timestamp
-		if(wireRecordProps.containsKey(SINGLE_TIMESTAMP_NAME))
-			for (Map.Entry<String, TypedValue<?>> entry : wireRecordProps.entrySet())
-		        extractAssetWithSingleTimestamp(wireRecord, newAsset, entry);
-		else			
-			for (Map.Entry<String, TypedValue<?>> entry : wireRecordProps.entrySet())
-				extractAssetWithChannelTimestamp(wireRecord, newAsset, entry);
+		plan.extract(wireRecordProps, newAsset, this.omfPublisherOptions);
 		
+		newAsset.updateSchemaFingerprint();
 	}
 	
 	/**
-	 * Checks if the list contains a asset with the specified name.
+	 * Adds one value of a channel, for example from a history file. The value is added to the last asset of the list,
+	 * if it has the same name and time stamp and does not contain the channel yet. Otherwise a new asset is added,
+	 * so the list can contain several time stamps of the same asset.
 	 */
-	public boolean containsAsset(String assetName) {
-		boolean result = false;
+	public void addValue(String assetname, String channelname, Date timestamp, TypedValue<?> value) {
+		// if there is value which is not serializable with JSON jump over this value
+		if(OMFValidator.isSpecialFloatingPointValue(value))
+			return;
 		
-		result = this.stream().filter(x -> x.getAssetname().equals(assetName)).count() > 0;
+		assetname = StringExtensions.convertToOmfString(assetname);
+		channelname = StringExtensions.convertToOmfString(channelname);
 		
-		return result;		
+		OMFAsset asset = this.isEmpty() ? null : this.get(this.size() - 1);
+		
+		if(asset == null || !asset.getAssetname().equals(assetname) || asset.getChannels().containsKey(channelname)
+				|| !asset.getChannels().values().stream().allMatch(x -> timestamp.equals(x.getTimestamp()))) {
+			asset = new OMFAsset(assetname, this.omfPublisherOptions);
+			this.add(asset);
+		}
+		
+		OMFChannel channel = new OMFChannel(channelname, this.omfPublisherOptions, asset);
+		channel.setTimestamp(timestamp);
+		channel.setTypedValue(value);
+		asset.getChannels().put(channelname, channel);
+		
+		asset.updateSchemaFingerprint();
 	}
 	
 	/**
-	 * Return a asset with the specified name.
+	 * Returns the data message of this list in UTF-8. If the data of every asset was serialized when it was received, 
+	 * the fragments are concatenated for every request, so the list does not keep the message a second time.
+	 * Otherwise the message is serialized by the first caller only, so that all targets share the same message.
 	 */
-	public OMFAsset getAsset(String assetName) {
-		return this.stream().filter(x -> x.getAssetname().equals(assetName)).findFirst().get();
+	public synchronized byte[] getDataMessage(Function<OMFAssetList, String> serializer) {
+		if(hasDataFragments())
+			return concatenateDataFragments();
+		
+		if(this.dataMessage == null)
+			this.dataMessage = serializer.apply(this).getBytes(StandardCharsets.UTF_8);
+		
+		return this.dataMessage;
+	}
+	
+	/**
+	 * Serializes the data of every asset into an immutable fragment, so the message only has to be concatenated when it is sent.
+	 * Afterwards the assets only keep the fragments and the names and data types of their channels.
+	 */
+	public void freezeDataFragments() {
+		for(OMFAsset asset : this)
+			asset.freezeDataFragment();
 	}
 	
 	/**
-	 * Extracts a asset with a channel time stamp from a WireRecord into a OMFAsset.
+	 * True if the data of every asset was serialized into a fragment.
 	 */
-	private void extractAssetWithChannelTimestamp(final WireRecord dataRecord, OMFAsset asset,
-			Map.Entry<String, TypedValue<?>> entry) {
-		String key=entry.getKey();
+	private boolean hasDataFragments() {
+		for(OMFAsset asset : this)
+			if(asset.getDataFragment() == null)
+				return false;
 		
-		if(key.contains(SUFFIX_TIMESTAMP)){
-			
-			// if there is value which is not serializable with JSON jump over this entry
-			if(OMFValidator.isSpecialFloatingPointValue(entry.getValue()))
-				return;
-			
-			String channelname=key.replace(SUFFIX_TIMESTAMP, "");
-			channelname = StringExtensions.convertToOmfString(channelname);
+		return true;
+	}
+	
+	/**
+	 * Concatenates the fragments of all assets to an array in the format [a,b,c,...].
+	 */
+	private byte[] concatenateDataFragments() {
+		return joinDataFragments(true);
+	}
+	
+	/**
+	 * Returns the fragments of all assets separated by "," without the array brackets, 
+	 * or null if the data of an asset was not serialized into a fragment.
+	 */
+	public byte[] getDataFragmentContent() {
+		return hasDataFragments() ? joinDataFragments(false) : null;
+	}
+	
+	/**
+	 * Joins the fragments of all assets with ",". Empty fragments are left out.
+	 */
+	private byte[] joinDataFragments(boolean brackets) {
+		int size = 2;
+		for(OMFAsset asset : this)
+			size += asset.getDataFragment().length + 1;
+		
+		ByteBuffer message = ByteBuffer.allocate(size);
+		if(brackets)
+			message.put((byte) '[');
+		int start = message.position();
+		
+		for(OMFAsset asset : this) {
+			byte[] fragment = asset.getDataFragment();
+			if(fragment.length == 0)
+				continue;
 			
-			//Add channel if it is not already created
-			if(!asset.getChannels().containsKey(channelname)){
-				OMFChannel newchannel=new OMFChannel(channelname,this.omfPublisherOptions, asset);
-				asset.getChannels().put(channelname, newchannel);
-			}
+			if(message.position() > start)
+				message.put((byte) ',');
+			message.put(fragment);
+		}
+		
+		if(brackets)
+			message.put((byte) ']');
+		return Arrays.copyOf(message.array(), message.position());
+	}
+	
+	/**
+	 * Returns the data message, which was compressed in the background after the data was received, 
+	 * or null if it was not compressed yet.
+	 */
+	public byte[] getCompressedDataMessage() {
+		OMFCompressedDataMessage compressed = this.compressedData;
+		return compressed != null ? compressed.toBytes() : null;
+	}
+	
+	/**
+	 * Returns the compressed members of the data message, or null if it was not compressed yet.
+	 */
+	public OMFCompressedDataMessage getCompressedData() {
+		return this.compressedData;
+	}
+	
+	/**
+	 * Sets the compressed members of the data message. They must decompress to the data message of this list.
+	 */
+	public void setCompressedData(OMFCompressedDataMessage compressedData) {
+		this.compressedData = compressedData;
+	}
+	
+	/**
+	 * Returns the time in milliseconds, when the data of this list was received.
+	 */
+	public long getReceivedAt() {
+		return this.receivedAt;
+	}
+	
+	/**
+	 * Returns the oldest source timestamp of all channels in milliseconds, 0 if the list has no channels.
+	 */
+	public long getOldestSourceTimestamp() {
+		long result = Long.MAX_VALUE;
+		
+		for(OMFAsset asset : this)
+			result = Math.min(result, asset.getOldestTimestamp());
+		
+		return result == Long.MAX_VALUE ? 0 : result;
+	}
+	
+	/**
+	 * Sets the time in milliseconds, when the data of this list was received.
+	 */
+	void setReceivedAt(long receivedAt) {
+		this.receivedAt = receivedAt;
+	}
+	
+	/**
+	 * Returns a new list with the channels, which match the filter. Assets without matching channels are left out,
+	 * assets with only matching channels are shared with this list. The new list has the same receive time.
+	 */
+	public OMFAssetList selectChannels(BiPredicate<OMFAsset, OMFChannel> filter) {
+		OMFAssetList result = newPart();
+		
+		for(OMFAsset asset : this) {
+			List<String> channelnames = new ArrayList<>();
 			
-			OMFChannel channel=asset.getChannels().get(channelname);
-			TypedValue<?> typedTimestamp= dataRecord.getProperties().get(key);
+			for(Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet())
+				if(filter.test(asset, channelEntry.getValue()))
+					channelnames.add(channelEntry.getKey());
 			
-			channel.setTimestamp(new Date((Long)typedTimestamp.getValue()));	
-			channel.setTypedValue(dataRecord.getProperties().get(channelname));	
+			if(channelnames.size() == asset.getChannels().size())
+				result.add(asset);
+			else if(!channelnames.isEmpty())
+				result.add(asset.copyWithChannels(channelnames));
 		}
+		
+		return result;
 	}
-
+	
 	/**
-	 * Extracts a asset with a asset(single) time stamp from a WireRecord into a OMFAsset.
+	 * Splits the list into two halves in order to find a poison message by bisection. A list with only one asset 
+	 * is split by its channels. Returns an empty list, if the list cannot be split any further.
+	 * A merged list is split at the border of its compressed members, so both parts keep their compressed data.
 	 */
-	private void extractAssetWithSingleTimestamp(final WireRecord dataRecord, OMFAsset asset,
-			Map.Entry<String, TypedValue<?>> entry) {
-		String key=entry.getKey();
+	public List<OMFAssetList> split() {
+		List<OMFAssetList> result = new ArrayList<>();
 		
-		if(!(key.equals(SINGLE_TIMESTAMP_NAME) || key.equals(ASSET_NAME_PROPERTY_KEY))){
+		if(this.size() > 1) {
+			OMFCompressedDataMessage compressed = this.compressedData;
+			int half = this.size() / 2;
 			
-			// if there is value which is not serializable with JSON jump over this entry
-			if(OMFValidator.isSpecialFloatingPointValue(entry.getValue()))
-				return;
+			if(compressed != null && compressed.getAssetCount() == this.size() && compressed.getMemberBorderNearHalf() > 0)
+				half = compressed.getMemberBorderNearHalf();
 			
-			String channelname=key;
-			channelname = StringExtensions.convertToOmfString(channelname);
+			OMFAssetList first = newPart();
+			first.addAll(this.subList(0, half));
+			result.add(first);
 			
-			//Add channel if it is not already created
-			if(!asset.getChannels().containsKey(channelname)){
-				OMFChannel newchannel=new OMFChannel(channelname,this.omfPublisherOptions, asset);
-				asset.getChannels().put(channelname, newchannel);
-			}
+			OMFAssetList second = newPart();
+			second.addAll(this.subList(half, this.size()));
+			result.add(second);
 			
-			OMFChannel channel=asset.getChannels().get(channelname);
-			TypedValue<?> typedTimestamp = dataRecord.getProperties().get(SINGLE_TIMESTAMP_NAME);
+			if(compressed != null && compressed.getAssetCount() == this.size()) {
+				first.compressedData = compressed.slice(0, half);
+				second.compressedData = compressed.slice(half, this.size());
+			}
+		}
+		else if(this.size() == 1 && this.get(0).getChannels().size() > 1) {
 			
-			channel.setTimestamp(new Date((Long)typedTimestamp.getValue()));
-			channel.setTypedValue(dataRecord.getProperties().get(key));	
+			for(OMFAsset asset : this.get(0).splitChannels()) {
+				OMFAssetList part = newPart();
+				part.add(asset);
+				result.add(part);
+			}
 		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns a new list with the assets of this list followed by the assets of the other lists, 
+	 * so several messages can be sent in one request. The new list has the receive time of this list.
+	 * If all lists were compressed, the new list joins their compressed members.
+	 */
+	public OMFAssetList merge(List<OMFAssetList> others) {
+		OMFAssetList result = newPart();
+		result.addAll(this);
+		
+		List<OMFCompressedDataMessage> otherCompressedData = new ArrayList<>();
+		for(OMFAssetList other : others) {
+			result.addAll(other);
+			otherCompressedData.add(other.compressedData);
+		}
+		
+		if(this.compressedData != null)
+			result.compressedData = this.compressedData.merge(otherCompressedData);
+		
+		return result;
+	}
+	
+	/**
+	 * Creates an empty list for a part of this list with the same options and receive time.
+	 */
+	private OMFAssetList newPart() {
+		OMFAssetList part = new OMFAssetList(this.omfPublisherOptions);
+		part.receivedAt = this.receivedAt;
+		return part;
+	}
+	
+	/**
+	 * Returns the amount of channel values of all assets.
+	 */
+	public int getValueCount() {
+		int result = 0;
+		
+		for(OMFAsset asset : this)
+			result += asset.getChannels().size();
+		
+		return result;
+	}
+	
+	/**
+	 * Checks if the list contains a asset with the specified name.
+	 */
+	public boolean containsAsset(String assetName) {
+		boolean result = false;
+		
+		result = this.stream().filter(x -> x.getAssetname().equals(assetName)).count() > 0;
+		
+		return result;		
+	}
+	
+	/**
+	 * Return a asset with the specified name.
+	 */
+	public OMFAsset getAsset(String assetName) {
+		return this.stream().filter(x -> x.getAssetname().equals(assetName)).findFirst().get();
+	}
+	
+	/**
+	 * Returns the asset with the specified name, or null if the list does not contain it.
+	 */
+	private OMFAsset findAsset(String assetName) {
+		for(OMFAsset asset : this)
+			if(asset.getAssetname().equals(assetName))
+				return asset;
+		
+		return null;
 	}
 	
 	@Override
@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.kura.type.DataType;
+import org.eclipse.kura.type.TypedValue;
+import org.eclipse.kura.type.TypedValues;
+
+import de.megla.iot.OMFPublisher.OMFPublisherOptions;
+
+/**
+ * OMFAssetListCodec.java
+ *
+ * Encodes an asset list into a compact binary record and decodes it again. A record contains the receive time, 
+ * and for every asset its name and channels with name, timestamp, data type and value:
+ * <pre>
+ * long receivedAt, int assetCount, { UTF assetname, int channelCount, { UTF channelname, long timestamp, byte type, value } }
+ * </pre>
+ * The data of an asset, which was serialized into a fragment, is kept as fragment. The negated channel count + 1 marks 
+ * such an asset, which is followed by the name and data type of its channels, the oldest timestamp, the channels 
+ * of its schema version if the type mode is ASSET and the fragment:
+ * <pre>
+ * UTF assetname, int -(channelCount + 1), { UTF channelname, byte type }, long oldestTimestamp, 
+ * int schemaChannelCount, { UTF channelname, byte type }, int length, byte[length] fragment
+ * </pre>
+ * If the data message was compressed in the background, the compressed members follow the assets, so the list does
+ * not have to be compressed again after it was decoded. Records without members are decoded without compressed data:
+ * <pre>
+ * bytes openMember, bytes separatorMember, bytes closeMember, int memberCount, { int assetCount, bytes content }
+ * </pre>
+ * where bytes is an int length followed by the bytes.
+ */
+public class OMFAssetListCodec {
+	/**
+	 * <b>TYPE_*</b>	code of a data type in the record, independent of the order of the Kura data types
+	 */
+	private static final byte TYPE_BOOLEAN = 1;
+	private static final byte TYPE_BYTE_ARRAY = 2;
+	private static final byte TYPE_DOUBLE = 3;
+	private static final byte TYPE_FLOAT = 4;
+	private static final byte TYPE_INTEGER = 5;
+	private static final byte TYPE_LONG = 6;
+	private static final byte TYPE_STRING = 7;
+	
+	/**
+	 * Encodes the asset list into a binary record.
+	 */
+	public static byte[] encode(OMFAssetList assetList) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + assetList.getValueCount() * 32);
+		
+		try(DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeLong(assetList.getReceivedAt());
+			out.writeInt(assetList.size());
+			
+			for(OMFAsset asset : assetList) {
+				out.writeUTF(asset.getAssetname());
+				
+				if(asset.isFrozen()) {
+					writeFrozenAsset(out, asset);
+					continue;
+				}
+				
+				out.writeInt(asset.getChannels().size());
+				
+				for(Map.Entry<String, OMFChannel> channelEntry : asset.getChannels().entrySet()) {
+					out.writeUTF(channelEntry.getKey());
+					out.writeLong(channelEntry.getValue().getTimestamp().getTime());
+					writeValue(out, channelEntry.getValue().getTypedValue());
+				}
+			}
+			
+			OMFCompressedDataMessage compressedData = assetList.getCompressedData();
+			if(compressedData != null)
+				writeCompressedData(out, compressedData);
+		} catch(IOException ex) {
+			throw new IllegalStateException("Asset list could not be encoded", ex);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Decodes a binary record into a new asset list with the specified options. If the type mode is ASSET, 
+	 * the assets are registered in the schemas of the target.
+	 * @param schemas latest version of the schema of every asset of the target by the ID of its static type
+	 */
+	public static OMFAssetList decode(byte[] record, OMFPublisherOptions omfPublisherOptions, Map<String, OMFAssetSchema> schemas) {
+		try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+			OMFAssetList assetList = new OMFAssetList(omfPublisherOptions);
+			assetList.setReceivedAt(in.readLong());
+			
+			int assetCount = in.readInt();
+			for(int i = 0; i < assetCount; i++) {
+				OMFAsset asset = new OMFAsset(in.readUTF(), omfPublisherOptions);
+				
+				int channelCount = in.readInt();
+				if(channelCount < 0) {
+					readFrozenAsset(in, asset, -channelCount - 1, omfPublisherOptions, schemas);
+					assetList.add(asset);
+					continue;
+				}
+				
+				for(int j = 0; j < channelCount; j++) {
+					OMFChannel channel = new OMFChannel(in.readUTF(), omfPublisherOptions, asset);
+					channel.setTimestamp(new Date(in.readLong()));
+					channel.setTypedValue(readValue(in));
+					asset.getChannels().put(channel.getChannelname(), channel);
+				}
+				
+				asset.updateSchemaFingerprint();
+				
+				if(omfPublisherOptions.getTypeMode() == OMFTypeMode.ASSET)
+					asset.registerValuesSchema(schemas);
+				
+				assetList.add(asset);
+			}
+			
+			if(in.available() > 0)
+				assetList.setCompressedData(readCompressedData(in));
+			
+			return assetList;
+		} catch(IOException ex) {
+			throw new IllegalStateException("Asset list could not be decoded", ex);
+		}
+	}
+	
+	/**
+	 * Writes the channels, the oldest timestamp, the schema version and the fragment of an asset, which was serialized.
+	 */
+	private static void writeFrozenAsset(DataOutputStream out, OMFAsset asset) throws IOException {
+		out.writeInt(-asset.getChannels().size() - 1);
+		writeDefinitions(out, asset.getChannels().values());
+		out.writeLong(asset.getOldestTimestamp());
+		
+		OMFAssetSchema schema = asset.getComputedValuesSchema();
+		if(schema == null)
+			out.writeInt(0);
+		else {
+			out.writeInt(schema.getChannels().size());
+			writeDefinitions(out, schema.getChannels());
+		}
+		
+		byte[] fragment = asset.getDataValuesJSON().getBytes(StandardCharsets.UTF_8);
+		out.writeInt(fragment.length);
+		out.write(fragment);
+	}
+	
+	/**
+	 * Reads the channels, the oldest timestamp, the schema version and the fragment of an asset, which was serialized.
+	 */
+	private static void readFrozenAsset(DataInputStream in, OMFAsset asset, int channelCount, OMFPublisherOptions omfPublisherOptions, 
+			Map<String, OMFAssetSchema> schemas) throws IOException {
+		for(OMFChannel channel : readDefinitions(in, channelCount, asset, omfPublisherOptions))
+			asset.getChannels().put(channel.getChannelname(), channel);
+		
+		asset.updateSchemaFingerprint();
+		long oldestTimestamp = in.readLong();
+		
+		List<OMFChannel> schemaChannels = readDefinitions(in, in.readInt(), null, omfPublisherOptions);
+		OMFAssetSchema schema = schemaChannels.isEmpty() ? null : OMFAssetSchema.restore(schemas, asset.getTypeID(), schemaChannels);
+		
+		byte[] fragment = new byte[in.readInt()];
+		in.readFully(fragment);
+		asset.restoreDataFragment(fragment, oldestTimestamp, schema);
+	}
+	
+	/**
+	 * Writes the compressed brackets, separator and members of a data message.
+	 */
+	private static void writeCompressedData(DataOutputStream out, OMFCompressedDataMessage compressedData) throws IOException {
+		writeBytes(out, compressedData.getOpenMember());
+		writeBytes(out, compressedData.getSeparatorMember());
+		writeBytes(out, compressedData.getCloseMember());
+		
+		List<Integer> assetCounts = compressedData.getMemberAssetCounts();
+		List<byte[]> contents = compressedData.getMemberContents();
+		out.writeInt(contents.size());
+		
+		for(int i = 0; i < contents.size(); i++) {
+			out.writeInt(assetCounts.get(i));
+			writeBytes(out, contents.get(i));
+		}
+	}
+	
+	/**
+	 * Reads the compressed brackets, separator and members of a data message.
+	 */
+	private static OMFCompressedDataMessage readCompressedData(DataInputStream in) throws IOException {
+		byte[] openMember = readBytes(in);
+		byte[] separatorMember = readBytes(in);
+		byte[] closeMember = readBytes(in);
+		
+		int memberCount = in.readInt();
+		List<Integer> assetCounts = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		
+		for(int i = 0; i < memberCount; i++) {
+			assetCounts.add(in.readInt());
+			contents.add(readBytes(in));
+		}
+		
+		return OMFCompressedDataMessage.of(openMember, separatorMember, closeMember, assetCounts, contents);
+	}
+	
+	/**
+	 * Writes the length and the bytes.
+	 */
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads the length and the bytes.
+	 */
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] result = new byte[in.readInt()];
+		in.readFully(result);
+		return result;
+	}
+	
+	/**
+	 * Writes the name and the code of the data type of every channel.
+	 */
+	private static void writeDefinitions(DataOutputStream out, Collection<OMFChannel> channels) throws IOException {
+		for(OMFChannel channel : channels) {
+			out.writeUTF(channel.getChannelname());
+			out.writeByte(typeCode(channel.getTypedValue().getType()));
+		}
+	}
+	
+	/**
+	 * Reads the name and the code of the data type of the channels and creates channels without values.
+	 */
+	private static List<OMFChannel> readDefinitions(DataInputStream in, int channelCount, OMFAsset asset, OMFPublisherOptions omfPublisherOptions) throws IOException {
+		List<OMFChannel> result = new ArrayList<>();
+		
+		for(int i = 0; i < channelCount; i++) {
+			String channelname = in.readUTF();
+			result.add(OMFChannel.definitionOf(channelname, dataType(in.readByte()), omfPublisherOptions, asset));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the code of a data type.
+	 */
+	private static byte typeCode(DataType type) {
+		if(type == DataType.BOOLEAN)
+			return TYPE_BOOLEAN;
+		if(type == DataType.DOUBLE)
+			return TYPE_DOUBLE;
+		if(type == DataType.FLOAT)
+			return TYPE_FLOAT;
+		if(type == DataType.INTEGER)
+			return TYPE_INTEGER;
+		if(type == DataType.LONG)
+			return TYPE_LONG;
+		if(type == DataType.BYTE_ARRAY)
+			return TYPE_BYTE_ARRAY;
+		
+		return TYPE_STRING;
+	}
+	
+	/**
+	 * Returns the data type of a code.
+	 */
+	private static DataType dataType(byte code) throws IOException {
+		switch(code) {
+		case TYPE_BOOLEAN:
+			return DataType.BOOLEAN;
+		case TYPE_DOUBLE:
+			return DataType.DOUBLE;
+		case TYPE_FLOAT:
+			return DataType.FLOAT;
+		case TYPE_INTEGER:
+			return DataType.INTEGER;
+		case TYPE_LONG:
+			return DataType.LONG;
+		case TYPE_BYTE_ARRAY:
+			return DataType.BYTE_ARRAY;
+		case TYPE_STRING:
+			return DataType.STRING;
+		default:
+			throw new IOException("Unknown data type code " + code);
+		}
+	}
+	
+	/**
+	 * Writes the code of the data type and the value.
+	 */
+	private static void writeValue(DataOutputStream out, TypedValue<?> typedValue) throws IOException {
+		Object value = typedValue.getValue();
+		DataType type = typedValue.getType();
+		
+		if(type == DataType.BOOLEAN) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if(type == DataType.DOUBLE) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if(type == DataType.FLOAT) {
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if(type == DataType.INTEGER) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt((Integer) value);
+		} else if(type == DataType.LONG) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if(type == DataType.BYTE_ARRAY) {
+			byte[] array = (byte[]) value;
+			out.writeByte(TYPE_BYTE_ARRAY);
+			out.writeInt(array.length);
+			out.write(array);
+		} else {
+			//Strings may be longer than writeUTF allows
+			byte[] string = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+			out.writeByte(TYPE_STRING);
+			out.writeInt(string.length);
+			out.write(string);
+		}
+	}
+	
+	/**
+	 * Reads the code of the data type and the value.
+	 */
+	private static TypedValue<?> readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		
+		switch(type) {
+		case TYPE_BOOLEAN:
+			return TypedValues.newBooleanValue(in.readBoolean());
+		case TYPE_DOUBLE:
+			return TypedValues.newDoubleValue(in.readDouble());
+		case TYPE_FLOAT:
+			return TypedValues.newFloatValue(in.readFloat());
+		case TYPE_INTEGER:
+			return TypedValues.newIntegerValue(in.readInt());
+		case TYPE_LONG:
+			return TypedValues.newLongValue(in.readLong());
+		case TYPE_BYTE_ARRAY:
+			byte[] array = new byte[in.readInt()];
+			in.readFully(array);
+			return TypedValues.newByteArrayValue(array);
+		case TYPE_STRING:
+			byte[] string = new byte[in.readInt()];
+			in.readFully(string);
+			return TypedValues.newStringValue(new String(string, StandardCharsets.UTF_8));
+		default:
+			throw new IOException("Unknown data type code " + type);
+		}
+	}
+}
@@ -11,10 +11,458 @@
  *******************************************************************************/
 package de.megla.iot.OMFPublisher.models;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.megla.iot.OMFPublisher.OMFPublisherOptions;
 
 
 /**
  * OMFAssetListQueue.java
+ * 
+ * Queue of the in-flight messages with one FIFO lane for high priority, live and backlog data.
+ * The next message is taken from the lanes by smooth weighted round robin, so live data overtakes the backlog
+ * after an outage without starving it. Live messages which are older than the max live age move to the backlog.
+ * A selected message stays the next message until it is removed or replaced.
+ * Messages in the backlog lane are encoded into binary records in an off-heap arena, so a large backlog
+ * does not keep the object graph of every asset and channel on the heap. They are decoded again when they are selected.
+ * Channels of which only the latest value matters are conflated: a newer value replaces the waiting value of the same channel,
+ * so the queue does not grow for these channels during an outage.
  */
-public class OMFAssetListQueue extends LinkedList<OMFAssetList> {}
+public class OMFAssetListQueue {
+	/**
+	 * <b>lanes</b>				entries of every lane, the oldest first
+	 * <b>weights</b>			share of the sending of every lane
+	 * <b>currentWeights</b>	current weights of the smooth weighted round robin
+	 * <b>liveMaxAge</b>		max age in milliseconds of a live message, before it moves to the backlog
+	 * <b>selectedLane</b>		lane of the selected message, null if no message is selected
+	 * <b>selected</b>			selected message, which is sent next
+	 * <b>omfPublisherOptions</b>	options of the messages, which are decoded from the arena
+	 * <b>assetSchemas</b>		schemas of the target, in which the assets of the decoded messages are registered
+	 * <b>arena</b>				off-heap memory of the encoded backlog messages
+	 * <b>conflations</b>		conflated entry of every lane, which still takes newer values
+	 * <b>MEGABYTE</b>			bytes of one megabyte
+	 */
+	private final Map<OMFQueueLane, LinkedList<Entry>> lanes = new EnumMap<>(OMFQueueLane.class);
+	private final Map<OMFQueueLane, Integer> weights = new EnumMap<>(OMFQueueLane.class);
+	private final Map<OMFQueueLane, Integer> currentWeights = new EnumMap<>(OMFQueueLane.class);
+	private long liveMaxAge;
+	private OMFQueueLane selectedLane;
+	private OMFAssetList selected;
+	private OMFPublisherOptions omfPublisherOptions;
+	private Map<String, OMFAssetSchema> assetSchemas = new ConcurrentHashMap<>();
+	private final OMFOffHeapArena arena;
+	private final Map<OMFQueueLane, Entry> conflations = new EnumMap<>(OMFQueueLane.class);
+	
+	private static final long MEGABYTE = 1024L * 1024L;
+	
+	/**
+	 * Constructor which sets the weights of the lanes, the max live age and the capacity of the off-heap arena.
+	 */
+	public OMFAssetListQueue(OMFPublisherOptions omfPublisherOptions) {
+		this.arena = new OMFOffHeapArena(omfPublisherOptions.getOffHeapQueueCapacity() * MEGABYTE);
+		
+		for(OMFQueueLane lane : OMFQueueLane.values()) {
+			this.lanes.put(lane, new LinkedList<>());
+			this.currentWeights.put(lane, 0);
+		}
+		
+		setOptions(omfPublisherOptions);
+	}
+	
+	/**
+	 * Changes the weights of the lanes, the max live age and the capacity of the off-heap arena. The messages are kept.
+	 */
+	public synchronized void setOptions(OMFPublisherOptions omfPublisherOptions) {
+		this.omfPublisherOptions = omfPublisherOptions;
+		this.arena.setCapacity(omfPublisherOptions.getOffHeapQueueCapacity() * MEGABYTE);
+		this.weights.put(OMFQueueLane.HIGH_PRIORITY, Math.max(omfPublisherOptions.getHighPriorityLaneWeight(), 1));
+		this.weights.put(OMFQueueLane.LIVE, Math.max(omfPublisherOptions.getLiveLaneWeight(), 1));
+		this.weights.put(OMFQueueLane.BACKLOG, Math.max(omfPublisherOptions.getBacklogLaneWeight(), 1));
+		this.liveMaxAge = omfPublisherOptions.getLiveMaxAge() * 1000L;
+	}
+	
+	/**
+	 * Sets the schemas of the target, in which the assets of the decoded messages are registered.
+	 */
+	public synchronized void setAssetSchemas(Map<String, OMFAssetSchema> assetSchemas) {
+		this.assetSchemas = assetSchemas;
+	}
+	
+	/**
+	 * Adds a message at the end of a lane.
+	 */
+	public synchronized void add(OMFAssetList assetList, OMFQueueLane lane) {
+		demoteOldLiveMessages();
+		addLast(new Entry(assetList), lane);
+	}
+	
+	/**
+	 * Adds the values of channels, of which only the latest value is sent. A value replaces the waiting value of the same channel
+	 * in place. The waiting values of a lane are collected in one entry at the position of the oldest value, 
+	 * which becomes a message when it is selected. Newer values are collected in a new entry at the end of the lane.
+	 * The entry, which takes the values, is not moved to the backlog, so the values of a lane stay in one entry of this lane.
+	 */
+	public synchronized void conflate(OMFAssetList assetList, OMFQueueLane lane) {
+		demoteOldLiveMessages();
+		
+		if(assetList.isEmpty())
+			return;
+		
+		Entry conflation = this.conflations.get(lane);
+		if(conflation == null) {
+			conflation = new Entry(new LinkedHashMap<>());
+			this.conflations.put(lane, conflation);
+			addLast(conflation, lane);
+		}
+		
+		for(OMFAsset asset : assetList) {
+			for(String channelname : asset.getChannels().keySet()) {
+				OMFAsset value = asset.getChannels().size() == 1 ? asset : asset.copyWithChannels(Collections.singletonList(channelname));
+				conflation.conflatedValues.put(asset.getAssetname() + "/" + channelname, value);
+			}
+		}
+	}
+	
+	/**
+	 * Adds messages at the end of a lane.
+	 */
+	public synchronized void addAll(Collection<OMFAssetList> assetLists, OMFQueueLane lane) {
+		for(OMFAssetList assetList : assetLists)
+			addLast(new Entry(assetList), lane);
+	}
+	
+	/**
+	 * Returns the message, which is sent next, or null if the queue is empty.
+	 */
+	public synchronized OMFAssetList peek() {
+		return peek(EnumSet.allOf(OMFQueueLane.class));
+	}
+	
+	/**
+	 * Returns the message of the allowed lanes, which is sent next, or null if these lanes are empty.
+	 * If the selected message is not in an allowed lane, it stays at the head of its lane and another message is selected.
+	 */
+	public synchronized OMFAssetList peek(Set<OMFQueueLane> allowedLanes) {
+		if(this.selected != null && !allowedLanes.contains(this.selectedLane)) {
+			this.selected = null;
+			this.selectedLane = null;
+		}
+		
+		if(this.selected == null)
+			select(allowedLanes);
+		
+		return this.selected;
+	}
+	
+	/**
+	 * Removes the selected message after it was sent.
+	 */
+	public synchronized void remove(OMFAssetList assetList) {
+		if(this.selected != assetList)
+			return;
+		
+		this.lanes.get(this.selectedLane).removeFirst();
+		this.selected = null;
+		this.selectedLane = null;
+	}
+	
+	/**
+	 * Replaces the selected message by its parts, which are sent next in the same lane.
+	 */
+	public synchronized void replace(OMFAssetList assetList, List<OMFAssetList> parts) {
+		if(this.selected != assetList)
+			return;
+		
+		LinkedList<Entry> lane = this.lanes.get(this.selectedLane);
+		lane.removeFirst();
+		
+		for(int i = parts.size() - 1; i >= 0; i--)
+			lane.addFirst(new Entry(parts.get(i)));
+		
+		this.selected = parts.isEmpty() ? null : parts.get(0);
+		if(this.selected == null)
+			this.selectedLane = null;
+	}
+	
+	/**
+	 * Merges the message, which is sent next, with the following messages of its lane into one message 
+	 * with at most maxValues values, so they are sent in one request. Returns the merged message, which is selected.
+	 */
+	public synchronized OMFAssetList mergeNext(int maxValues) {
+		OMFAssetList first = peek();
+		if(first == null)
+			return null;
+		
+		LinkedList<Entry> lane = this.lanes.get(this.selectedLane);
+		Iterator<Entry> entries = lane.iterator();
+		int valueCount = entries.next().getValueCount();
+		
+		List<Entry> following = new ArrayList<>();
+		while(entries.hasNext()) {
+			Entry entry = entries.next();
+			if(valueCount + entry.getValueCount() > maxValues)
+				break;
+			
+			valueCount += entry.getValueCount();
+			following.add(entry);
+		}
+		
+		if(following.isEmpty())
+			return first;
+		
+		List<OMFAssetList> others = new ArrayList<>();
+		for(Entry entry : following)
+			others.add(entry.getAssetList());
+		
+		OMFAssetList merged = first.merge(others);
+		lane.subList(0, following.size() + 1).clear();
+		lane.addFirst(new Entry(merged));
+		this.selected = merged;
+		
+		return merged;
+	}
+	
+	/**
+	 * Removes all messages and returns them as binary records of every lane, the oldest first.
+	 * Messages in the off-heap arena are not decoded.
+	 */
+	public synchronized Map<OMFQueueLane, List<byte[]>> exportRecords() {
+		Map<OMFQueueLane, List<byte[]>> result = new EnumMap<>(OMFQueueLane.class);
+		
+		for(Map.Entry<OMFQueueLane, LinkedList<Entry>> lane : this.lanes.entrySet()) {
+			List<byte[]> records = new ArrayList<>();
+			
+			for(Entry entry : lane.getValue())
+				records.add(entry.toRecord());
+			
+			result.put(lane.getKey(), records);
+			lane.getValue().clear();
+		}
+		
+		this.conflations.clear();
+		this.selected = null;
+		this.selectedLane = null;
+		return result;
+	}
+	
+	/**
+	 * Decodes the binary records of every lane and adds them at the end of the lane.
+	 */
+	public synchronized void importRecords(Map<OMFQueueLane, List<byte[]>> records) {
+		for(Map.Entry<OMFQueueLane, List<byte[]>> lane : records.entrySet())
+			for(byte[] record : lane.getValue())
+				addLast(new Entry(OMFAssetListCodec.decode(record, this.omfPublisherOptions, this.assetSchemas)), lane.getKey());
+	}
+	
+	/**
+	 * Returns the amount of messages in all lanes.
+	 */
+	public synchronized int size() {
+		int result = 0;
+		
+		for(LinkedList<Entry> lane : this.lanes.values())
+			result += lane.size();
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the amount of messages in a lane.
+	 */
+	public synchronized int size(OMFQueueLane lane) {
+		return this.lanes.get(lane).size();
+	}
+	
+	/**
+	 * Returns the amount of bytes of the messages in the off-heap arena.
+	 */
+	public synchronized long getOffHeapBytes() {
+		return this.arena.getUsedBytes();
+	}
+	
+	/**
+	 * True if all lanes are empty.
+	 */
+	public synchronized boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	/**
+	 * Moves old live messages to the backlog and selects the next message by smooth weighted round robin:
+	 * every non-empty allowed lane gains its weight, the lane with the highest current weight is selected and loses the total weight.
+	 */
+	private void select(Set<OMFQueueLane> allowedLanes) {
+		demoteOldLiveMessages();
+		
+		OMFQueueLane bestLane = null;
+		int totalWeight = 0;
+		
+		for(OMFQueueLane lane : OMFQueueLane.values()) {
+			//An empty lane does not save up weight
+			if(this.lanes.get(lane).isEmpty()) {
+				this.currentWeights.put(lane, 0);
+				continue;
+			}
+			
+			if(!allowedLanes.contains(lane))
+				continue;
+			
+			int weight = this.weights.get(lane);
+			this.currentWeights.put(lane, this.currentWeights.get(lane) + weight);
+			totalWeight += weight;
+			
+			if(bestLane == null || this.currentWeights.get(lane) > this.currentWeights.get(bestLane))
+				bestLane = lane;
+		}
+		
+		if(bestLane == null)
+			return;
+		
+		this.currentWeights.put(bestLane, this.currentWeights.get(bestLane) - totalWeight);
+		this.selectedLane = bestLane;
+		this.selected = this.lanes.get(bestLane).getFirst().getAssetList();
+	}
+	
+	/**
+	 * Moves the live messages, which are older than the max live age, to the end of the backlog.
+	 * The selected message and the conflated entry, which still takes newer values, stay in the live lane,
+	 * the old messages behind them are moved anyway.
+	 */
+	private void demoteOldLiveMessages() {
+		long oldest = System.currentTimeMillis() - this.liveMaxAge;
+		Iterator<Entry> entries = this.lanes.get(OMFQueueLane.LIVE).iterator();
+		
+		while(entries.hasNext()) {
+			Entry entry = entries.next();
+			if(entry.receivedAt >= oldest)
+				break;
+			
+			if(entry.isConflating() || (this.selected != null && entry.assetList == this.selected))
+				continue;
+			
+			entries.remove();
+			addLast(entry, OMFQueueLane.BACKLOG);
+		}
+	}
+	
+	/**
+	 * Adds an entry at the end of a lane. Entries of the backlog are moved to the off-heap arena, if it has space left.
+	 */
+	private void addLast(Entry entry, OMFQueueLane lane) {
+		if(lane == OMFQueueLane.BACKLOG)
+			entry.moveOffHeap();
+		
+		this.lanes.get(lane).addLast(entry);
+	}
+	
+	/**
+	 * A message of a lane, which is either on the heap, encoded in the off-heap arena or collected from conflated values.
+	 */
+	private class Entry {
+		private OMFAssetList assetList;
+		private OMFOffHeapArena.Record record;
+		private Map<String, OMFAsset> conflatedValues;
+		private final long receivedAt;
+		private int valueCount;
+		
+		Entry(OMFAssetList assetList) {
+			this.assetList = assetList;
+			this.receivedAt = assetList.getReceivedAt();
+			this.valueCount = assetList.getValueCount();
+		}
+		
+		/**
+		 * Constructor of an entry, which collects the latest value of every conflated channel.
+		 */
+		Entry(Map<String, OMFAsset> conflatedValues) {
+			this.conflatedValues = conflatedValues;
+			this.receivedAt = System.currentTimeMillis();
+		}
+		
+		/**
+		 * True if the entry is the conflated entry of a lane, which still takes newer values.
+		 */
+		boolean isConflating() {
+			return OMFAssetListQueue.this.conflations.containsValue(this);
+		}
+		
+		/**
+		 * Returns the amount of values of the message.
+		 */
+		int getValueCount() {
+			return this.conflatedValues != null ? this.conflatedValues.size() : this.valueCount;
+		}
+		
+		/**
+		 * Encodes the message into the arena. If the arena is full, the message stays on the heap.
+		 */
+		void moveOffHeap() {
+			if(this.assetList == null)
+				return;
+			
+			this.record = OMFAssetListQueue.this.arena.store(OMFAssetListCodec.encode(this.assetList));
+			if(this.record != null)
+				this.assetList = null;
+		}
+		
+		/**
+		 * Returns the message. An encoded message is decoded and released from the arena.
+		 */
+		OMFAssetList getAssetList() {
+			if(this.conflatedValues != null)
+				collectConflatedValues();
+			
+			if(this.assetList == null) {
+				this.assetList = OMFAssetListCodec.decode(this.record.readAndRelease(), 
+						OMFAssetListQueue.this.omfPublisherOptions, OMFAssetListQueue.this.assetSchemas);
+				this.record = null;
+			}
+			
+			return this.assetList;
+		}
+		
+		/**
+		 * Returns the message as binary record. An encoded message is released from the arena.
+		 */
+		byte[] toRecord() {
+			if(this.conflatedValues != null)
+				collectConflatedValues();
+			
+			if(this.record == null)
+				return OMFAssetListCodec.encode(this.assetList);
+			
+			byte[] result = this.record.readAndRelease();
+			this.record = null;
+			return result;
+		}
+		
+		/**
+		 * Creates the message from the conflated values. The entry does not take newer values afterwards.
+		 * Channels of the same asset and time stamp are combined to one asset.
+		 */
+		private void collectConflatedValues() {
+			OMFAssetList result = new OMFAssetList(OMFAssetListQueue.this.omfPublisherOptions);
+			result.setReceivedAt(this.receivedAt);
+			
+			for(OMFAsset asset : this.conflatedValues.values())
+				for(OMFChannel channel : asset.getChannels().values())
+					result.addValue(asset.getAssetname(), channel.getChannelname(), channel.getTimestamp(), channel.getTypedValue());
+			
+			this.assetList = result;
+			this.valueCount = result.getValueCount();
+			this.conflatedValues = null;
+			OMFAssetListQueue.this.conflations.values().remove(this);
+		}
+	}
+}
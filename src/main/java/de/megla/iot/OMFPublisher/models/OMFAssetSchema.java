@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.megla.iot.OMFPublisher.StringExtensions;
+
+/**
+ * OMFAssetSchema.java
+ *
+ * The OMFAssetSchema is the union of the value properties of all channels of an asset, which were received so far.
+ * It is used by the type mode ASSET for the dynamic type and the container of an asset. Messages which only contain
+ * a part of the channels, for example because values were skipped or split by priority, use the same schema, so the data
+ * of an asset stays in one container. Only a new channel or a new data type of a channel creates a new version of the schema.
+ * A schema is immutable, every version is a new object. The latest version of every asset is kept by the target publisher,
+ * so the versions of a target start again when its definitions are reset.
+ */
+public class OMFAssetSchema {
+	/**
+	 * <b>channels</b>			name and data type of every channel by its property name, sorted by name
+	 * <b>properties</b>		value property of every channel by its property name, sorted by name
+	 * <b>fingerprint</b>		hash over the names of all properties, which identifies the version
+	 */
+	private final Map<String, OMFChannel> channels;
+	private final Map<String, Property> properties;
+	private final long fingerprint;
+
+	/**
+	 * Constructor which sets the channels, creates their properties and computes the fingerprint.
+	 */
+	private OMFAssetSchema(Map<String, OMFChannel> channels) {
+		Map<String, Property> properties = new TreeMap<>();
+		for(Map.Entry<String, OMFChannel> channelEntry : channels.entrySet())
+			properties.put(channelEntry.getKey(), channelEntry.getValue().getValueProperty());
+
+		long result = properties.size();
+
+		//The sum is independent of the order of the properties
+		for(String propertyName : properties.keySet())
+			result += StringExtensions.hash64(propertyName) * 0x9e3779b97f4a7c15L;
+
+		this.channels = Collections.unmodifiableMap(channels);
+		this.properties = Collections.unmodifiableMap(properties);
+		this.fingerprint = result;
+	}
+
+	/**
+	 * Returns the latest schema of an asset, which contains all channels. If a channel is not contained yet,
+	 * a new version with the union of the previous properties and the channels is created.
+	 * @param schemas latest version of the schema of every asset by the ID of its static type
+	 */
+	public static OMFAssetSchema of(Map<String, OMFAssetSchema> schemas, String assetTypeID, Collection<OMFChannel> channels) {
+		return schemas.compute(assetTypeID, (key, current) -> {
+			if(current != null && current.containsAll(channels))
+				return current;
+
+			Map<String, OMFChannel> union = current != null ? new TreeMap<>(current.channels) : new TreeMap<>();
+			for(OMFChannel channel : channels)
+				union.computeIfAbsent(channel.getValuePropertyName(), propertyName -> channel.toDefinition(null));
+
+			return new OMFAssetSchema(union);
+		});
+	}
+
+	/**
+	 * Returns the version of a schema, which contains exactly the channels. It is not registered as latest version.
+	 */
+	public static OMFAssetSchema exactOf(Collection<OMFChannel> channels) {
+		Map<String, OMFChannel> version = new TreeMap<>();
+		for(OMFChannel channel : channels)
+			version.computeIfAbsent(channel.getValuePropertyName(), propertyName -> channel.toDefinition(null));
+
+		return new OMFAssetSchema(version);
+	}
+
+	/**
+	 * Returns the version of a schema, which contains exactly the channels, for example of a message which was serialized
+	 * with this version before. The channels are added to the latest schema of the asset as well.
+	 * @param schemas latest version of the schema of every asset by the ID of its static type
+	 */
+	public static OMFAssetSchema restore(Map<String, OMFAssetSchema> schemas, String assetTypeID, Collection<OMFChannel> channels) {
+		of(schemas, assetTypeID, channels);
+		return exactOf(channels);
+	}
+
+	/**
+	 * Returns the name and data type of every channel of the schema.
+	 */
+	public Collection<OMFChannel> getChannels() {
+		return this.channels.values();
+	}
+
+	/**
+	 * Returns the value properties of all channels by their property name.
+	 */
+	public Map<String, Property> getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Returns the fingerprint, which identifies the version of the schema.
+	 */
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+
+	/**
+	 * True if the schema contains the value properties of all channels.
+	 */
+	private boolean containsAll(Collection<OMFChannel> channels) {
+		for(OMFChannel channel : channels)
+			if(!this.properties.containsKey(channel.getValuePropertyName()))
+				return false;
+
+		return true;
+	}
+}
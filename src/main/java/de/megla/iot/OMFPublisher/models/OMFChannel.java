@@ -16,6 +16,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -23,6 +24,7 @@ import java.util.TimeZone;
 
 import org.eclipse.kura.type.DataType;
 import org.eclipse.kura.type.TypedValue;
+import org.eclipse.kura.type.TypedValues;
 
 import com.google.gson.Gson;
 
@@ -42,8 +44,11 @@ public class OMFChannel {
 	 * <b>typedValue</b> 			contains the value and its type of the channel
 	 * <b>timestamp</b> 			current timestamp when the channel is created 
 	 * <b>omfPublisherOptions</b> 	contains option-data for example the producertoken, hostname, targeturl
-	 * <b>dateFormatter</b> 		Formatter for the timestamp
+	 * <b>dateFormatter</b> 		Formatter for the timestamp, null until the timestamp is formatted
 	 * <b>MAX_ARRAY_ELEMENTS</b>	constant to define the max amount of elements which an array could contain
+	 * <b>SHARED_TYPE_PREFIX</b>	prefix of the ID of a type which is shared by all channels of a data type
+	 * <b>SHARED_VALUE_PROPERTY</b>	name of the value property of a shared type
+	 * <b>DEFINITION_VALUES</b>		value of every data type, which is used by the channels without value
 	 */
 	
 	private String channelname;
@@ -54,6 +59,19 @@ public class OMFChannel {
 	private SimpleDateFormat dateFormatter;  
 
 	private static final int MAX_ARRAY_ELEMENTS = 3;
+	private static final String SHARED_TYPE_PREFIX = "KuraIoTValue_";
+	private static final String SHARED_VALUE_PROPERTY = "Value";
+	private static final Map<DataType, TypedValue<?>> DEFINITION_VALUES = new EnumMap<>(DataType.class);
+	
+	static {
+		DEFINITION_VALUES.put(DataType.BOOLEAN, TypedValues.newBooleanValue(false));
+		DEFINITION_VALUES.put(DataType.BYTE_ARRAY, TypedValues.newByteArrayValue(new byte[0]));
+		DEFINITION_VALUES.put(DataType.DOUBLE, TypedValues.newDoubleValue(0));
+		DEFINITION_VALUES.put(DataType.FLOAT, TypedValues.newFloatValue(0));
+		DEFINITION_VALUES.put(DataType.INTEGER, TypedValues.newIntegerValue(0));
+		DEFINITION_VALUES.put(DataType.LONG, TypedValues.newLongValue(0));
+		DEFINITION_VALUES.put(DataType.STRING, TypedValues.newStringValue(""));
+	}
 	
 	/**
 	 * Constructor which sets the name of the channel, options and the associated asset. 
@@ -64,11 +82,27 @@ public class OMFChannel {
 		this.omfAsset=myAsset;
 		this.omfPublisherOptions=omfPublisherOptions;
 		
-		dateFormatter= new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-		dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
 		Calendar cal  = Calendar.getInstance();
 		this.timestamp = cal.getTime();
 	}
+	
+	/**
+	 * Creates a channel, which only describes the name and data type of a channel for the type and container definitions.
+	 * It has no timestamp and the value is the same for all channels of the data type.
+	 */
+	public static OMFChannel definitionOf(String name, DataType dataType, OMFPublisherOptions omfPublisherOptions, OMFAsset myAsset){
+		OMFChannel result = new OMFChannel(name, omfPublisherOptions, myAsset);
+		result.timestamp = null;
+		result.typedValue = DEFINITION_VALUES.get(dataType);
+		return result;
+	}
+
+	/**
+	 * Returns a channel of the asset, which only describes the name and data type of this channel.
+	 */
+	public OMFChannel toDefinition(OMFAsset myAsset){
+		return definitionOf(this.channelname, this.typedValue.getType(), this.omfPublisherOptions, myAsset);
+	}
 
 	/**
 	 * Returns the ID of the container of this channel
@@ -83,28 +117,28 @@ public class OMFChannel {
 	 */
 	public String getTypeMessageJSON(){
 		Gson gson = new Gson();
-		StringBuilder sb = new StringBuilder();
 		Map<String, Property> properties = new HashMap<>();
-		Property propChannel;
 		
+		Property propDate = new Property("string", "date-time", true);
+		properties.put(getValuePropertyName(), getValueProperty());
+		properties.put("IndexedDateTime", propDate);
+		
+		return gson.toJson(new OMFTypeMessage(getTypeID(), "object", "dynamic", properties));
+	}
+	
+	/**
+	 * Returns the property definition of the value of this channel.
+	 */
+	public Property getValueProperty(){
 		if(typedValue.getType()==DataType.BYTE_ARRAY) {
 			//if the Array-Type is used there must be an "items" key which defines the type for each array-element
 			//NOTE: MAX_ARRAY_ELEMENTS in real is the exact number of elements which has to be in the array!
 			//in this case "integer"
 			String ArrayElementType = "integer";
-			propChannel = new Property(getOMFType(), new Property(ArrayElementType), MAX_ARRAY_ELEMENTS);
-		} else {
-			propChannel = new Property(getOMFType());
+			return new Property(getOMFType(), new Property(ArrayElementType), MAX_ARRAY_ELEMENTS);
 		}
-		//create a new Channelname for the destination system to switch between Datatypes in Wire and
-		//Build your Key-Values of properties up here and put it into the Map
-		sb.append(channelname).append("_").append(this.getTypedValue().getType().name());
-			
-		Property propDate = new Property("string", "date-time", true);
-		properties.put(sb.toString(), propChannel);
-		properties.put("IndexedDateTime", propDate);
 		
-		return gson.toJson(new OMFTypeMessage(getTypeID(), "object", "dynamic", properties));
+		return new Property(getOMFType());
 	}
 	
 	/**
@@ -120,21 +154,28 @@ public class OMFChannel {
 	 */
 	public String getDataMessageJSON(){
 		Gson gson = new Gson();
-		StringBuilder sb = new StringBuilder();
-		
-		//create a new Channelname for the destination system to switch between Datatypes in Wire and create the data which will be send
-		//to the destination system.
-		sb.append(channelname).append("_").append(this.getTypedValue().getType().name());
 		ArrayList<HashMap<String, Object>> values = new ArrayList<>();
 		HashMap<String, Object> elements = new HashMap<>();
 		
-		elements.put("IndexedDateTime", this.dateFormatter.format(this.getTimestamp()));
-		elements.put(sb.toString(), getValueWithDataType());
+		elements.put("IndexedDateTime", getFormattedTimestamp());
+		elements.put(getValuePropertyName(), getValueWithDataType());
 		values.add(elements);
 
 		return gson.toJson(new OMFDataMessage(this.getContainerID(), values));	
 	} 
 	
+	/**
+	 * Returns the timestamp in the date-time format of OMF.
+	 */
+	public String getFormattedTimestamp() {
+		if(this.dateFormatter == null) {
+			this.dateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+			this.dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+		
+		return this.dateFormatter.format(this.getTimestamp());
+	}
+	
 	/**
 	 * Returns the actual channelname.
 	 */
@@ -159,11 +200,27 @@ public class OMFChannel {
 	/**
 	 * Returns the Type ID of this channel.
 	 * @return unique string consisting of host name, asset name, channel name and channel type. Each separated by a "_".
+	 * If the type mode is PRIMITIVE, the ID of the type which is shared by all channels of the data type.
 	 */
-	private String getTypeID(){
+	public String getTypeID(){
+		if(this.omfPublisherOptions.getTypeMode() == OMFTypeMode.PRIMITIVE)
+			return SHARED_TYPE_PREFIX + this.getTypedValue().getType().name();
+		
 		return this.omfPublisherOptions.getDevicename()+"_"+this.omfAsset.getAssetname()+"_"+this.getChannelname()+"_"+ this.getTypedValue().getType().name();
 	}
 	
+	/**
+	 * Returns the name of the value property in the type and data message.
+	 * Create a new Channelname for the destination system to switch between Datatypes in Wire.
+	 * A shared type always uses the same property name.
+	 */
+	public String getValuePropertyName(){
+		if(this.omfPublisherOptions.getTypeMode() == OMFTypeMode.PRIMITIVE)
+			return SHARED_VALUE_PROPERTY;
+		
+		return this.channelname+"_"+this.getTypedValue().getType().name();
+	}
+	
 	/**
 	 * Depending on the type of value of the channel, the destination-system-compliant type is returned
 	 */
@@ -190,7 +247,7 @@ public class OMFChannel {
 	/**
 	 * Gets the value for creating the JSON-String for sending the data.
 	 */
-	private <Any> Any getValueWithDataType(){
+	public <Any> Any getValueWithDataType(){
 		if(typedValue.getType()==DataType.BOOLEAN) {
 			if((Boolean)typedValue.getValue()){
 				return (Any) (Integer) 1;
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * OMFCompressedDataMessage.java
+ *
+ * The data message of an asset list, which was compressed in the background into concatenable members.
+ * The content of every received list is one member. Merged lists keep the members of their lists, which are joined
+ * by the compressed separator, so the message body is the concatenation [ + content + , + content + ... + ]
+ * of precomputed members. A split at the border of two members keeps the members of both parts.
+ * A message is immutable, the members are shared by all messages, which contain them.
+ */
+public class OMFCompressedDataMessage {
+	/**
+	 * <b>openMember</b>		compressed member of the opening bracket of the array
+	 * <b>separatorMember</b>	compressed member of the separator of two contents
+	 * <b>closeMember</b>		compressed member of the closing bracket of the array
+	 * <b>members</b>			compressed content of every list, the first list first
+	 */
+	private final byte[] openMember;
+	private final byte[] separatorMember;
+	private final byte[] closeMember;
+	private final List<Member> members;
+
+	/**
+	 * Constructor which sets the compressed brackets, separator and the content of one list with the amount of its assets.
+	 */
+	public OMFCompressedDataMessage(byte[] openMember, byte[] separatorMember, byte[] closeMember, int assetCount, byte[] contentMember) {
+		this(openMember, separatorMember, closeMember, Collections.singletonList(new Member(assetCount, contentMember)));
+	}
+
+	/**
+	 * Constructor which sets the compressed brackets, separator and contents.
+	 */
+	private OMFCompressedDataMessage(byte[] openMember, byte[] separatorMember, byte[] closeMember, List<Member> members) {
+		this.openMember = openMember;
+		this.separatorMember = separatorMember;
+		this.closeMember = closeMember;
+		this.members = Collections.unmodifiableList(members);
+	}
+
+	/**
+	 * Returns the message body, which decompresses to the data message of the list.
+	 */
+	public byte[] toBytes() {
+		int size = this.openMember.length + this.closeMember.length + (this.members.size() - 1) * this.separatorMember.length;
+		for(Member member : this.members)
+			size += member.content.length;
+
+		ByteBuffer message = ByteBuffer.allocate(size);
+		message.put(this.openMember);
+
+		for(int i = 0; i < this.members.size(); i++) {
+			if(i > 0)
+				message.put(this.separatorMember);
+			message.put(this.members.get(i).content);
+		}
+
+		message.put(this.closeMember);
+		return message.array();
+	}
+
+	/**
+	 * Returns the amount of assets of the list.
+	 */
+	public int getAssetCount() {
+		int result = 0;
+
+		for(Member member : this.members)
+			result += member.assetCount;
+
+		return result;
+	}
+
+	/**
+	 * Returns the message of this list followed by the other lists, or null if a message of the other lists is missing.
+	 * The members of a concatenable codec can be joined, even if they were compressed with another level.
+	 */
+	public OMFCompressedDataMessage merge(List<OMFCompressedDataMessage> others) {
+		List<Member> result = new ArrayList<>(this.members);
+
+		for(OMFCompressedDataMessage other : others) {
+			if(other == null)
+				return null;
+
+			result.addAll(other.members);
+		}
+
+		return new OMFCompressedDataMessage(this.openMember, this.separatorMember, this.closeMember, result);
+	}
+
+	/**
+	 * Returns the amount of assets of the first members, which is closest to the half of the assets,
+	 * or 0 if the message has only one member.
+	 */
+	public int getMemberBorderNearHalf() {
+		int half = getAssetCount() / 2;
+		int result = 0;
+		int assets = 0;
+
+		for(int i = 0; i < this.members.size() - 1; i++) {
+			assets += this.members.get(i).assetCount;
+
+			if(result == 0 || Math.abs(assets - half) < Math.abs(result - half))
+				result = assets;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the message of the assets from the first to the last index (exclusive),
+	 * or null if the indexes are not at the border of members.
+	 */
+	public OMFCompressedDataMessage slice(int fromAsset, int toAsset) {
+		List<Member> result = new ArrayList<>();
+		int assets = 0;
+
+		for(Member member : this.members) {
+			int start = assets;
+			assets += member.assetCount;
+
+			if(start >= fromAsset && assets <= toAsset)
+				result.add(member);
+			else if(assets > fromAsset && start < toAsset)
+				return null;
+		}
+
+		if(result.isEmpty())
+			return null;
+
+		return new OMFCompressedDataMessage(this.openMember, this.separatorMember, this.closeMember, result);
+	}
+
+	/**
+	 * Returns the compressed opening bracket.
+	 */
+	public byte[] getOpenMember() {
+		return this.openMember;
+	}
+
+	/**
+	 * Returns the compressed separator.
+	 */
+	public byte[] getSeparatorMember() {
+		return this.separatorMember;
+	}
+
+	/**
+	 * Returns the compressed closing bracket.
+	 */
+	public byte[] getCloseMember() {
+		return this.closeMember;
+	}
+
+	/**
+	 * Returns the amount of assets of every member.
+	 */
+	public List<Integer> getMemberAssetCounts() {
+		List<Integer> result = new ArrayList<>();
+
+		for(Member member : this.members)
+			result.add(member.assetCount);
+
+		return result;
+	}
+
+	/**
+	 * Returns the compressed content of every member.
+	 */
+	public List<byte[]> getMemberContents() {
+		List<byte[]> result = new ArrayList<>();
+
+		for(Member member : this.members)
+			result.add(member.content);
+
+		return result;
+	}
+
+	/**
+	 * Creates a message from the compressed brackets, separator and the contents with the amount of their assets.
+	 */
+	public static OMFCompressedDataMessage of(byte[] openMember, byte[] separatorMember, byte[] closeMember,
+			List<Integer> assetCounts, List<byte[]> contents) {
+		List<Member> members = new ArrayList<>();
+
+		for(int i = 0; i < contents.size(); i++)
+			members.add(new Member(assetCounts.get(i), contents.get(i)));
+
+		return new OMFCompressedDataMessage(openMember, separatorMember, closeMember, members);
+	}
+
+	/**
+	 * The compressed content of a list with the amount of its assets.
+	 */
+	private static class Member {
+		private final int assetCount;
+		private final byte[] content;
+
+		Member(int assetCount, byte[] content) {
+			this.assetCount = assetCount;
+			this.content = content;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.kura.internal.wire.asset.WireAssetConstants;
+import org.eclipse.kura.type.TypedValue;
+
+import de.megla.iot.OMFPublisher.OMFPublisherOptions;
+import de.megla.iot.OMFPublisher.OMFValidator;
+import de.megla.iot.OMFPublisher.StringExtensions;
+
+/**
+ * OMFExtractionPlan.java
+ *
+ * The OMFExtractionPlan maps every property key of a WireRecord to its channel and time stamp, so a record is extracted
+ * with one indexed pass. Assets send records with the same keys again and again, so a plan is compiled only once
+ * for every distinct set of keys and cached. The plan contains the OMF names of the channels and the names of
+ * the properties with their values and time stamps, as well as the keys whose data type has to be checked.
+ */
+public class OMFExtractionPlan {
+	/**
+	 * <b>channelnames</b>			OMF name of the channel of every slot
+	 * <b>valueKeys</b>				property key of the value of every slot
+	 * <b>timestampKeys</b>			property key of the time stamp of every slot
+	 * <b>checkedKeys</b>			property keys which are no channel values, but are checked for forbidden data types
+	 * <b>assetnames</b>			OMF names of the asset names, which were extracted with this plan
+	 * <b>plans</b>					compiled plans of every distinct set of property keys
+	 * <b>MAX_PLANS</b>				max amount of cached plans, if it is exceeded the cache is cleared
+	 * <b>MAX_ASSETNAMES</b>		max amount of cached asset names of one plan
+	 */
+	private final String[] channelnames;
+	private final String[] valueKeys;
+	private final String[] timestampKeys;
+	private final String[] checkedKeys;
+	private final Map<String, String> assetnames = new ConcurrentHashMap<>();
+
+	private static final Map<Set<String>, OMFExtractionPlan> plans = new ConcurrentHashMap<>();
+
+	private static final int MAX_PLANS = 1024;
+	private static final int MAX_ASSETNAMES = 64;
+
+	private static final String ASSET_NAME_PROPERTY_KEY = WireAssetConstants.PROP_ASSET_NAME.value().toString();
+	private static final String SINGLE_TIMESTAMP_NAME = WireAssetConstants.PROP_SINGLE_TIMESTAMP_NAME.value().toString();
+	private static final String SUFFIX_TIMESTAMP = WireAssetConstants.PROP_SUFFIX_TIMESTAMP.value().toString();
+
+	/**
+	 * Returns the plan of a set of property keys. The plan is compiled, if the set of keys is new.
+	 */
+	public static OMFExtractionPlan forKeys(Set<String> keys) {
+		OMFExtractionPlan plan = plans.get(keys);
+
+		if(plan == null) {
+			plan = new OMFExtractionPlan(keys);
+
+			if(plans.size() >= MAX_PLANS)
+				plans.clear();
+			plans.put(Collections.unmodifiableSet(new HashSet<>(keys)), plan);
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Compiles the plan of a set of property keys. With the single time stamp property every other property except the asset name
+	 * is a channel. Otherwise every property with the time stamp suffix is the time stamp of the channel without the suffix.
+	 */
+	private OMFExtractionPlan(Set<String> keys) {
+		List<String> slotChannelnames = new ArrayList<>();
+		List<String> slotValueKeys = new ArrayList<>();
+		List<String> slotTimestampKeys = new ArrayList<>();
+		List<String> slotCheckedKeys = new ArrayList<>();
+
+		boolean singleTimestamp = keys.contains(SINGLE_TIMESTAMP_NAME);
+
+		for(String key : keys) {
+			if(key.equals(ASSET_NAME_PROPERTY_KEY) || key.equals(SINGLE_TIMESTAMP_NAME))
+				continue;
+
+			if(singleTimestamp) {
+				slotChannelnames.add(StringExtensions.convertToOmfString(key));
+				slotValueKeys.add(key);
+				slotTimestampKeys.add(SINGLE_TIMESTAMP_NAME);
+			}
+			else if(key.contains(SUFFIX_TIMESTAMP)) {
+				String valueKey = key.replace(SUFFIX_TIMESTAMP, "");
+
+				slotChannelnames.add(StringExtensions.convertToOmfString(valueKey));
+				slotValueKeys.add(valueKey);
+				slotTimestampKeys.add(key);
+				slotCheckedKeys.add(key);
+			}
+		}
+
+		//Every other property, which is no channel value, is only checked
+		if(!singleTimestamp)
+			for(String key : keys)
+				if(!key.equals(ASSET_NAME_PROPERTY_KEY) && !key.contains(SUFFIX_TIMESTAMP) && !slotValueKeys.contains(key))
+					slotCheckedKeys.add(key);
+
+		this.channelnames = slotChannelnames.toArray(new String[0]);
+		this.valueKeys = slotValueKeys.toArray(new String[0]);
+		this.timestampKeys = slotTimestampKeys.toArray(new String[0]);
+		this.checkedKeys = slotCheckedKeys.toArray(new String[0]);
+	}
+
+	/**
+	 * Returns the OMF name of the asset of a record.
+	 * @throws NullPointerException if the record does not contain the asset name
+	 */
+	public String getAssetname(Map<String, TypedValue<?>> properties) {
+		TypedValue<?> assetname = properties.get(ASSET_NAME_PROPERTY_KEY);
+
+		//Name is necessary for OMF target
+		if(assetname == null)
+			throw new NullPointerException("Wirerecord does not contain assetname information");
+
+		String name = (String)assetname.getValue();
+		String result = this.assetnames.get(name);
+
+		if(result == null) {
+			result = StringExtensions.convertToOmfString(name);
+
+			if(this.assetnames.size() >= MAX_ASSETNAMES)
+				this.assetnames.clear();
+			this.assetnames.put(name, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * True if a property of the record, except the asset name and the single time stamp, has a data type, which is not supported.
+	 */
+	public boolean hasForbiddenType(Map<String, TypedValue<?>> properties) {
+		for(String key : this.valueKeys)
+			if(isForbidden(properties.get(key)))
+				return true;
+
+		for(String key : this.checkedKeys)
+			if(isForbidden(properties.get(key)))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Extracts the values and time stamps of every channel of a record into the asset. Values which are not serializable
+	 * with JSON are skipped.
+	 */
+	public void extract(Map<String, TypedValue<?>> properties, OMFAsset asset, OMFPublisherOptions omfPublisherOptions) {
+		Map<String, OMFChannel> channels = asset.getChannels();
+
+		for(int slot = 0; slot < this.channelnames.length; slot++) {
+			TypedValue<?> value = properties.get(this.valueKeys[slot]);
+
+			// if there is value which is not serializable with JSON jump over this entry
+			if(value == null || OMFValidator.isSpecialFloatingPointValue(value))
+				continue;
+
+			String channelname = this.channelnames[slot];
+
+			//Add channel if it is not already created
+			OMFChannel channel = channels.get(channelname);
+			if(channel == null) {
+				channel = new OMFChannel(channelname, omfPublisherOptions, asset);
+				channels.put(channelname, channel);
+			}
+
+			channel.setTimestamp(new Date((Long)properties.get(this.timestampKeys[slot]).getValue()));
+			channel.setTypedValue(value);
+		}
+	}
+
+	/**
+	 * True if the data type of the value is not supported.
+	 */
+	private static boolean isForbidden(TypedValue<?> value) {
+		return value != null && OMFValidator.isForbiddenType(value.getType());
+	}
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * OMFOffHeapArena.java
+ *
+ * The OMFOffHeapArena stores binary records in direct ByteBuffers outside of the Java heap.
+ * The memory is split into chunks, records are appended to the current chunk. A chunk is reused
+ * as soon as all its records were released, which fits the FIFO order of the queue.
+ * The chunks are allocated on demand up to the capacity and kept for reuse, because direct memory is only freed by the GC.
+ */
+public class OMFOffHeapArena {
+	/**
+	 * <b>capacity</b>			max amount of bytes of all chunks
+	 * <b>chunkSize</b>			size of one chunk in bytes, larger records are not stored
+	 * <b>allocatedChunks</b>	amount of allocated chunks
+	 * <b>freeChunks</b>		allocated chunks without records
+	 * <b>currentChunk</b>		chunk to which new records are appended
+	 * <b>usedBytes</b>			amount of bytes of all records, which were not released yet
+	 * <b>DEFAULT_CHUNK_SIZE</b>	size of one chunk in bytes, if the capacity is large enough
+	 */
+	private long capacity;
+	private final int chunkSize;
+	private int allocatedChunks = 0;
+	private final Deque<Chunk> freeChunks = new ArrayDeque<>();
+	private Chunk currentChunk;
+	private long usedBytes = 0;
+	
+	private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	
+	/**
+	 * Constructor which sets the capacity in bytes. No memory is allocated until the first record is stored.
+	 */
+	public OMFOffHeapArena(long capacity) {
+		this.capacity = capacity;
+		this.chunkSize = (int) Math.max(Math.min(capacity, DEFAULT_CHUNK_SIZE), 1);
+	}
+	
+	/**
+	 * Changes the capacity. Allocated chunks are kept until they are free, chunks beyond the capacity are not reused.
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		
+		while(!this.freeChunks.isEmpty() && (long) this.allocatedChunks * this.chunkSize > this.capacity) {
+			this.freeChunks.removeFirst();
+			this.allocatedChunks--;
+		}
+	}
+	
+	/**
+	 * Stores a record. Returns null if the arena is full or the record is larger than a chunk, 
+	 * so the caller keeps the data on the heap.
+	 */
+	public synchronized Record store(byte[] data) {
+		if(data.length > this.chunkSize)
+			return null;
+		
+		if(this.currentChunk == null || this.currentChunk.remaining() < data.length) {
+			Chunk chunk = nextChunk();
+			if(chunk == null)
+				return null;
+			
+			this.currentChunk = chunk;
+		}
+		
+		Record record = new Record(this.currentChunk, this.currentChunk.append(data), data.length);
+		this.usedBytes += data.length;
+		return record;
+	}
+	
+	/**
+	 * Returns the amount of bytes of all stored records.
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+	
+	/**
+	 * Returns the amount of allocated direct memory in bytes.
+	 */
+	public synchronized long getAllocatedBytes() {
+		return (long) this.allocatedChunks * this.chunkSize;
+	}
+	
+	/**
+	 * Returns a free chunk or allocates a new one, if the capacity allows it. Returns null if the arena is full.
+	 */
+	private Chunk nextChunk() {
+		if(!this.freeChunks.isEmpty())
+			return this.freeChunks.removeFirst();
+		
+		if((long) (this.allocatedChunks + 1) * this.chunkSize > this.capacity)
+			return null;
+		
+		this.allocatedChunks++;
+		return new Chunk(ByteBuffer.allocateDirect(this.chunkSize));
+	}
+	
+	/**
+	 * Releases a record. A chunk without records is reused.
+	 */
+	private synchronized void release(Record record) {
+		Chunk chunk = record.chunk;
+		chunk.records--;
+		this.usedBytes -= record.length;
+		
+		if(chunk.records > 0)
+			return;
+		
+		chunk.buffer.clear();
+		
+		if(chunk != this.currentChunk) {
+			if((long) this.allocatedChunks * this.chunkSize > this.capacity)
+				this.allocatedChunks--;
+			else
+				this.freeChunks.addLast(chunk);
+		}
+	}
+	
+	/**
+	 * A direct buffer with the amount of records, which were not released yet.
+	 */
+	private static class Chunk {
+		private final ByteBuffer buffer;
+		private int records = 0;
+		
+		Chunk(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		int remaining() {
+			return this.buffer.remaining();
+		}
+		
+		/**
+		 * Appends the data and returns its offset.
+		 */
+		int append(byte[] data) {
+			int offset = this.buffer.position();
+			this.buffer.put(data);
+			this.records++;
+			return offset;
+		}
+	}
+	
+	/**
+	 * A record in a chunk of the arena. It has to be released after it was read.
+	 */
+	public class Record {
+		private final Chunk chunk;
+		private final int offset;
+		private final int length;
+		private boolean released = false;
+		
+		private Record(Chunk chunk, int offset, int length) {
+			this.chunk = chunk;
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		/**
+		 * Returns the size of the record in bytes.
+		 */
+		public int getLength() {
+			return this.length;
+		}
+		
+		/**
+		 * Copies the record to the heap and releases it.
+		 */
+		public byte[] readAndRelease() {
+			byte[] data = new byte[this.length];
+			
+			synchronized(OMFOffHeapArena.this) {
+				if(this.released)
+					throw new IllegalStateException("Record was already released");
+				
+				ByteBuffer view = this.chunk.buffer.duplicate();
+				view.position(this.offset);
+				view.get(data);
+				
+				this.released = true;
+				release(this);
+			}
+			
+			return data;
+		}
+	}
+}
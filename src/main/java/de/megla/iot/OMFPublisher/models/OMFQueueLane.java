@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+/**
+ * OMFQueueLane.java
+ *
+ * Defines the lanes of the in-flight message queue. Every lane is drained in FIFO order,
+ * the lanes share the sending by their weights.
+ */
+public enum OMFQueueLane {
+	/**
+	 * <b>HIGH_PRIORITY</b>	data of assets and channels, which match the high priority patterns
+	 * <b>LIVE</b>			current data, which is younger than the max live age
+	 * <b>BACKLOG</b>		data, which waited longer than the max live age, for example during an outage
+	 */
+	HIGH_PRIORITY,
+	LIVE,
+	BACKLOG;
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.models;
+
+/**
+ * OMFTypeMode.java
+ *
+ * Defines how the dynamic types of the channels are created.
+ */
+public enum OMFTypeMode {
+	/**
+	 * <b>CHANNEL</b>		every channel has its own dynamic type
+	 * <b>PRIMITIVE</b>		every data type has one shared dynamic type, which is used by the containers of all channels
+	 * <b>ASSET</b>			every asset has one dynamic type with all channels as properties and one container, 
+	 * 						so a wire record becomes a single data object
+	 * <b>name</b>			name of the mode in the configuration
+	 */
+	CHANNEL("channel"),
+	PRIMITIVE("primitive"),
+	ASSET("asset");
+	
+	private String name;
+	
+	/**
+	 * Constructor of a type mode.
+	 */
+	OMFTypeMode(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Returns the name of the mode in the configuration.
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Returns the mode with the specified name. If the name is unknown, CHANNEL is returned.
+	 */
+	public static OMFTypeMode fromName(String name) {
+		for(OMFTypeMode mode : values()) {
+			if(mode.name.equalsIgnoreCase(name))
+				return mode;
+		}
+		
+		return CHANNEL;
+	}
+}
@@ -60,6 +60,13 @@ public class SourceTarget {
 		this.containerid = containerid;
 	}
 	
+	/**
+	 * Returns a key which identifies this source or target object.
+	 */
+	public String getKey() {
+		return String.format("%s|%s|%s|%s", this.typeid, this.containerid, this.index, this.typeversion);
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
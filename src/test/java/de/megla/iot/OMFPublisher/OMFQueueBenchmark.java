@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.kura.type.TypedValue;
+import org.eclipse.kura.type.TypedValues;
+import org.eclipse.kura.wire.WireRecord;
+
+import de.megla.iot.OMFPublisher.models.OMFAssetList;
+import de.megla.iot.OMFPublisher.models.OMFAssetListQueue;
+import de.megla.iot.OMFPublisher.models.OMFQueueLane;
+
+/**
+ * OMFQueueBenchmark.java
+ *
+ * The OMFQueueBenchmark measures the memory footprint of the in-flight messages while the relay is down. Synthetic WireRecords
+ * of several asset and channel shapes are converted into asset lists like in the publisher and enqueued at a target publisher,
+ * whose send loop runs against a local port without a relay, so every connection check of the loop fails.
+ * For every queue configuration it reports the retained heap and off-heap bytes per value, the GC collections and pause times
+ * during the filling and the growth of the queue over time. It is started from the test classes with:
+ * <pre>
+ * java -Xmx1g -cp ... de.megla.iot.OMFPublisher.OMFQueueBenchmark [values] [assets x channels]...
+ * java -Xmx1g -Dqueue=com.example.MyQueue -cp ... de.megla.iot.OMFPublisher.OMFQueueBenchmark 1000000 1x1 10x10 100x5
+ * </pre>
+ * The values are the amount of values per run, every shape is an amount of assets per wire envelope and channels per asset.
+ * The queue implementation is a subclass of OMFAssetListQueue with a constructor with the options, which is set by the
+ * system property "queue", or by run() with a factory. Runs with a heap per value above a baseline can be used to detect
+ * memory regressions.
+ */
+public class OMFQueueBenchmark {
+	/**
+	 * <b>DEFAULT_VALUES</b>			default amount of values of every run
+	 * <b>DEFAULT_SHAPES</b>			default shapes of the wire envelopes
+	 * <b>OFF_HEAP_CAPACITY</b>			capacity in megabytes of the off-heap backlog, so the whole backlog fits into the arena
+	 * <b>LIVE_MAX_AGE</b>				max age in seconds of a live message, so live messages stay in the live lane during a run
+	 * <b>SAMPLES</b>					amount of samples of the queue growth of every run
+	 * <b>QUEUE_PROPERTY</b>			system property with the class name of the queue implementation
+	 * <b>ASSET_NAME_PROPERTY_KEY</b>	property key of the asset name of a WireRecord, which is set by the Kura wire asset
+	 * <b>SINGLE_TIMESTAMP_NAME</b>		property key of the time stamp of all channels of a WireRecord, which is set by the Kura wire asset
+	 */
+	private static final int DEFAULT_VALUES = 500000;
+	private static final String[] DEFAULT_SHAPES = {"1x1", "10x10", "100x5"};
+	private static final int OFF_HEAP_CAPACITY = 1024;
+	private static final int LIVE_MAX_AGE = 365 * 24 * 3600;
+	private static final int SAMPLES = 10;
+	private static final String QUEUE_PROPERTY = "queue";
+
+	private static final String ASSET_NAME_PROPERTY_KEY = "assetName";
+	private static final String SINGLE_TIMESTAMP_NAME = "assetTimestamp";
+
+	/**
+	 * The configurations of the queue, which are measured.
+	 * <b>LIVE</b>				messages stay as object graph in the live lane
+	 * <b>SERIALIZED</b>		messages stay in the live lane with their data serialized at ingest
+	 * <b>BACKLOG_HEAP</b>		messages are in the backlog lane without off-heap arena
+	 * <b>BACKLOG_OFF_HEAP</b>	messages are encoded into the off-heap arena of the backlog lane
+	 * <b>CONFLATED</b>			every channel is conflated, so only the latest value is queued
+	 */
+	enum QueueMode {
+		LIVE, SERIALIZED, BACKLOG_HEAP, BACKLOG_OFF_HEAP, CONFLATED
+	}
+
+	/**
+	 * Creates the queue of a run, so the benchmark can measure any queue implementation.
+	 */
+	public interface QueueFactory {
+		OMFAssetListQueue create(OMFPublisherOptions options);
+	}
+
+	/**
+	 * Runs the benchmark with the queue of the system property "queue", or with OMFAssetListQueue.
+	 */
+	public static void main(String[] args) throws Exception {
+		String queueClassName = System.getProperty(QUEUE_PROPERTY);
+		QueueFactory factory = OMFAssetListQueue::new;
+
+		if(queueClassName != null) {
+			Class<? extends OMFAssetListQueue> queueClass = Class.forName(queueClassName).asSubclass(OMFAssetListQueue.class);
+			factory = options -> {
+				try {
+					return queueClass.getConstructor(OMFPublisherOptions.class).newInstance(options);
+				} catch(ReflectiveOperationException ex) {
+					throw new IllegalArgumentException("The queue cannot be created: " + queueClassName, ex);
+				}
+			};
+		}
+
+		run(factory, args);
+	}
+
+	/**
+	 * Runs the benchmark for every shape and queue configuration with the queues of the factory.
+	 */
+	public static void run(QueueFactory factory, String[] args) throws IOException, InterruptedException {
+		int values = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_VALUES;
+
+		List<String> shapes = new ArrayList<>();
+		for(int i = 1; i < args.length; i++)
+			shapes.add(args[i]);
+		if(shapes.isEmpty())
+			for(String shape : DEFAULT_SHAPES)
+				shapes.add(shape);
+
+		String relayURL = "https://127.0.0.1:" + findClosedPort() + "/omf";
+
+		System.out.println(String.format("%-18s %-8s %10s %8s %12s %12s %8s %10s %10s",
+				"mode", "shape", "values", "messages", "heap/value", "offheap/val", "gc", "gc ms", "ms/gc"));
+
+		for(String shape : shapes) {
+			String[] sizes = shape.toLowerCase().split("x");
+			int assets = Integer.parseInt(sizes[0].trim());
+			int channels = Integer.parseInt(sizes[1].trim());
+
+			for(QueueMode mode : QueueMode.values())
+				run(factory, relayURL, mode, shape, assets, channels, values);
+		}
+	}
+
+	/**
+	 * Fills the queue of a target publisher, whose relay is down, with the values of one shape
+	 * and prints the footprint and the queue growth.
+	 */
+	private static void run(QueueFactory factory, String relayURL, QueueMode mode, String shape, int assets, int channels, int values)
+			throws InterruptedException {
+		OMFPublisherOptions options = createOptions(mode, relayURL);
+		int envelopes = Math.max(values / (assets * channels), 1);
+		int sampleInterval = Math.max(envelopes / SAMPLES, 1);
+
+		//Warm up the extraction plans and the codec, so they are not part of the retained heap
+		OMFTargetPublisher warmUp = createTargetPublisher(factory, options);
+		fill(warmUp, options, mode, assets, channels, Math.min(envelopes, 100), 0, null);
+		warmUp.close();
+
+		long heapBefore = usedHeapAfterGc();
+		long[] gcBefore = gcCounters();
+
+		OMFTargetPublisher targetPublisher = createTargetPublisher(factory, options);
+		OMFAssetListQueue queue = targetPublisher.getInFlightMessages();
+		List<String> growth = new ArrayList<>();
+		long start = System.nanoTime();
+
+		fill(targetPublisher, options, mode, assets, channels, envelopes, sampleInterval, (envelope, used) ->
+				growth.add(String.format("    %8d ms %10d values %8d messages %8d kB heap %8d kB off-heap",
+						(System.nanoTime() - start) / 1000000, (long) envelope * assets * channels, queue.size(),
+						used / 1024, queue.getOffHeapBytes() / 1024)));
+
+		long[] gcAfter = gcCounters();
+		long heapAfter = usedHeapAfterGc();
+		long totalValues = (long) envelopes * assets * channels;
+		long collections = gcAfter[0] - gcBefore[0];
+		long gcTime = gcAfter[1] - gcBefore[1];
+
+		System.out.println(String.format("%-18s %-8s %10d %8d %12.1f %12.1f %8d %10d %10.2f",
+				mode, shape, totalValues, queue.size(), (double) (heapAfter - heapBefore) / totalValues,
+				(double) queue.getOffHeapBytes() / totalValues, collections, gcTime, collections > 0 ? (double) gcTime / collections : 0.0));
+
+		for(String sample : growth)
+			System.out.println(sample);
+
+		//Keep the queue reachable until the heap was measured
+		if(queue.isEmpty())
+			System.out.println("    queue is empty");
+
+		targetPublisher.close();
+	}
+
+	/**
+	 * Listener of the queue growth, which is called every sample interval with the amount of envelopes and the used heap.
+	 */
+	interface GrowthListener {
+		void sample(int envelopes, long usedHeap);
+	}
+
+	/**
+	 * Creates a target publisher with a queue of the factory and starts its send loop, which cannot reach the relay.
+	 */
+	private static OMFTargetPublisher createTargetPublisher(QueueFactory factory, OMFPublisherOptions options) {
+		OMFTargetPublisher result = new OMFTargetPublisher(options, null, factory.create(options),
+				new OMFDeadLetterStore(options.getDeadLetterCapacity()));
+		result.start();
+		return result;
+	}
+
+	/**
+	 * Adds the envelopes to the target publisher like the publisher, while its send loop cannot send a message.
+	 */
+	private static void fill(OMFTargetPublisher targetPublisher, OMFPublisherOptions options, QueueMode mode, int assets, int channels,
+			int envelopes, int sampleInterval, GrowthListener listener) {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long timestamp = System.currentTimeMillis();
+
+		for(int envelope = 1; envelope <= envelopes; envelope++) {
+			OMFAssetList assetList = new OMFAssetList(options);
+
+			for(int asset = 0; asset < assets; asset++)
+				assetList.addAssetFromWireRecord(createWireRecord(asset, channels, envelope, timestamp + envelope));
+
+			if(options.getSerializeAtIngest())
+				assetList.freezeDataFragments();
+
+			switch(mode) {
+			case BACKLOG_HEAP:
+			case BACKLOG_OFF_HEAP:
+				targetPublisher.enqueue(assetList, OMFQueueLane.BACKLOG);
+				break;
+			case CONFLATED:
+				targetPublisher.conflate(assetList, OMFQueueLane.LIVE);
+				break;
+			default:
+				targetPublisher.enqueue(assetList, OMFQueueLane.LIVE);
+				break;
+			}
+
+			if(listener != null && envelope % sampleInterval == 0)
+				listener.sample(envelope, memory.getHeapMemoryUsage().getUsed());
+		}
+	}
+
+	/**
+	 * Creates a WireRecord of an asset with one time stamp for all channels. The channels have the data types
+	 * DOUBLE, FLOAT, INTEGER and BOOLEAN in turn, the values change with every envelope.
+	 */
+	private static WireRecord createWireRecord(int asset, int channels, int envelope, long timestamp) {
+		Map<String, TypedValue<?>> properties = new HashMap<>();
+		properties.put(ASSET_NAME_PROPERTY_KEY, TypedValues.newStringValue("asset" + asset));
+		properties.put(SINGLE_TIMESTAMP_NAME, TypedValues.newLongValue(timestamp));
+
+		for(int channel = 0; channel < channels; channel++) {
+			int value = envelope * 31 + channel;
+
+			switch(channel % 4) {
+			case 0:
+				properties.put("channel" + channel, TypedValues.newDoubleValue(value / 7.0));
+				break;
+			case 1:
+				properties.put("channel" + channel, TypedValues.newFloatValue(value / 3.0f));
+				break;
+			case 2:
+				properties.put("channel" + channel, TypedValues.newIntegerValue(value));
+				break;
+			default:
+				properties.put("channel" + channel, TypedValues.newBooleanValue(value % 2 == 0));
+				break;
+			}
+		}
+
+		return new WireRecord(properties);
+	}
+
+	/**
+	 * Returns the options of a queue configuration with the URL of the relay, which is down.
+	 */
+	private static OMFPublisherOptions createOptions(QueueMode mode, String relayURL) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("targetURL", relayURL);
+		properties.put("liveMaxAge", LIVE_MAX_AGE);
+		properties.put("offHeapQueueCapacity", mode == QueueMode.BACKLOG_OFF_HEAP ? OFF_HEAP_CAPACITY : 0);
+		properties.put("serializeAtIngest", mode == QueueMode.SERIALIZED);
+		return new OMFPublisherOptions(properties);
+	}
+
+	/**
+	 * Returns a local port, on which no relay listens, so every connection is refused like by a relay which is down.
+	 */
+	private static int findClosedPort() throws IOException {
+		try(ServerSocket socket = new ServerSocket()) {
+			socket.bind(new InetSocketAddress("127.0.0.1", 0));
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Returns the used heap in bytes after garbage collections, until the used heap does not shrink anymore.
+	 */
+	private static long usedHeapAfterGc() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long previous = Long.MAX_VALUE;
+		long used = memory.getHeapMemoryUsage().getUsed();
+
+		for(int i = 0; i < 10 && used < previous; i++) {
+			memory.gc();
+			Thread.sleep(50);
+			previous = used;
+			used = memory.getHeapMemoryUsage().getUsed();
+		}
+
+		return Math.min(used, previous);
+	}
+
+	/**
+	 * Returns the amount of collections and their accumulated time in milliseconds of all garbage collectors.
+	 */
+	private static long[] gcCounters() {
+		long[] result = new long[2];
+
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			result[0] += Math.max(collector.getCollectionCount(), 0);
+			result[1] += Math.max(collector.getCollectionTime(), 0);
+		}
+
+		return result;
+	}
+}
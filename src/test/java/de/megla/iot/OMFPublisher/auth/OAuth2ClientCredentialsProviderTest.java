@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2020 MEGLA GmbH and/or its affiliates
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     MEGLA GmbH
+ *******************************************************************************/
+
+package de.megla.iot.OMFPublisher.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.kura.KuraErrorCode;
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.configuration.Password;
+import org.eclipse.kura.crypto.CryptoService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.megla.iot.OMFPublisher.OMFPublisherOptions;
+
+/**
+ * OAuth2ClientCredentialsProviderTest.java
+ *
+ * Tests the token fetch, the background refresh and the new token after a 401 against a local stub token endpoint.
+ * The endpoint returns the tokens "token1", "token2", ... and only accepts the decrypted client secret.
+ */
+public class OAuth2ClientCredentialsProviderTest {
+	/**
+	 * <b>server</b>			stub token endpoint
+	 * <b>requests</b>			amount of token requests, which were answered
+	 * <b>expiresIn</b>			lifetime in seconds of the returned tokens
+	 * <b>failing</b>			true if the endpoint answers with an error
+	 * <b>provider</b>			provider under test
+	 * <b>CLIENT_SECRET</b>		client secret, which is accepted by the endpoint
+	 * <b>ENCRYPTED_PREFIX</b>	prefix of the encrypted values of the fake crypto service
+	 */
+	private HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile long expiresIn = 3600;
+	private volatile boolean failing = false;
+	private OAuth2ClientCredentialsProvider provider;
+
+	private static final String CLIENT_SECRET = "s3cr3t";
+	private static final String ENCRYPTED_PREFIX = "encrypted:";
+
+	@Before
+	public void startTokenEndpoint() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/token", this::handleTokenRequest);
+		this.server.start();
+	}
+
+	@After
+	public void stopTokenEndpoint() {
+		if(this.provider != null)
+			this.provider.close();
+
+		this.server.stop(0);
+	}
+
+	@Test
+	public void fetchesTokenWithDecryptedSecret() throws Exception {
+		this.provider = createProvider();
+		waitForRequests(1);
+
+		assertEquals("Bearer token1", authorizationHeader());
+		assertEquals(1, this.requests.get());
+	}
+
+	@Test
+	public void refreshesTokenBeforeItExpires() throws Exception {
+		this.expiresIn = 2;
+		this.provider = createProvider();
+		waitForRequests(1);
+
+		assertEquals("Bearer token1", authorizationHeader());
+
+		waitForRequests(2);
+		assertEquals("Bearer token2", waitForAuthorizationHeader("Bearer token2"));
+	}
+
+	@Test
+	public void invalidateRequestsNewToken() throws Exception {
+		this.provider = createProvider();
+		waitForRequests(1);
+		assertEquals("Bearer token1", authorizationHeader());
+
+		assertTrue(this.provider.invalidate());
+		assertEquals("Bearer token2", authorizationHeader());
+	}
+
+	@Test
+	public void invalidateFailsWithoutNewToken() throws Exception {
+		this.provider = createProvider();
+		waitForRequests(1);
+		assertEquals("Bearer token1", authorizationHeader());
+
+		this.failing = true;
+		assertFalse(this.provider.invalidate());
+	}
+
+	/**
+	 * Creates the provider with the client secret of the options, which is configured as encrypted password.
+	 */
+	private OAuth2ClientCredentialsProvider createProvider() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("oauth2ClientSecret", new Password(ENCRYPTED_PREFIX + CLIENT_SECRET));
+
+		OMFPublisherOptions options = new OMFPublisherOptions(properties, createCryptoService());
+		String tokenURL = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/token";
+
+		return new OAuth2ClientCredentialsProvider(tokenURL, "client", options.getOAuth2ClientSecret(), 5000);
+	}
+
+	/**
+	 * Returns the authorization header, which the provider sets on a request.
+	 */
+	private String authorizationHeader() throws IOException {
+		RecordingConnection connection = new RecordingConnection(new URL("http://127.0.0.1/omf"));
+		this.provider.authenticate(connection);
+		return connection.headers.get("Authorization");
+	}
+
+	/**
+	 * Waits until the provider sets the expected authorization header. The endpoint counts a request when the response
+	 * is written, so the provider may not have cached the new token yet. Returns the last header.
+	 */
+	private String waitForAuthorizationHeader(String expected) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		String header = authorizationHeader();
+
+		while(!expected.equals(header) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			header = authorizationHeader();
+		}
+
+		return header;
+	}
+
+	/**
+	 * Waits until the endpoint answered the amount of requests.
+	 */
+	private void waitForRequests(int amount) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+
+		while(this.requests.get() < amount && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+
+		assertTrue(this.requests.get() >= amount);
+	}
+
+	/**
+	 * Answers a token request. A wrong client secret is rejected with 401.
+	 */
+	private void handleTokenRequest(HttpExchange exchange) throws IOException {
+		String body = URLDecoder.decode(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8), "UTF-8");
+
+		int status;
+		String response;
+
+		if(this.failing) {
+			status = 500;
+			response = "{}";
+		}
+		else if(!body.contains("grant_type=client_credentials") || !body.contains("client_secret=" + CLIENT_SECRET)) {
+			status = 401;
+			response = "{\"error\":\"invalid_client\"}";
+		}
+		else {
+			status = 200;
+			response = String.format("{\"access_token\":\"token%d\",\"token_type\":\"Bearer\",\"expires_in\":%d}",
+					this.requests.get() + 1, this.expiresIn);
+		}
+
+		byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+
+		try(OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+
+		if(status == 200)
+			this.requests.incrementAndGet();
+	}
+
+	/**
+	 * Creates a crypto service, which only decrypts values with the encrypted prefix.
+	 */
+	private static CryptoService createCryptoService() {
+		return (CryptoService) Proxy.newProxyInstance(CryptoService.class.getClassLoader(), new Class<?>[] {CryptoService.class}, 
+				(proxy, method, args) -> {
+					if(!method.getName().equals("decryptAes") || !(args[0] instanceof char[]))
+						throw new UnsupportedOperationException(method.getName());
+					
+					String value = new String((char[]) args[0]);
+					if(!value.startsWith(ENCRYPTED_PREFIX))
+						throw new KuraException(KuraErrorCode.DECODER_ERROR);
+					
+					return value.substring(ENCRYPTED_PREFIX.length()).toCharArray();
+				});
+	}
+
+	/**
+	 * Connection which only records the request headers, because HttpURLConnection hides the authorization header.
+	 */
+	private static class RecordingConnection extends HttpURLConnection {
+		private final Map<String, String> headers = new HashMap<>();
+
+		RecordingConnection(URL url) {
+			super(url);
+		}
+
+		@Override
+		public void setRequestProperty(String key, String value) {
+			this.headers.put(key, value);
+		}
+
+		@Override
+		public void connect() {
+		}
+
+		@Override
+		public void disconnect() {
+		}
+
+		@Override
+		public boolean usingProxy() {
+			return false;
+		}
+	}
+}